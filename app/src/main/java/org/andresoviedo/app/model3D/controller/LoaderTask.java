@@ -2,16 +2,22 @@ package org.andresoviedo.app.model3D.controller;
 
 import android.app.Activity;
 import android.app.ProgressDialog;
+import android.content.DialogInterface;
 import android.os.AsyncTask;
 import android.util.Log;
 
 import org.andresoviedo.app.model3D.model.Object3DBuilder;
 import org.andresoviedo.app.model3D.model.Object3DData;
+import org.andresoviedo.app.model3D.services.LoadReport;
+import org.andresoviedo.app.util.io.ProgressMonitor;
+import org.andresoviedo.app.util.io.ProgressMonitorInputStream;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Locale;
 import java.net.URL;
 
 /**
@@ -39,6 +45,10 @@ public abstract class LoaderTask extends AsyncTask<Void, Integer, Object3DData>
 	private final String modelId;
 
 	protected Exception error;
+	/**
+	 * Timing of the loading stages. It's completed by the renderer when the model is first drawn
+	 */
+	protected final LoadReport report;
 
 	/**
 	 * 构建一个新的进度对话框，用于异步加载数据模型
@@ -55,6 +65,7 @@ public abstract class LoaderTask extends AsyncTask<Void, Integer, Object3DData>
 		this.modelId = modelId;
 		this.dialog = new ProgressDialog(parent);
 		this.callback = callback;
+		this.report = new LoadReport(modelId, callback);
 	}
 
 
@@ -62,7 +73,14 @@ public abstract class LoaderTask extends AsyncTask<Void, Integer, Object3DData>
 	protected void onPreExecute() {
 		super.onPreExecute();
 		this.dialog.setMessage("Loading...");
-		this.dialog.setCancelable(false);
+		this.dialog.setCancelable(true);
+		this.dialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+			@Override
+			public void onCancel(DialogInterface dialog) {
+				// the streams being read stop at the next read
+				cancel(true);
+			}
+		});
 		this.dialog.show();
 	}
 
@@ -72,6 +90,10 @@ public abstract class LoaderTask extends AsyncTask<Void, Integer, Object3DData>
 	protected Object3DData doInBackground(Void... params) {
 		try {
 			Object3DData data = build();
+			if (isCancelled()) {
+				return null;
+			}
+			data.setLoadReport(report);
 			callback.onLoadComplete(data);
 			build(data);
 			return  data;
@@ -85,6 +107,42 @@ public abstract class LoaderTask extends AsyncTask<Void, Integer, Object3DData>
 
 	protected abstract void build(Object3DData data) throws Exception;
 
+	/**
+	 * Wrap the stream so the dialog shows the progress of the reading (percent & throughput). Reading stops when the
+	 * task is cancelled
+	 *
+	 * @param stream the model data
+	 * @param length the size of the stream or -1 if unknown
+	 * @return the monitored stream
+	 */
+	protected InputStream monitor(InputStream stream, long length) {
+		return new ProgressMonitorInputStream(stream, length, progressListener);
+	}
+
+	/**
+	 * Same as {@link #monitor(InputStream, long)} for the data that is not read from a stream (i.e. memory mapped
+	 * files): the reader counts the bytes parsed and checks if it's cancelled
+	 *
+	 * @param length the size of the data
+	 * @return the progress monitor
+	 */
+	protected ProgressMonitor monitor(long length) {
+		return new ProgressMonitor(length, progressListener);
+	}
+
+	private final ProgressMonitor.Listener progressListener = new ProgressMonitor.Listener() {
+		@Override
+		public void onProgress(long read, long total, float bytesPerSecond) {
+			// in KB, so the values fit in the progress integers
+			publishProgress(2, (int) (read / 1024), (int) (total / 1024), (int) (bytesPerSecond / 1024));
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return LoaderTask.this.isCancelled();
+		}
+	};
+
 	@Override
 	protected void onProgressUpdate(Integer... values) {
 		super.onProgressUpdate(values);
@@ -96,7 +154,15 @@ public abstract class LoaderTask extends AsyncTask<Void, Integer, Object3DData>
 				this.dialog.setMessage("分配内存...");
 				break;
 			case 2:
-				this.dialog.setMessage("数据加载...");
+				if (values.length < 4) {
+					this.dialog.setMessage("数据加载...");
+				} else if (values[2] > 0) {
+					this.dialog.setMessage(String.format(Locale.US, "数据加载... %d%% (%.1f MB/s)",
+							Math.min(100, values[1] * 100L / values[2]), values[3] / 1024f));
+				} else {
+					this.dialog.setMessage(String.format(Locale.US, "数据加载... %.1f MB (%.1f MB/s)",
+							values[1] / 1024f, values[3] / 1024f));
+				}
 				break;
 			case 3:
 				this.dialog.setMessage("调整模型...");
@@ -110,6 +176,15 @@ public abstract class LoaderTask extends AsyncTask<Void, Integer, Object3DData>
 		}
 	}
 
+	@Override
+	protected void onCancelled() {
+		super.onCancelled();
+		if (dialog.isShowing()) {
+			dialog.dismiss();
+		}
+		callback.onLoadError(new InterruptedIOException("Loading cancelled"));
+	}
+
 	@Override
 	protected void onPostExecute(Object3DData data) {
 		super.onPostExecute(data);
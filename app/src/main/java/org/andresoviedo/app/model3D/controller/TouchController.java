@@ -228,7 +228,7 @@ public class TouchController {
 			Log.v(TAG, "Fin");
 		}
 
-		view.requestRender();
+		view.getFrameScheduler().requestFrame();
 
 		return true;
 
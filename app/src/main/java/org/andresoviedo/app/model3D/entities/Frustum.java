@@ -0,0 +1,120 @@
+package org.andresoviedo.app.model3D.entities;
+
+/**
+ * The 6 planes of the view frustum, extracted from the view projection matrix, used to skip the objects (and the
+ * parts of the objects) that are outside the screen. Objects are tested with bounding spheres.
+ *
+ * @author andresoviedo
+ */
+public final class Frustum {
+
+	// a, b, c, d of the left, right, bottom, top, near & far planes. Normals point inside
+	private final float[] planes = new float[24];
+	private boolean enabled = true;
+
+	// counters of the current frame
+	private int visibleObjects;
+	private int culledObjects;
+	private int visibleRanges;
+	private int culledRanges;
+
+	/**
+	 * Extract the planes of the frustum and reset the counters
+	 *
+	 * @param vpMatrix projection * view matrix (column major)
+	 */
+	public void update(float[] vpMatrix) {
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 4; j++) {
+				// row 3 +/- row i
+				planes[i * 8 + j] = vpMatrix[j * 4 + 3] + vpMatrix[j * 4 + i];
+				planes[i * 8 + 4 + j] = vpMatrix[j * 4 + 3] - vpMatrix[j * 4 + i];
+			}
+		}
+		for (int i = 0; i < 24; i += 4) {
+			float length = (float) Math.sqrt(planes[i] * planes[i] + planes[i + 1] * planes[i + 1]
+					+ planes[i + 2] * planes[i + 2]);
+			for (int j = 0; j < 4; j++) {
+				planes[i + j] /= length;
+			}
+		}
+		visibleObjects = culledObjects = visibleRanges = culledRanges = 0;
+	}
+
+	/**
+	 * @param enabled false to draw everything (i.e. to compare the performance)
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Test an object
+	 *
+	 * @param mMatrix the model matrix of the object
+	 * @param spheres the bounding spheres in model space: center x, y, z & radius
+	 * @param offset  offset of the sphere
+	 * @return true if the sphere is (at least partially) inside the frustum
+	 */
+	public boolean isVisible(float[] mMatrix, float[] spheres, int offset) {
+		boolean ret = test(mMatrix, spheres, offset);
+		if (ret) {
+			visibleObjects++;
+		} else {
+			culledObjects++;
+		}
+		return ret;
+	}
+
+	/**
+	 * Test a part (draw range) of an object
+	 *
+	 * @see #isVisible(float[], float[], int)
+	 */
+	public boolean isRangeVisible(float[] mMatrix, float[] spheres, int offset) {
+		boolean ret = test(mMatrix, spheres, offset);
+		if (ret) {
+			visibleRanges++;
+		} else {
+			culledRanges++;
+		}
+		return ret;
+	}
+
+	private boolean test(float[] m, float[] spheres, int offset) {
+		if (!enabled) {
+			return true;
+		}
+		float x = spheres[offset], y = spheres[offset + 1], z = spheres[offset + 2];
+		// world space center
+		float wx = m[0] * x + m[4] * y + m[8] * z + m[12];
+		float wy = m[1] * x + m[5] * y + m[9] * z + m[13];
+		float wz = m[2] * x + m[6] * y + m[10] * z + m[14];
+		// the radius grows with the biggest scale
+		float scale = Math.max(m[0] * m[0] + m[1] * m[1] + m[2] * m[2],
+				Math.max(m[4] * m[4] + m[5] * m[5] + m[6] * m[6], m[8] * m[8] + m[9] * m[9] + m[10] * m[10]));
+		float radius = spheres[offset + 3] * (float) Math.sqrt(scale);
+		for (int i = 0; i < 24; i += 4) {
+			if (planes[i] * wx + planes[i + 1] * wy + planes[i + 2] * wz + planes[i + 3] < -radius) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int getVisibleObjects() {
+		return visibleObjects;
+	}
+
+	public int getCulledObjects() {
+		return culledObjects;
+	}
+
+	public int getVisibleRanges() {
+		return visibleRanges;
+	}
+
+	public int getCulledRanges() {
+		return culledRanges;
+	}
+}
@@ -0,0 +1,58 @@
+package org.andresoviedo.app.model3D.model;
+
+import org.andresoviedo.app.model3D.util.TextureImage;
+import org.andresoviedo.app.model3D.util.TextureManager;
+
+/**
+ * Material of some ranges of indices of an object: its diffuse color (Kd) and its texture. The faces of the objects
+ * are sorted by material, so every material is drawn with a single call per range instead of storing its color in
+ * every vertex.
+ *
+ * Materials sharing the same texture share the same image data, so it's decoded & uploaded only once.
+ *
+ * @author andresoviedo
+ */
+public final class DrawMaterial implements TextureManager.Textured {
+
+	private final String name;
+	// rgba or null to use the color of the object
+	private final float[] color;
+	private byte[] textureData;
+	// the texture decoded out of the GL thread
+	private TextureImage textureImage;
+
+	public DrawMaterial(String name, float[] color) {
+		this.name = name;
+		this.color = color;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the diffuse color (rgba) or null if the material has no color
+	 */
+	public float[] getColor() {
+		return color;
+	}
+
+	@Override
+	public byte[] getTextureData() {
+		return textureData;
+	}
+
+	public void setTextureData(byte[] textureData) {
+		this.textureData = textureData;
+	}
+
+	@Override
+	public TextureImage getTextureImage() {
+		return textureImage;
+	}
+
+	@Override
+	public void setTextureImage(TextureImage textureImage) {
+		this.textureImage = textureImage;
+	}
+}
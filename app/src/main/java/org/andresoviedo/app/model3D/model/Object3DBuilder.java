@@ -5,29 +5,47 @@ import android.content.res.AssetManager;
 import android.opengl.GLES20;
 import android.util.Log;
 
+import org.andresoviedo.app.model3D.entities.Frustum;
+import org.andresoviedo.app.model3D.services.LoadReport;
 import org.andresoviedo.app.model3D.services.WavefrontLoader;
 import org.andresoviedo.app.model3D.services.WavefrontLoader.FaceMaterials;
 import org.andresoviedo.app.model3D.services.WavefrontLoader.Faces;
 import org.andresoviedo.app.model3D.services.WavefrontLoader.Material;
 import org.andresoviedo.app.model3D.services.WavefrontLoader.Materials;
-import org.andresoviedo.app.model3D.services.WavefrontLoader.Tuple3;
 import org.andresoviedo.app.model3D.services.wavefront.WavefrontLoader2;
+import org.andresoviedo.app.model3D.util.BufferObjectManager;
+import org.andresoviedo.app.model3D.util.GLFacade;
+import org.andresoviedo.app.model3D.util.TextureImage;
+import org.andresoviedo.app.model3D.util.TextureManager;
+import org.andresoviedo.app.util.io.BinaryCache;
 import org.andresoviedo.app.util.math.Math3DUtils;
+import org.andresoviedo.app.util.nio.GrowableFloatBuffer;
+import org.andresoviedo.app.util.nio.NativeMemory;
 import org.apache.commons.io.IOUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.Buffer;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public final class Object3DBuilder {
 
@@ -37,9 +55,18 @@ public final class Object3DBuilder {
 		public void onLoadComplete(Object3DData data);
 
 		public void onBuildComplete(Object3DData data);
+
+		/**
+		 * Timing of every loading stage. It's called from the GL thread once the model is drawn for the first time
+		 */
+		public void onLoadReport(LoadReport report);
 	}
 
 	private static final int COORDS_PER_VERTEX = 3;
+	/**
+	 * Max vertices that can be referenced with (unsigned) 16 bit indices
+	 */
+	public static final int MAX_SHORT_INDEXED_VERTICES = 65535;
 	/**
 	 * Default vertices colors
 	 */
@@ -317,6 +344,14 @@ public final class Object3DBuilder {
 	private Object3DV6 object3dv6;
 	private Object3DV7 object3dv7;
 	private Object3DV8 object3dv8;
+	// where the drawers send the GL calls
+	private GLFacade gl;
+	// copies of the buffers in the GPU shared by all the drawers
+	private BufferObjectManager bufferObjectManager;
+	// view frustum of the frame
+	private Frustum frustum;
+	// textures of the materials
+	private TextureManager textureManager;
 
 	static {
 		System.setProperty("java.protocol.handler.pkgs", "org.andresoviedo.app.util.url|"+System.getProperty("java.protocol.handler.pkgs"));
@@ -389,8 +424,8 @@ public final class Object3DBuilder {
 			wfl.loadModel(is);
 			is.close();
 
-			Object3DData data3D = new Object3DData(wfl.getVerts(), wfl.getNormals(), wfl.getTexCoords(), wfl.getFaces(),
-					wfl.getFaceMats(), wfl.getMaterials());
+			Object3DData data3D = new Object3DData(wfl.getVerts(), wfl.getNormals(), wfl.getTexCoordsBuffer(),
+					wfl.getTexCoordsStride(), wfl.getFaces(), wfl.getFaceMats(), wfl.getMaterials());
 			data3D.setId(assetFilename);
 			data3D.setAssetsDir(assetDir);
 			data3D.setDimensions(wfl.getDimensions());
@@ -405,6 +440,47 @@ public final class Object3DBuilder {
 		}
 	}
 
+	/**
+	 * @param gl                  the facade all the drawers send the GL calls to
+	 * @param bufferObjectManager the manager of the buffer objects used by all the drawers or null to draw from
+	 *                            client memory
+	 */
+	public void setGL(GLFacade gl, BufferObjectManager bufferObjectManager) {
+		this.gl = gl;
+		this.bufferObjectManager = bufferObjectManager;
+		for (Object3DImpl drawer : new Object3DImpl[]{object3dv0, object3dv1, object3dv2, object3dv3, object3dv4,
+				object3dv5, object3dv6, object3dv7, object3dv8}) {
+			if (drawer != null) {
+				configure(drawer);
+			}
+		}
+	}
+
+	/**
+	 * @param textureManager the manager of the textures of the materials drawn by all the drawers
+	 */
+	public void setTextureManager(TextureManager textureManager) {
+		this.textureManager = textureManager;
+		setGL(gl, bufferObjectManager);
+	}
+
+	/**
+	 * @param frustum the frustum used by all the drawers to skip the parts of the objects outside the screen
+	 */
+	public void setFrustum(Frustum frustum) {
+		this.frustum = frustum;
+		setGL(gl, bufferObjectManager);
+	}
+
+	private void configure(Object3DImpl drawer) {
+		if (gl != null) {
+			drawer.setGLFacade(gl);
+		}
+		drawer.setBufferObjectManager(bufferObjectManager);
+		drawer.setFrustum(frustum);
+		drawer.setTextureManager(textureManager);
+	}
+
 	public Object3D getDrawer(Object3DData obj, boolean usingTextures, boolean usingLights) throws IOException {
 
 		if (object3dv1 == null) {
@@ -416,6 +492,7 @@ public final class Object3DBuilder {
 			object3dv6 = new Object3DV6();
 			object3dv7 = new Object3DV7();
 			object3dv8 = new Object3DV8();
+			setGL(gl, bufferObjectManager);
 		}
 
 		if (usingTextures && usingLights && obj.getVertexColorsArrayBuffer() != null && obj.getTextureData() != null
@@ -469,7 +546,7 @@ public final class Object3DBuilder {
 
 
 
-		Log.i("Object3DBuilder", "Allocating vertex normals buffer... Total normals ("+faces.facesNormIdxs.size()+")");
+		Log.i("Object3DBuilder", "Allocating vertex normals buffer... Total normals ("+faces.facesNormIdxs.limit()/3+")");
 		// Normals buffer size = Number_of_faces X 3 (vertices_per_face) X 3 (coords_per_normal) X 4 (bytes_per_float)
 		final FloatBuffer vertexNormalsArrayBuffer = createNativeByteBuffer(faces.getSize() * 3 * 3 * 4).asFloatBuffer();;
 		obj.setVertexNormalsArrayBuffer(vertexNormalsArrayBuffer);
@@ -478,13 +555,12 @@ public final class Object3DBuilder {
 		final FloatBuffer vertexNormalsBuffer = obj.getNormals().asReadOnlyBuffer();
 		if (vertexNormalsBuffer.capacity() > 0) {
 			Log.i("Object3DBuilder", "Populating normals buffer...");
-			for (int n=0; n<faces.facesNormIdxs.size(); n++) {
-				int[] normal = faces.facesNormIdxs.get(n);
-				for (int i = 0; i < normal.length; i++) {
-					vertexNormalsArrayBuffer.put(n*9+i*3,vertexNormalsBuffer.get(normal[i] * 3));
-					vertexNormalsArrayBuffer.put(n*9+i*3+1,vertexNormalsBuffer.get(normal[i] * 3 + 1));
-					vertexNormalsArrayBuffer.put(n*9+i*3+2,vertexNormalsBuffer.get(normal[i] * 3 + 2));
-				}
+			final IntBuffer normalIdxs = faces.facesNormIdxs;
+			for (int n=0; n<normalIdxs.limit(); n++) {
+				int normal = normalIdxs.get(n);
+				vertexNormalsArrayBuffer.put(n*3,vertexNormalsBuffer.get(normal * 3));
+				vertexNormalsArrayBuffer.put(n*3+1,vertexNormalsBuffer.get(normal * 3 + 1));
+				vertexNormalsArrayBuffer.put(n*3+2,vertexNormalsBuffer.get(normal * 3 + 2));
 			}
 		} else {
 			// calculate normals for all triangles
@@ -525,8 +601,7 @@ public final class Object3DBuilder {
 
 		FloatBuffer colorArrayBuffer = null;
 		if (materials != null) {
-			Log.i("Object3DBuilder", "Reading materials...");
-			materials.readMaterials(obj.getCurrentDir(), obj.getAssetsDir(), assets);
+			readMaterials(assets, obj, materials);
 		}
 
 		if (materials != null && !faceMats.isEmpty()) {
@@ -555,55 +630,16 @@ public final class Object3DBuilder {
 		obj.setVertexColorsArrayBuffer(colorArrayBuffer);
 
 
-		String texture = null;
-		byte[] textureData = null;
-		if (materials != null && !materials.materials.isEmpty()) {
-
-			// TODO: process all textures
-			for (Material mat : materials.materials.values()) {
-				if (mat.getTexture() != null) {
-					texture = mat.getTexture();
-					break;
-				}
-			}
-			if (texture != null) {
-				if (obj.getCurrentDir() != null) {
-					File file = new File(obj.getCurrentDir(), texture);
-					Log.i("Object3DBuilder", "Loading texture '" + file + "'...");
-					ByteArrayOutputStream bos = new ByteArrayOutputStream();
-					FileInputStream fis = new FileInputStream(file);
-					IOUtils.copy(fis, bos);
-					fis.close();
-					textureData = bos.toByteArray();
-					bos.close();
-				} else {
-					String assetResourceName = obj.getAssetsDir() + "/" + texture;
-					Log.i("Object3DBuilder", "Loading texture '" + assetResourceName + "'...");
-					ByteArrayOutputStream bos = new ByteArrayOutputStream();
-					InputStream fis = assets.open(assetResourceName);
-					IOUtils.copy(fis, bos);
-					fis.close();
-					textureData = bos.toByteArray();
-					bos.close();
-				}
-			} else {
-				Log.i("Object3DBuilder", "Found material(s) but no texture");
-			}
-		} else{
-			Log.i("Object3DBuilder", "No materials -> No texture");
-		}
+		String texture = getTexture(materials);
+		byte[] textureData = loadTexture(assets, obj, texture);
 
 
 		if (textureData != null) {
-			ArrayList<Tuple3> texCoords = obj.getTexCoords();
-			if (texCoords != null && texCoords.size() > 0) {
-
-				Log.i("Object3DBuilder", "Allocating/populating texture buffer...");
-				FloatBuffer textureCoordsBuffer = createNativeByteBuffer(texCoords.size() * 2 * 4).asFloatBuffer();
-				for (Tuple3 texCor : texCoords) {
-					textureCoordsBuffer.put(texCor.getX());
-					textureCoordsBuffer.put(obj.isFlipTextCoords() ? 1 - texCor.getY() : texCor.getY());
-				}
+			// tex coords are read directly from the packed buffer
+			FloatBuffer textureCoordsBuffer = obj.getTextureCoordsBuffer();
+			if (textureCoordsBuffer != null && textureCoordsBuffer.limit() > 0) {
+				int stride = obj.getTextureCoordsStride();
+				boolean flip = obj.isFlipTextCoords();
 
 				Log.i("Object3DBuilder", "Populating texture array buffer...");
 				FloatBuffer textureCoordsArraysBuffer = createNativeByteBuffer(2 * faces.getVerticesReferencesCount() * 4).asFloatBuffer();
@@ -616,7 +652,8 @@ public final class Object3DBuilder {
 
 					Log.i("Object3DBuilder", "Populating texture array buffer...");
 					int counter = 0;
-					for (int i = 0; i < faces.facesTexIdxs.size(); i++) {
+					final IntBuffer texIdxs = faces.facesTexIdxs;
+					for (int i = 0; i < texIdxs.limit() / 3; i++) {
 
 						// get current texture
 						if (!faceMats.isEmpty() && faceMats.findMaterial(i) != null) {
@@ -633,12 +670,12 @@ public final class Object3DBuilder {
 						}
 
 						// populate texture coords if ok
-						int[] text = faces.facesTexIdxs.get(i);
-						for (int j = 0; j < text.length; j++) {
+						for (int j = i * 3; j < i * 3 + 3; j++) {
 							if (textureOk) {
 								anyTextureOk = true;
-								textureCoordsArraysBuffer.put(counter++, textureCoordsBuffer.get(text[j] * 2));
-								textureCoordsArraysBuffer.put(counter++, textureCoordsBuffer.get(text[j] * 2 + 1));
+								float v = textureCoordsBuffer.get(texIdxs.get(j) * stride + 1);
+								textureCoordsArraysBuffer.put(counter++, textureCoordsBuffer.get(texIdxs.get(j) * stride));
+								textureCoordsArraysBuffer.put(counter++, flip ? 1 - v : v);
 							} else {
 								textureCoordsArraysBuffer.put(counter++, 0f);
 								textureCoordsArraysBuffer.put(counter++, 0f);
@@ -649,12 +686,10 @@ public final class Object3DBuilder {
 					if (!anyTextureOk) {
 						Log.i("Object3DBuilder", "Texture is wrong. Applying global texture");
 						counter = 0;
-						for (int j=0; j<faces.facesTexIdxs.size(); j++) {
-							int[] text = faces.facesTexIdxs.get(j);
-							for (int i = 0; i < text.length; i++) {
-								textureCoordsArraysBuffer.put(counter++, textureCoordsBuffer.get(text[i] * 2));
-								textureCoordsArraysBuffer.put(counter++, textureCoordsBuffer.get(text[i] * 2 + 1));
-							}
+						for (int j=0; j<texIdxs.limit(); j++) {
+							float v = textureCoordsBuffer.get(texIdxs.get(j) * stride + 1);
+							textureCoordsArraysBuffer.put(counter++, textureCoordsBuffer.get(texIdxs.get(j) * stride));
+							textureCoordsArraysBuffer.put(counter++, flip ? 1 - v : v);
 						}
 					}
 				} catch (Exception ex) {
@@ -663,8 +698,664 @@ public final class Object3DBuilder {
 			}
 		}
 		obj.setTextureData(textureData);
+		decodeTexture(obj);
+
+		return buildInterleavedArray(obj);
+	}
+
+	/**
+	 * Interleave the vertex arrays of the object in a single buffer, so all the attributes of every vertex are read
+	 * together when drawing. Objects with only positions are not interleaved.
+	 *
+	 * @param obj the object with the vertex arrays
+	 * @return the same object with the interleaved buffer
+	 */
+	public static Object3DData buildInterleavedArray(Object3DData obj) {
+		FloatBuffer normals = obj.getVertexNormalsArrayBuffer();
+		FloatBuffer textureCoords = obj.getTextureCoordsArrayBuffer();
+		FloatBuffer colors = obj.getVertexColorsArrayBuffer();
+		if (obj.getVertexArrayBuffer() == null || (normals == null && textureCoords == null && colors == null)) {
+			return obj;
+		}
+		VertexLayout layout = new VertexLayout(normals != null, textureCoords != null, colors != null);
+		Log.i("Object3DBuilder", "Interleaving vertex arrays. Stride: " + layout.getStride());
+		return obj.setInterleavedArrayBuffer(
+				layout.interleave(obj.getVertexArrayBuffer(), normals, textureCoords, colors), layout);
+	}
+
+	/**
+	 * Get the texture of the object, drawn on the faces without material. Indexed objects draw the faces of every
+	 * material with the texture of the material (see {@link DrawMaterial}), so it's only used for all the faces by
+	 * {@link #generateArrays(AssetManager, Object3DData)}
+	 *
+	 * @return the first texture found in the materials or null if there is no texture
+	 */
+	private static String getTexture(Materials materials) {
+		if (materials == null || materials.materials.isEmpty()) {
+			Log.i("Object3DBuilder", "No materials -> No texture");
+			return null;
+		}
+		for (Material mat : materials.materials.values()) {
+			if (mat.getTexture() != null) {
+				return mat.getTexture();
+			}
+		}
+		Log.i("Object3DBuilder", "Found material(s) but no texture");
+		return null;
+	}
+
+	private static void readMaterials(AssetManager assets, Object3DData obj, Materials materials) {
+		Log.i("Object3DBuilder", "Reading materials...");
+		LoadReport report = obj.getLoadReport();
+		if (report != null) {
+			report.begin(LoadReport.MATERIALS);
+		}
+		materials.readMaterials(obj.getCurrentDir(), obj.getAssetsDir(), assets);
+		if (report != null) {
+			report.end(LoadReport.MATERIALS);
+		}
+	}
+
+	private static byte[] loadTexture(AssetManager assets, Object3DData obj, String texture) throws IOException {
+		if (texture == null) {
+			return null;
+		}
+		LoadReport report = obj.getLoadReport();
+		if (report != null) {
+			report.begin(LoadReport.TEXTURES);
+		}
+		byte[] textureData;
+		if (obj.getCurrentDir() != null) {
+			File file = new File(obj.getCurrentDir(), texture);
+			Log.i("Object3DBuilder", "Loading texture '" + file + "'...");
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			FileInputStream fis = new FileInputStream(file);
+			IOUtils.copy(fis, bos);
+			fis.close();
+			textureData = bos.toByteArray();
+			bos.close();
+		} else {
+			String assetResourceName = obj.getAssetsDir() + "/" + texture;
+			Log.i("Object3DBuilder", "Loading texture '" + assetResourceName + "'...");
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			InputStream fis = assets.open(assetResourceName);
+			IOUtils.copy(fis, bos);
+			fis.close();
+			textureData = bos.toByteArray();
+			bos.close();
+		}
+		if (report != null) {
+			report.end(LoadReport.TEXTURES);
+			report.addBytesRead(LoadReport.TEXTURES, textureData.length);
+		}
+		return textureData;
+	}
+
+	/**
+	 * Decode the texture while loading, so the GL thread only has to upload it
+	 */
+	private static void decodeTexture(Object3DData obj) {
+		obj.setTextureImage(decodeTexture(obj.getLoadReport(), obj.getTextureData()));
+	}
+
+	/**
+	 * Decode the textures of the object and of its materials. Materials with the same texture share the image
+	 */
+	private static void decodeTextures(Object3DData obj) {
+		decodeTexture(obj);
+		if (obj.getDrawMaterials() == null) {
+			return;
+		}
+		Map<byte[], TextureImage> images = new IdentityHashMap<byte[], TextureImage>();
+		images.put(obj.getTextureData(), obj.getTextureImage());
+		for (DrawMaterial material : obj.getDrawMaterials()) {
+			byte[] data = material.getTextureData();
+			if (!images.containsKey(data)) {
+				images.put(data, decodeTexture(obj.getLoadReport(), data));
+			}
+			material.setTextureImage(images.get(data));
+		}
+	}
+
+	private static TextureImage decodeTexture(LoadReport report, byte[] textureData) {
+		if (textureData == null) {
+			return null;
+		}
+		if (report != null) {
+			report.begin(LoadReport.TEXTURES);
+		}
+		TextureImage ret = TextureImage.decode(textureData);
+		if (report != null) {
+			report.end(LoadReport.TEXTURES);
+		}
+		return ret;
+	}
+
+	/**
+	 * Get the materials drawn by the ranges of an indexed object, loading their textures. Every texture is read once
+	 * and the object texture (used by the faces without material) is shared with the materials that use it too.
+	 *
+	 * @param usedMaterials the materials in the order they are referenced by the ranges
+	 * @param texture       the object texture
+	 * @param textureData   the object texture already loaded
+	 * @param useTexture    whether the object has texture coordinates for the textures
+	 * @return the materials to draw
+	 */
+	private static List<DrawMaterial> loadDrawMaterials(AssetManager assets, Object3DData obj,
+														List<Material> usedMaterials, String texture,
+														byte[] textureData, boolean useTexture) {
+		Map<String, byte[]> textures = new HashMap<String, byte[]>();
+		textures.put(texture, textureData);
+		List<DrawMaterial> drawMaterials = new ArrayList<DrawMaterial>();
+		for (Material mat : usedMaterials) {
+			DrawMaterial drawMaterial = new DrawMaterial(mat.getName(), mat.getKdColor());
+			if (useTexture && mat.getTexture() != null) {
+				if (!textures.containsKey(mat.getTexture())) {
+					try {
+						textures.put(mat.getTexture(), loadTexture(assets, obj, mat.getTexture()));
+					} catch (IOException ex) {
+						Log.e("Object3DBuilder", "Couldn't load texture '" + mat.getTexture() + "'", ex);
+						textures.put(mat.getTexture(), null);
+					}
+				}
+				drawMaterial.setTextureData(textures.get(mat.getTexture()));
+			}
+			drawMaterials.add(drawMaterial);
+		}
+		Log.i("Object3DBuilder", "Materials: " + drawMaterials.size() + ". Textures: " + textures.size());
+		return drawMaterials;
+	}
+
+	/**
+	 * Build the arrays of the object welding the triangle corners that share the same position, normal & texture
+	 * coordinate, so every unique vertex is stored only once and the object is drawn with
+	 * {@link GLES20#glDrawElements(int, int, int, java.nio.Buffer)} using the generated indices.
+	 * <p>
+	 * Faces are sorted by material, so every material is a range of indices drawn with its own color & texture (see
+	 * {@link DrawMaterial}) instead of storing the color in every vertex.
+	 * <p>
+	 * When the texture coordinate or normal indices are not defined for all the faces, or the faces reference
+	 * elements that don't exist, the object is built with {@link #generateArrays(AssetManager, Object3DData)}.
+	 *
+	 * @param assets to read the materials and textures
+	 * @param obj    the loaded object
+	 * @return the same object
+	 */
+	public static Object3DData generateIndexedArrays(AssetManager assets, Object3DData obj) throws IOException {
+
+		Faces faces = obj.getFaces(); // model faces
+		FaceMaterials faceMats = obj.getFaceMats();
+		Materials materials = obj.getMaterials();
+		int corners = faces.getVerticesReferencesCount();
+
+		final FloatBuffer vertexBuffer = obj.getVerts().asReadOnlyBuffer();
+		final FloatBuffer vertexNormalsBuffer = obj.getNormals().asReadOnlyBuffer();
+		final boolean fileNormals = vertexNormalsBuffer.capacity() > 0;
+		if (fileNormals && faces.facesNormIdxs.limit() != corners) {
+			Log.i("Object3DBuilder", "Not all faces have normals. Building arrays...");
+			return generateArrays(assets, obj);
+		}
+
+		if (materials != null) {
+			readMaterials(assets, obj, materials);
+		}
+		final boolean useMaterials = materials != null && !faceMats.isEmpty();
+
+		// material of every face (-1 if none). The material of a face is kept until another one is used
+		int[] faceMaterials = new int[faces.getSize()];
+		List<Material> usedMaterials = new ArrayList<Material>();
+		Map<String, Integer> materialIds = new HashMap<String, Integer>();
+		int currentMaterial = -1;
+		for (int i = 0; i < faces.getSize(); i++) {
+			String matName = useMaterials ? faceMats.findMaterial(i) : null;
+			if (matName != null) {
+				Integer id = materialIds.get(matName);
+				if (id == null) {
+					Material mat = materials.getMaterial(matName);
+					id = mat != null ? usedMaterials.size() : -1;
+					if (mat != null) {
+						usedMaterials.add(mat);
+					}
+					materialIds.put(matName, id);
+				}
+				if (id != -1) {
+					currentMaterial = id;
+				}
+			}
+			faceMaterials[i] = currentMaterial;
+		}
+
+		String texture = getTexture(materials);
+		FloatBuffer textureCoordsBuffer = obj.getTextureCoordsBuffer();
+		final boolean useTexture = texture != null && textureCoordsBuffer != null && textureCoordsBuffer.limit() > 0;
+		if (useTexture && faces.facesTexIdxs.limit() != corners) {
+			Log.i("Object3DBuilder", "Not all faces have texture coordinates. Building arrays...");
+			return generateArrays(assets, obj);
+		}
+
+		byte[] textureData = useTexture ? loadTexture(assets, obj, texture) : null;
+		List<DrawMaterial> drawMaterials = loadDrawMaterials(assets, obj, usedMaterials, texture, textureData,
+				useTexture);
+
+		// sort the faces by material (counting sort, keeping their order), so every material is a range of indices
+		int[] materialCounts = new int[drawMaterials.size() + 1];
+		for (int i = 0; i < faceMaterials.length; i++) {
+			materialCounts[faceMaterials[i] + 1]++;
+		}
+		List<int[]> materialRanges = new ArrayList<int[]>();
+		int[] materialStarts = new int[materialCounts.length];
+		for (int m = 0, start = 0; m < materialCounts.length; m++) {
+			materialStarts[m] = start;
+			if (materialCounts[m] > 0) {
+				materialRanges.add(new int[]{start * 3, materialCounts[m] * 3, m - 1});
+			}
+			start += materialCounts[m];
+		}
+		int[] sortedFaces = new int[faceMaterials.length];
+		for (int i = 0; i < faceMaterials.length; i++) {
+			sortedFaces[materialStarts[faceMaterials[i] + 1]++] = i;
+		}
+
+		Log.i("Object3DBuilder", "Welding vertices... Vertices (" + corners + ")");
+		GrowableFloatBuffer vertexArray = new GrowableFloatBuffer(obj.getVerts().capacity());
+		GrowableFloatBuffer normalsArray = new GrowableFloatBuffer(obj.getVerts().capacity());
+		GrowableFloatBuffer textureArray = useTexture ? new GrowableFloatBuffer(obj.getVerts().capacity() / 3 * 2) : null;
+		IntBuffer drawOrder = createNativeByteBuffer(corners * 4).asIntBuffer();
+		try {
+			final IntBuffer indexBuffer = faces.getIndexBuffer().asReadOnlyBuffer();
+			final IntBuffer normalIdxs = faces.facesNormIdxs;
+			final IntBuffer texIdxs = faces.facesTexIdxs;
+			final int stride = obj.getTextureCoordsStride();
+			final boolean flip = obj.isFlipTextCoords();
+			final float[] v0 = new float[3], v1 = new float[3], v2 = new float[3];
+			final int[] key = new int[VertexWelder.KEY_SIZE];
+			VertexWelder welder = new VertexWelder(obj.getVerts().capacity() / 3);
+
+			float[] faceNormal = null;
+			for (int k = 0; k < sortedFaces.length; k++) {
+				int i = sortedFaces[k];
+
+				// calculate the normal when the model has no normals
+				if (!fileNormals) {
+					readVertex(vertexBuffer, indexBuffer.get(i * 3), v0);
+					readVertex(vertexBuffer, indexBuffer.get(i * 3 + 1), v1);
+					readVertex(vertexBuffer, indexBuffer.get(i * 3 + 2), v2);
+					faceNormal = Math3DUtils.calculateFaceNormal2(v0, v1, v2);
+				}
+
+				for (int c = 0; c < 3; c++) {
+					int j = i * 3 + c;
+					key[0] = indexBuffer.get(j);
+					if (fileNormals) {
+						key[1] = normalIdxs.get(j);
+						key[2] = key[3] = 0;
+					} else {
+						key[1] = Float.floatToIntBits(faceNormal[0]);
+						key[2] = Float.floatToIntBits(faceNormal[1]);
+						key[3] = Float.floatToIntBits(faceNormal[2]);
+					}
+					key[4] = useTexture ? texIdxs.get(j) : -1;
+					// the color is a uniform of the material, so vertices are shared by all the materials
+					key[5] = 0;
+
+					int index = welder.size();
+					int vertex = welder.weld(key);
+					if (vertex == index) {
+						// new vertex
+						int v = key[0] * 3;
+						vertexArray.add(vertexBuffer.get(v), vertexBuffer.get(v + 1), vertexBuffer.get(v + 2));
+						if (fileNormals) {
+							int n = key[1] * 3;
+							normalsArray.add(vertexNormalsBuffer.get(n), vertexNormalsBuffer.get(n + 1),
+									vertexNormalsBuffer.get(n + 2));
+						} else {
+							normalsArray.add(faceNormal[0], faceNormal[1], faceNormal[2]);
+						}
+						if (useTexture) {
+							float u = textureCoordsBuffer.get(key[4] * stride);
+							float tv = textureCoordsBuffer.get(key[4] * stride + 1);
+							textureArray.add(u);
+							textureArray.add(flip ? 1 - tv : tv);
+						}
+					}
+					drawOrder.put(k * 3 + c, vertex);
+				}
+			}
+			Log.i("Object3DBuilder", "Welded " + corners + " vertices into " + welder.size());
+		} catch (IndexOutOfBoundsException ex) {
+			Log.e("Object3DBuilder", "Face with wrong index. Building arrays...", ex);
+			return generateArrays(assets, obj);
+		}
+
+		// the index buffer is set the last, so the object is never drawn with indices out of the vertex array
+		obj.setVertexArrayBuffer(vertexArray.seal());
+		obj.setVertexNormalsArrayBuffer(normalsArray.seal());
+		obj.setVertexColorsArrayBuffer(null);
+		if (useTexture) {
+			obj.setTextureCoordsArrayBuffer(textureArray.seal());
+		}
+		obj.setTextureData(textureData);
+		obj.setDrawMaterials(drawMaterials.isEmpty() ? null : drawMaterials);
+		decodeTextures(obj);
+		obj.setDrawUsingArrays(false);
+		obj.setDrawOrder(drawOrder);
+
+		buildShortIndices(obj, materialRanges);
+		return buildInterleavedArray(obj);
+	}
+
+	/**
+	 * Convert the 32 bit indices of the object into 16 bit ones, which are the only ones supported by all OpenGL ES 2.0
+	 * devices (and take half the memory). If the object has more than {@link #MAX_SHORT_INDEXED_VERTICES} vertices,
+	 * triangles are split in ranges that reference at most that number of vertices. Every range gets its own block
+	 * of vertices, so the vertices shared by several ranges are duplicated.
+	 *
+	 * @param obj the object with the draw order and the vertex arrays
+	 * @return the same object, with the 16 bit indices and their ranges in the draw mode list
+	 */
+	public static Object3DData buildShortIndices(Object3DData obj) {
+		IntBuffer drawOrder = obj.getDrawOrder();
+		return buildShortIndices(obj, drawOrder == null ? null
+				: Arrays.asList(new int[]{0, drawOrder.capacity(), -1}));
+	}
+
+	/**
+	 * Convert the 32 bit indices of the object into 16 bit ones, keeping the indices of every material in their own
+	 * ranges. The ranges of the draw mode list are {draw mode, first index, index count, first vertex, material}
+	 *
+	 * @param obj            the object with the draw order and the vertex arrays
+	 * @param materialRanges the ranges of indices of every material {first index, index count, material}, in order
+	 * @return the same object, with the 16 bit indices and their ranges in the draw mode list
+	 * @see #buildShortIndices(Object3DData)
+	 */
+	public static Object3DData buildShortIndices(Object3DData obj, List<int[]> materialRanges) {
+		IntBuffer drawOrder = obj.getDrawOrder();
+		FloatBuffer vertexArray = obj.getVertexArrayBuffer();
+		if (drawOrder == null || vertexArray == null || obj.getDrawModeList() != null) {
+			return obj;
+		}
+		int count = drawOrder.capacity();
+		int numVertices = vertexArray.capacity() / 3;
+		ShortBuffer drawOrderShort = createNativeByteBuffer(count * 2).asShortBuffer();
+		List<int[]> ranges = new ArrayList<int[]>();
+
+		if (numVertices <= MAX_SHORT_INDEXED_VERTICES) {
+			for (int i = 0; i < count; i++) {
+				drawOrderShort.put(i, (short) drawOrder.get(i));
+			}
+			for (int[] materialRange : materialRanges) {
+				ranges.add(new int[]{GLES20.GL_TRIANGLES, materialRange[0], materialRange[1], 0, materialRange[2]});
+			}
+		} else {
+			Log.i("Object3DBuilder", "Splitting " + numVertices + " vertices in ranges of " + MAX_SHORT_INDEXED_VERTICES + "...");
+			FloatBuffer normals = obj.getVertexNormalsArrayBuffer();
+			FloatBuffer colors = obj.getVertexColorsArrayBuffer();
+			FloatBuffer texCoords = obj.getTextureCoordsArrayBuffer();
+			GrowableFloatBuffer newVertices = new GrowableFloatBuffer(vertexArray.capacity());
+			GrowableFloatBuffer newNormals = normals != null ? new GrowableFloatBuffer(normals.capacity()) : null;
+			GrowableFloatBuffer newColors = colors != null ? new GrowableFloatBuffer(colors.capacity()) : null;
+			GrowableFloatBuffer newTexCoords = texCoords != null ? new GrowableFloatBuffer(texCoords.capacity()) : null;
+
+			// range where every vertex was last added & its index there
+			int[] vertexRange = new int[numVertices];
+			int[] localIndex = new int[numVertices];
+			Arrays.fill(vertexRange, -1);
+			int rangeStart = 0, rangeFirstVertex = 0, rangeVertices = 0;
+			for (int[] materialRange : materialRanges) {
+				int material = materialRange[2];
+				int end = materialRange[0] + materialRange[1];
+				for (int i = materialRange[0]; i < end; i += 3) {
+					// the triangle must fit in the current range
+					int added = 0;
+					for (int j = i; j < i + 3; j++) {
+						if (vertexRange[drawOrder.get(j)] != ranges.size()) added++;
+					}
+					if (rangeVertices + added > MAX_SHORT_INDEXED_VERTICES) {
+						ranges.add(new int[]{GLES20.GL_TRIANGLES, rangeStart, i - rangeStart, rangeFirstVertex, material});
+						rangeStart = i;
+						rangeFirstVertex += rangeVertices;
+						rangeVertices = 0;
+					}
+					for (int j = i; j < i + 3; j++) {
+						int v = drawOrder.get(j);
+						if (vertexRange[v] != ranges.size()) {
+							vertexRange[v] = ranges.size();
+							localIndex[v] = rangeVertices++;
+							newVertices.add(vertexArray.get(v * 3), vertexArray.get(v * 3 + 1), vertexArray.get(v * 3 + 2));
+							if (normals != null) {
+								newNormals.add(normals.get(v * 3), normals.get(v * 3 + 1), normals.get(v * 3 + 2));
+							}
+							if (colors != null) {
+								newColors.add(colors.get(v * 4), colors.get(v * 4 + 1), colors.get(v * 4 + 2));
+								newColors.add(colors.get(v * 4 + 3));
+							}
+							if (texCoords != null) {
+								newTexCoords.add(texCoords.get(v * 2));
+								newTexCoords.add(texCoords.get(v * 2 + 1));
+							}
+						}
+						drawOrderShort.put(j, (short) localIndex[v]);
+					}
+				}
+				// every material starts a new range
+				ranges.add(new int[]{GLES20.GL_TRIANGLES, rangeStart, end - rangeStart, rangeFirstVertex, material});
+				rangeStart = end;
+				rangeFirstVertex += rangeVertices;
+				rangeVertices = 0;
+			}
+			Log.i("Object3DBuilder", "Split in " + ranges.size() + " ranges. Vertices: " + newVertices.size() / 3);
+
+			obj.setVertexArrayBuffer(newVertices.seal());
+			obj.setVertexNormalsArrayBuffer(newNormals != null ? newNormals.seal() : null);
+			obj.setVertexColorsArrayBuffer(newColors != null ? newColors.seal() : null);
+			obj.setTextureCoordsArrayBuffer(newTexCoords != null ? newTexCoords.seal() : null);
+		}
+
+		obj.setDrawOrderShort(drawOrderShort);
+		obj.setDrawModeList(ranges);
+		obj.setDrawOrder(null);
+		return buildDrawRangeBounds(obj);
+	}
+
+	/**
+	 * Calculate the bounding sphere of the vertices referenced by every range of the 16 bit indices, so the ranges
+	 * outside the screen can be skipped when drawing
+	 *
+	 * @param obj the object with the 16 bit indices
+	 * @return the same object with the bounds of the ranges
+	 */
+	public static Object3DData buildDrawRangeBounds(Object3DData obj) {
+		ShortBuffer indices = obj.getDrawOrderShort();
+		List<int[]> ranges = obj.getDrawModeList();
+		FloatBuffer vertices = obj.getVertexArrayBuffer();
+		if (indices == null || ranges == null || vertices == null) {
+			return obj;
+		}
+		float[] bounds = new float[ranges.size() * 4];
+		for (int r = 0; r < ranges.size(); r++) {
+			int[] range = ranges.get(r);
+			float xMin = Float.MAX_VALUE, yMin = Float.MAX_VALUE, zMin = Float.MAX_VALUE;
+			float xMax = -Float.MAX_VALUE, yMax = -Float.MAX_VALUE, zMax = -Float.MAX_VALUE;
+			for (int i = range[1]; i < range[1] + range[2]; i++) {
+				int v = (range[3] + (indices.get(i) & 0xFFFF)) * 3;
+				float x = vertices.get(v), y = vertices.get(v + 1), z = vertices.get(v + 2);
+				xMin = Math.min(xMin, x);
+				xMax = Math.max(xMax, x);
+				yMin = Math.min(yMin, y);
+				yMax = Math.max(yMax, y);
+				zMin = Math.min(zMin, z);
+				zMax = Math.max(zMax, z);
+			}
+			if (range[2] == 0) {
+				continue;
+			}
+			float dx = xMax - xMin, dy = yMax - yMin, dz = zMax - zMin;
+			bounds[r * 4] = (xMin + xMax) / 2;
+			bounds[r * 4 + 1] = (yMin + yMax) / 2;
+			bounds[r * 4 + 2] = (zMin + zMax) / 2;
+			bounds[r * 4 + 3] = (float) Math.sqrt(dx * dx + dy * dy + dz * dz) / 2;
+		}
+		return obj.setDrawRangeBounds(bounds);
+	}
+
+	/**
+	 * Get the arrays of an object built with {@link #generateIndexedArrays(AssetManager, Object3DData)} as binary
+	 * sections that can be stored in a {@link BinaryCache}: the welded (and split) vertex arrays, the 16 bit indices,
+	 * the ranges with their bounds and the dimensions (already centered & scaled). Materials are stored by name, so their colors and
+	 * textures are read again from the materials file.
+	 *
+	 * @param obj the built object
+	 * @return the sections or null if the object isn't drawn with 16 bit indices
+	 */
+	public static Map<String, Buffer> toCache(Object3DData obj) {
+		ShortBuffer indices = obj.getDrawOrderShort();
+		List<int[]> ranges = obj.getDrawModeList();
+		if (obj.isDrawUsingArrays() || indices == null || ranges == null || obj.getDrawRangeBounds() == null
+				|| obj.getVertexColorsArrayBuffer() != null || obj.getDimensions() == null) {
+			return null;
+		}
+		Map<String, Buffer> ret = new LinkedHashMap<String, Buffer>();
+		FloatBuffer vertices = obj.getVertexArrayBuffer();
+		FloatBuffer normals = obj.getVertexNormalsArrayBuffer();
+		FloatBuffer texCoords = obj.getTextureCoordsArrayBuffer();
+		ret.put("built.vertices", vertices);
+		ret.put("built.normals", normals != null ? normals : FloatBuffer.allocate(0));
+		ret.put("built.texCoords", texCoords != null ? texCoords : FloatBuffer.allocate(0));
+		ByteBuffer indicesBytes = ByteBuffer.allocate(indices.capacity() * 2).order(ByteOrder.nativeOrder());
+		indicesBytes.asShortBuffer().put(indices.duplicate());
+		ret.put("built.indices", indicesBytes);
+		IntBuffer rangesBuffer = IntBuffer.allocate(ranges.size() * 5);
+		for (int[] range : ranges) {
+			rangesBuffer.put(range, 0, 5);
+		}
+		rangesBuffer.flip();
+		ret.put("built.ranges", rangesBuffer);
+		ret.put("built.bounds", FloatBuffer.wrap(obj.getDrawRangeBounds()));
+		WavefrontLoader.ModelDimensions dims = obj.getDimensions();
+		ret.put("built.dims", FloatBuffer.wrap(new float[]{dims.getLeftPt(), dims.getBottomPt(), dims.getNearPt(),
+				dims.getRightPt(), dims.getTopPt(), dims.getFarPt()}));
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			DataOutputStream dos = new DataOutputStream(bos);
+			Materials materials = obj.getMaterials();
+			dos.writeBoolean(materials != null);
+			if (materials != null) {
+				dos.writeUTF(materials.getFileName());
+			}
+			List<DrawMaterial> drawMaterials = obj.getDrawMaterials();
+			dos.writeInt(drawMaterials != null ? drawMaterials.size() : 0);
+			if (drawMaterials != null) {
+				for (DrawMaterial material : drawMaterials) {
+					dos.writeUTF(material.getName());
+				}
+			}
+			dos.close();
+			ret.put("built.materials", ByteBuffer.wrap(bos.toByteArray()));
+		} catch (IOException ex) {
+			// writing to memory
+			throw new RuntimeException(ex);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return true if the cache entry was written by {@link #toCache(Object3DData)}
+	 */
+	public static boolean isBuilt(BinaryCache.Entry entry) {
+		return entry.has("built.vertices");
+	}
+
+	/**
+	 * Load the object from a cache entry written with {@link #toCache(Object3DData)}, so it's drawn without parsing,
+	 * scaling, welding or splitting it again. The arrays are used directly from the (privately) mapped entry. The
+	 * materials file and the textures are read again.
+	 *
+	 * @param assets to read the materials and textures
+	 * @param obj    the object to load (with its directory), drawn with triangles
+	 * @param entry  the cached object
+	 * @return the same object
+	 */
+	public static Object3DData loadCache(AssetManager assets, Object3DData obj, BinaryCache.Entry entry) {
+		FloatBuffer normals = entry.getFloats("built.normals");
+		FloatBuffer texCoords = entry.getFloats("built.texCoords");
+		obj.setVertexArrayBuffer(entry.getFloats("built.vertices"));
+		obj.setVertexNormalsArrayBuffer(normals.capacity() > 0 ? normals : null);
+		obj.setVertexColorsArrayBuffer(null);
+		obj.setTextureCoordsArrayBuffer(texCoords.capacity() > 0 ? texCoords : null);
+
+		FloatBuffer dims = entry.getFloats("built.dims");
+		WavefrontLoader.ModelDimensions modelDims = new WavefrontLoader.ModelDimensions();
+		modelDims.set(dims.get(0), dims.get(1), dims.get(2));
+		modelDims.update(dims.get(3), dims.get(4), dims.get(5));
+		obj.setDimensions(modelDims);
+
+		// the materials, in the order they are referenced by the ranges
+		Materials materials;
+		List<String> names = new ArrayList<String>();
+		try {
+			ByteBuffer bb = entry.get("built.materials");
+			byte[] data = new byte[bb.remaining()];
+			bb.get(data);
+			DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+			materials = dis.readBoolean() ? new Materials(dis.readUTF()) : null;
+			for (int i = dis.readInt(); i > 0; i--) {
+				names.add(dis.readUTF());
+			}
+		} catch (IOException ex) {
+			// reading from memory
+			throw new RuntimeException(ex);
+		}
+		if (materials != null) {
+			readMaterials(assets, obj, materials);
+		}
+		List<Material> usedMaterials = new ArrayList<Material>();
+		for (String name : names) {
+			Material mat = materials != null ? materials.getMaterial(name) : null;
+			// the materials file may have changed since the object was cached
+			usedMaterials.add(mat != null ? mat : new Material(name));
+		}
+		String texture = getTexture(materials);
+		boolean useTexture = texture != null && texCoords.capacity() > 0;
+		byte[] textureData = null;
+		if (useTexture) {
+			try {
+				textureData = loadTexture(assets, obj, texture);
+			} catch (IOException ex) {
+				Log.e("Object3DBuilder", "Couldn't load texture '" + texture + "'", ex);
+			}
+		}
+		List<DrawMaterial> drawMaterials = loadDrawMaterials(assets, obj, usedMaterials, texture, textureData,
+				useTexture);
+		obj.setTextureData(textureData);
+		obj.setDrawMaterials(drawMaterials.isEmpty() ? null : drawMaterials);
+		decodeTextures(obj);
+
+		IntBuffer rangesBuffer = entry.getInts("built.ranges");
+		List<int[]> ranges = new ArrayList<int[]>();
+		for (int i = 0; i + 4 < rangesBuffer.capacity(); i += 5) {
+			int[] range = new int[5];
+			rangesBuffer.position(i);
+			rangesBuffer.get(range);
+			ranges.add(range);
+		}
+		FloatBuffer boundsBuffer = entry.getFloats("built.bounds");
+		float[] bounds = new float[boundsBuffer.capacity()];
+		boundsBuffer.get(bounds);
+
+		obj.setDrawUsingArrays(false);
+		obj.setDrawOrder(null);
+		obj.setDrawModeList(ranges);
+		obj.setDrawRangeBounds(bounds);
+		obj.setDrawOrderShort(entry.get("built.indices").asShortBuffer());
+		Log.i("Object3DBuilder", "Loaded built object. Vertices: " + obj.getVertexArrayBuffer().capacity() / 3
+				+ ". Ranges: " + ranges.size());
+		return buildInterleavedArray(obj);
+	}
 
-		return obj;
+	private static void readVertex(FloatBuffer vertexBuffer, int index, float[] v) {
+		v[0] = vertexBuffer.get(index * 3);
+		v[1] = vertexBuffer.get(index * 3 + 1);
+		v[2] = vertexBuffer.get(index * 3 + 2);
 	}
 
 	public Object3D getBoundingBoxDrawer() {
@@ -678,6 +1369,7 @@ public final class Object3DBuilder {
 	public Object3D getPointDrawer() {
 		if (object3dv0 == null) {
 			object3dv0 = new Object3DV0();
+			configure(object3dv0);
 		}
 		return object3dv0;
 	}
@@ -701,7 +1393,32 @@ public final class Object3DBuilder {
 	 */
 	public static Object3DData buildWireframe(Object3DData objData) {
 
-		if (objData.getDrawOrder() != null) {
+		if (objData.getDrawOrderShort() != null && objData.getDrawModeList() != null) {
+			Log.i("Object3DBuilder", "Building wireframe...");
+			ShortBuffer drawBuffer = objData.getDrawOrderShort().asReadOnlyBuffer();
+			ShortBuffer wireframeDrawOrder = createNativeByteBuffer(drawBuffer.capacity() * 2 * 2).asShortBuffer();
+			for (int i = 0; i < drawBuffer.capacity(); i += 3) {
+				short v0 = drawBuffer.get(i);
+				short v1 = drawBuffer.get(i + 1);
+				short v2 = drawBuffer.get(i + 2);
+				wireframeDrawOrder.put(v0).put(v1).put(v1).put(v2).put(v2).put(v0);
+			}
+			// same ranges of vertices, with 2 lines indices per triangle index
+			List<int[]> wireframeRanges = new ArrayList<int[]>();
+			for (int[] range : objData.getDrawModeList()) {
+				wireframeRanges.add(new int[]{GLES20.GL_LINES, range[1] * 2, range[2] * 2, range[3],
+						range.length > 4 ? range[4] : -1});
+			}
+			return new Object3DData(objData.getVertexArrayBuffer()).setVertexBuffer(objData.getVertexBuffer())
+					.setDrawOrderShort(wireframeDrawOrder).setDrawModeList(wireframeRanges)
+					.setDrawRangeBounds(objData.getDrawRangeBounds()).setDrawMaterials(objData.getDrawMaterials())
+					.setInterleavedArrayBuffer(objData.getInterleavedArrayBuffer(), objData.getVertexLayout())
+					.setVertexNormalsArrayBuffer(objData.getVertexNormalsArrayBuffer()).setColor(objData.getColor())
+					.setVertexColorsArrayBuffer(objData.getVertexColorsArrayBuffer()).setTextureCoordsArrayBuffer(objData.getTextureCoordsArrayBuffer())
+					.setPosition(objData.getPosition()).setRotation(objData.getRotation()).setScale(objData.getScale())
+					.setDrawMode(GLES20.GL_LINES).setDrawUsingArrays(false);
+		}
+		else if (objData.getDrawOrder() != null) {
 
 			try {
 				Log.i("Object3DBuilder", "Building wireframe...");
@@ -726,6 +1443,7 @@ public final class Object3DBuilder {
 				return new Object3DData(objData.getVertexArrayBuffer()).setVertexBuffer(objData.getVertexBuffer()).setDrawOrder(wireframeDrawOrder).
 						setVertexNormalsArrayBuffer(objData.getVertexNormalsArrayBuffer()).setColor(objData.getColor())
 						.setVertexColorsArrayBuffer(objData.getVertexColorsArrayBuffer()).setTextureCoordsArrayBuffer(objData.getTextureCoordsArrayBuffer())
+						.setInterleavedArrayBuffer(objData.getInterleavedArrayBuffer(), objData.getVertexLayout())
 						.setPosition(objData.getPosition()).setRotation(objData.getRotation()).setScale(objData.getScale())
 						.setDrawMode(GLES20.GL_LINES).setDrawUsingArrays(false);
 			} catch (Exception ex) {
@@ -747,6 +1465,7 @@ public final class Object3DBuilder {
 			return new Object3DData(objData.getVertexArrayBuffer()).setVertexBuffer(objData.getVertexBuffer()).setDrawOrder(wireframeDrawOrder).
 					setVertexNormalsArrayBuffer(objData.getVertexNormalsArrayBuffer()).setColor(objData.getColor())
 					.setVertexColorsArrayBuffer(objData.getVertexColorsArrayBuffer()).setTextureCoordsArrayBuffer(objData.getTextureCoordsArrayBuffer())
+					.setInterleavedArrayBuffer(objData.getInterleavedArrayBuffer(), objData.getVertexLayout())
 					.setPosition(objData.getPosition()).setRotation(objData.getRotation()).setScale(objData.getScale())
 					.setDrawMode(GLES20.GL_LINES).setDrawUsingArrays(false);
 		}
@@ -802,6 +1521,16 @@ public final class Object3DBuilder {
 
 		FloatBuffer normalsLines;
 		IntBuffer drawBuffer = obj.getDrawOrder();
+		if (drawBuffer == null && obj.getDrawOrderShort() != null && obj.getDrawModeList() != null) {
+			// absolute indices of the 16 bit ones
+			ShortBuffer drawBufferShort = obj.getDrawOrderShort();
+			drawBuffer = IntBuffer.allocate(drawBufferShort.capacity());
+			for (int[] range : obj.getDrawModeList()) {
+				for (int i = range[1]; i < range[1] + range[2]; i++) {
+					drawBuffer.put(i, range[3] + (drawBufferShort.get(i) & 0xFFFF));
+				}
+			}
+		}
 		if (drawBuffer != null) {
 			Log.v("Builder", "Generating face normals for '" + obj.getId() + "' using indices...");
 			int size = /* 2 points */ 2 * 3 * /* 3 points per face */ (drawBuffer.capacity() / 3)
@@ -850,11 +1579,7 @@ public final class Object3DBuilder {
 	}
 
 	private static ByteBuffer createNativeByteBuffer(int length) {
-		// initialize vertex byte buffer for shape coordinates
-		ByteBuffer bb = ByteBuffer.allocateDirect(length);
-		// use the device hardware's native byte order
-		bb.order(ByteOrder.nativeOrder());
-		return bb;
+		return NativeMemory.allocate(length);
 	}
 
 	public static void loadV6AsyncParallel(final Activity parent, final URL url, final File file, final String assetsDir, final String assetName,
@@ -1163,11 +1888,7 @@ class BoundingBox {
 	}
 
 	private static ByteBuffer createNativeByteBuffer(int length) {
-		// initialize vertex byte buffer for shape coordinates
-		ByteBuffer bb = ByteBuffer.allocateDirect(length);
-		// use the device hardware's native byte order
-		bb.order(ByteOrder.nativeOrder());
-		return bb;
+		return NativeMemory.allocate(length);
 	}
 
 }
\ No newline at end of file
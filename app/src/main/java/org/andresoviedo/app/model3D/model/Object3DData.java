@@ -4,19 +4,23 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.andresoviedo.app.model3D.entities.BoundingBox;
+import org.andresoviedo.app.model3D.services.LoadReport;
 import org.andresoviedo.app.model3D.services.WavefrontLoader;
 import org.andresoviedo.app.model3D.services.WavefrontLoader.FaceMaterials;
 import org.andresoviedo.app.model3D.services.WavefrontLoader.Faces;
 import org.andresoviedo.app.model3D.services.WavefrontLoader.Materials;
 import org.andresoviedo.app.model3D.services.WavefrontLoader.Tuple3;
+import org.andresoviedo.app.model3D.util.TextureImage;
+import org.andresoviedo.app.model3D.util.TextureManager;
 import org.andresoviedo.app.util.math.Math3DUtils;
+import org.andresoviedo.app.util.nio.NativeMemory;
 
 import android.opengl.GLES20;
 import android.util.Log;
@@ -27,7 +31,7 @@ import android.util.Log;
  * @author andres
  *
  */
-public class Object3DData {
+public class Object3DData implements TextureManager.Textured {
 
 	// opengl version to use to draw this object
 	private int version = 5;
@@ -61,7 +65,10 @@ public class Object3DData {
 	private FloatBuffer vertexBuffer = null;
 	private FloatBuffer vertexNormalsBuffer = null;
 	private IntBuffer drawOrderBuffer = null;
-	private ArrayList<Tuple3> texCoords;
+	// 2 or 3 floats per tex coord
+	private FloatBuffer textureCoordsBuffer;
+	private int textureCoordsStride;
+	private List<Tuple3> texCoords;
 	private Faces faces;
 	private FaceMaterials faceMats;
 	private Materials materials;
@@ -72,11 +79,33 @@ public class Object3DData {
 	private FloatBuffer vertexNormalsArrayBuffer = null;
 	private FloatBuffer textureCoordsArrayBuffer = null;
 	private List<int[]> drawModeList = null;
+	/**
+	 * 16 bit indices of the vertex arrays. They are relative to the first vertex of each range of the draw mode list
+	 */
+	private ShortBuffer drawOrderShortBuffer = null;
+	/**
+	 * All the vertex arrays in a single buffer, as described by the vertex layout
+	 */
+	private ByteBuffer interleavedArrayBuffer = null;
+	private VertexLayout vertexLayout = null;
+	/**
+	 * Bounding sphere (center x, y, z & radius) of the vertices of every range of the draw mode list
+	 */
+	private float[] drawRangeBounds = null;
+	/**
+	 * Materials of the ranges of the draw mode list. Ranges with a 5th element are drawn with that material
+	 */
+	private List<DrawMaterial> drawMaterials = null;
 	private byte[] textureData = null;
+	// the texture decoded out of the GL thread
+	private TextureImage textureImage;
 	private List<InputStream> textureStreams = null;
 
 	// derived data
 	private BoundingBox boundingBox;
+	private float[] boundingSphere;
+	private FloatBuffer boundingSphereVertices;
+	private int boundingSphereVersion;
 
 	// Transformation data
 	protected float[] position = new float[] { 0f, 0f, 0f };
@@ -85,10 +114,14 @@ public class Object3DData {
 
 	// whether the object has changed
 	private boolean changed;
+	// incremented every time the buffers are modified in place, so copies of them can be updated
+	private volatile int dataVersion;
 
 	// Async Loader
 	private WavefrontLoader.ModelDimensions modelDimensions;
 	private WavefrontLoader loader;
+	// timing of the loading stages, until the report is complete
+	private LoadReport loadReport;
 
 	public Object3DData(FloatBuffer vertexArrayBuffer) {
 		this.vertexArrayBuffer = vertexArrayBuffer;
@@ -117,12 +150,13 @@ public class Object3DData {
 		this.version = 4;
 	}
 
-	public Object3DData(FloatBuffer verts, FloatBuffer normals, ArrayList<Tuple3> texCoords, Faces faces,
-			FaceMaterials faceMats, Materials materials) {
+	public Object3DData(FloatBuffer verts, FloatBuffer normals, FloatBuffer textureCoords, int textureCoordsStride,
+			Faces faces, FaceMaterials faceMats, Materials materials) {
 		super();
 		this.vertexBuffer = verts;
 		this.vertexNormalsBuffer = normals;
-		this.texCoords = texCoords;
+		this.textureCoordsBuffer = textureCoords;
+		this.textureCoordsStride = textureCoordsStride;
 		this.faces = faces;  // parameter "faces" could be null in case of async loading
 		this.faceMats = faceMats;
 		this.materials = materials;
@@ -137,6 +171,15 @@ public class Object3DData {
 		return loader;
 	}
 
+	public Object3DData setLoadReport(LoadReport loadReport) {
+		this.loadReport = loadReport;
+		return this;
+	}
+
+	public LoadReport getLoadReport() {
+		return loadReport;
+	}
+
 	public void setDimensions(WavefrontLoader.ModelDimensions modelDimensions) {
 		this.modelDimensions = modelDimensions;
 	}
@@ -176,6 +219,13 @@ public class Object3DData {
 		return changed;
 	}
 
+	/**
+	 * @return the version of the data of the buffers (not the buffers themselves)
+	 */
+	public int getDataVersion() {
+		return dataVersion;
+	}
+
 	public Object3DData setId(String id) {
 		this.id = id;
 		return this;
@@ -216,6 +266,7 @@ public class Object3DData {
 
 	// -----------
 
+	@Override
 	public byte[] getTextureData() {
 		return textureData;
 	}
@@ -224,6 +275,19 @@ public class Object3DData {
 		this.textureData = textureData;
 	}
 
+	/**
+	 * @return the texture already decoded or null if it has to be decoded when it's drawn
+	 */
+	@Override
+	public TextureImage getTextureImage() {
+		return textureImage;
+	}
+
+	@Override
+	public void setTextureImage(TextureImage textureImage) {
+		this.textureImage = textureImage;
+	}
+
 	public Object3DData setPosition(float[] position) {
 		this.position = position;
 		return this;
@@ -293,6 +357,61 @@ public class Object3DData {
 		return this;
 	}
 
+	public ByteBuffer getInterleavedArrayBuffer() {
+		return interleavedArrayBuffer;
+	}
+
+	public VertexLayout getVertexLayout() {
+		return vertexLayout;
+	}
+
+	/**
+	 * @param interleavedArrayBuffer the vertex arrays interleaved, or null to draw from the separate arrays
+	 * @param vertexLayout           the layout of the vertices in the buffer
+	 */
+	public Object3DData setInterleavedArrayBuffer(ByteBuffer interleavedArrayBuffer, VertexLayout vertexLayout) {
+		this.interleavedArrayBuffer = interleavedArrayBuffer;
+		this.vertexLayout = vertexLayout;
+		return this;
+	}
+
+	public float[] getDrawRangeBounds() {
+		return drawRangeBounds;
+	}
+
+	/**
+	 * @param drawRangeBounds 4 floats per range of the draw mode list (center x, y, z & radius) or null
+	 */
+	public Object3DData setDrawRangeBounds(float[] drawRangeBounds) {
+		this.drawRangeBounds = drawRangeBounds;
+		return this;
+	}
+
+	public List<DrawMaterial> getDrawMaterials() {
+		return drawMaterials;
+	}
+
+	/**
+	 * @param drawMaterials the materials referenced by the 5th element of the ranges of the draw mode list or null
+	 */
+	public Object3DData setDrawMaterials(List<DrawMaterial> drawMaterials) {
+		this.drawMaterials = drawMaterials;
+		return this;
+	}
+
+	public ShortBuffer getDrawOrderShort() {
+		return drawOrderShortBuffer;
+	}
+
+	/**
+	 * @param drawBuffer the 16 bit indices. The draw mode list must have the ranges of indices, each one being
+	 *                   {draw mode, first index, index count, first vertex[, material]}
+	 */
+	public Object3DData setDrawOrderShort(ShortBuffer drawBuffer) {
+		this.drawOrderShortBuffer = drawBuffer;
+		return this;
+	}
+
 	public File getCurrentDir() {
 		return currentDir;
 	}
@@ -334,7 +453,24 @@ public class Object3DData {
 		return vertexNormalsBuffer;
 	}
 
-	public ArrayList<Tuple3> getTexCoords() {
+	/**
+	 * @return the tex coords packed in a buffer, {@link #getTextureCoordsStride()} floats each
+	 */
+	public FloatBuffer getTextureCoordsBuffer() {
+		return textureCoordsBuffer;
+	}
+
+	public int getTextureCoordsStride() {
+		return textureCoordsStride;
+	}
+
+	/**
+	 * @return a list view of the tex coords buffer
+	 */
+	public List<Tuple3> getTexCoords() {
+		if (texCoords == null && textureCoordsBuffer != null) {
+			texCoords = WavefrontLoader.asTexCoordsList(textureCoordsBuffer, textureCoordsStride);
+		}
 		return texCoords;
 	}
 
@@ -505,6 +641,7 @@ public class Object3DData {
 			vertexBuffer.put(i + 2, z);
 		}
 
+		verticesChanged();
 		return this;
 	}
 
@@ -581,7 +718,8 @@ public class Object3DData {
 			vertexBufferNew.put(i + 2, z * explodeFactor);
 		}
 
-		if (drawOrderBuffer != null) {
+		verticesChanged();
+		if (drawOrderBuffer != null || drawOrderShortBuffer != null) {
 			Log.e("Object3DData", "Cant explode object composed of indexes '" + getId() + "'");
 			return this;
 		}
@@ -622,15 +760,61 @@ public class Object3DData {
 			vertexBuffer.put(i + 8, z3 + (center2[2] - center1[2]));
 		}
 
+		verticesChanged();
 		return this;
 	}
 
+	/**
+	 * The vertices have been modified in place, so copy them again to the interleaved buffer and to the GPU
+	 */
+	private void verticesChanged() {
+		if (interleavedArrayBuffer != null) {
+			Object3DBuilder.buildInterleavedArray(this);
+		}
+		if (drawRangeBounds != null) {
+			Object3DBuilder.buildDrawRangeBounds(this);
+		}
+		dataVersion++;
+	}
+
 	private static ByteBuffer createNativeByteBuffer(int length) {
-		// initialize vertex byte buffer for shape coordinates
-		ByteBuffer bb = ByteBuffer.allocateDirect(length);
-		// use the device hardware's native byte order
-		bb.order(ByteOrder.nativeOrder());
-		return bb;
+		return NativeMemory.allocate(length);
+	}
+
+	/**
+	 * Get the bounding sphere of the vertices in model space, so the object can be skipped when it's outside the screen.
+	 * It's calculated again when the vertices change.
+	 *
+	 * @return center x, y, z & radius or null if the object is still being loaded
+	 */
+	public float[] getBoundingSphere() {
+		FloatBuffer vertices = vertexArrayBuffer != null ? vertexArrayBuffer : vertexBuffer;
+		if (vertices == null || (faces != null && !faces.loaded())) {
+			return null;
+		}
+		int version = dataVersion;
+		if (boundingSphere == null || boundingSphereVertices != vertices || boundingSphereVersion != version) {
+			float xMin = Float.MAX_VALUE, yMin = Float.MAX_VALUE, zMin = Float.MAX_VALUE;
+			float xMax = -Float.MAX_VALUE, yMax = -Float.MAX_VALUE, zMax = -Float.MAX_VALUE;
+			for (int i = 0; i + 2 < vertices.capacity(); i += 3) {
+				float x = vertices.get(i), y = vertices.get(i + 1), z = vertices.get(i + 2);
+				xMin = Math.min(xMin, x);
+				xMax = Math.max(xMax, x);
+				yMin = Math.min(yMin, y);
+				yMax = Math.max(yMax, y);
+				zMin = Math.min(zMin, z);
+				zMax = Math.max(zMax, z);
+			}
+			if (xMin > xMax) {
+				return null;
+			}
+			float dx = xMax - xMin, dy = yMax - yMin, dz = zMax - zMin;
+			boundingSphere = new float[]{(xMin + xMax) / 2, (yMin + yMax) / 2, (zMin + zMax) / 2,
+					(float) Math.sqrt(dx * dx + dy * dy + dz * dz) / 2};
+			boundingSphereVertices = vertices;
+			boundingSphereVersion = version;
+		}
+		return boundingSphere;
 	}
 
 	public BoundingBox getBoundingBox() {
@@ -701,6 +885,8 @@ public class Object3DData {
 			z = (z0 - center.getZ()) * scaleFactor;
 			vertexBuffer.put(i*3+2,z);
 		}
+		modelDimensions.centerScale(center, scaleFactor);
+		verticesChanged();
 	} // end of centerScale()
 
 
@@ -1,11 +1,19 @@
 package org.andresoviedo.app.model3D.model;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
 import java.util.List;
 
+import org.andresoviedo.app.model3D.entities.Frustum;
+import org.andresoviedo.app.model3D.util.BufferObjectManager;
+import org.andresoviedo.app.model3D.util.GLES20Facade;
+import org.andresoviedo.app.model3D.util.GLFacade;
+import org.andresoviedo.app.model3D.util.GLStateCache;
 import org.andresoviedo.app.model3D.util.GLUtil;
+import org.andresoviedo.app.model3D.util.TextureManager;
 
 import android.opengl.GLES20;
 import android.opengl.Matrix;
@@ -22,6 +30,8 @@ import android.util.Log;
  */
 public abstract class Object3DImpl implements Object3D {
 
+	private static final GLFacade DEFAULT_GL = new GLES20Facade();
+
 	private final String id;
 	// Transformations
 	private final float[] mMatrix = new float[16];
@@ -30,6 +40,25 @@ public abstract class Object3DImpl implements Object3D {
 	private final float[] mvpMatrix = new float[16];
 	// OpenGL data
 	private final int mProgram;
+	// locations of the attributes & uniforms of the program
+	private final Locations locations;
+	// handles of the attributes enabled for the object being drawn
+	private int mPositionHandle = -1;
+	private int mColorHandle = -1;
+	private int mTextureHandle = -1;
+	private int mNormalHandle = -1;
+	// where the GL calls are sent
+	private GLFacade gl = DEFAULT_GL;
+	// copies of the buffers in the GPU
+	private BufferObjectManager bufferObjectManager;
+	// whether the object being drawn is drawn from buffer objects
+	private boolean useBufferObjects;
+	// to skip the ranges outside the screen
+	private Frustum frustum;
+	// textures of the materials
+	private TextureManager textureManager;
+	// texture of the object being drawn
+	private int mTextureId = -1;
 
 	// animation data
 	// put 0 to draw progressively, -1 to draw at once
@@ -42,6 +71,75 @@ public abstract class Object3DImpl implements Object3D {
 		int vertexShader = GLUtil.loadShader(GLES20.GL_VERTEX_SHADER, vertexShaderCode);
 		int fragmentShader = GLUtil.loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderCode);
 		mProgram = GLUtil.createAndLinkProgram(vertexShader, fragmentShader, variables);
+		locations = new Locations(mProgram);
+	}
+
+	/**
+	 * Locations of all the attributes & uniforms used by the shaders, resolved once when the program is linked so that
+	 * drawing doesn't query the driver. Locations not used by the program are -1.
+	 */
+	private static final class Locations {
+
+		// uniforms
+		final int mvpMatrix;
+		final int mvMatrix;
+		final int color;
+		final int lightPos;
+		final int texture;
+
+		// attributes
+		final int position;
+		final int colors;
+		final int normal;
+		final int texCoordinate;
+
+		Locations(int program) {
+			mvpMatrix = GLES20.glGetUniformLocation(program, "u_MVPMatrix");
+			mvMatrix = GLES20.glGetUniformLocation(program, "u_MVMatrix");
+			color = GLES20.glGetUniformLocation(program, "vColor");
+			lightPos = GLES20.glGetUniformLocation(program, "u_LightPos");
+			texture = GLES20.glGetUniformLocation(program, "u_Texture");
+			position = GLES20.glGetAttribLocation(program, "a_Position");
+			colors = GLES20.glGetAttribLocation(program, "a_Color");
+			normal = GLES20.glGetAttribLocation(program, "a_Normal");
+			texCoordinate = GLES20.glGetAttribLocation(program, "a_TexCoordinate");
+			GLUtil.checkGlError("glGetAttribLocation");
+		}
+	}
+
+	/**
+	 * @return the OpenGL program of the shaders
+	 */
+	public int getProgram() {
+		return mProgram;
+	}
+
+	/**
+	 * @param gl the facade the drawing calls are sent to (i.e. a {@link GLStateCache})
+	 */
+	public void setGLFacade(GLFacade gl) {
+		this.gl = gl;
+	}
+
+	/**
+	 * @param frustum the view frustum of the frame or null to draw all the ranges of the objects
+	 */
+	public void setFrustum(Frustum frustum) {
+		this.frustum = frustum;
+	}
+
+	/**
+	 * @param textureManager the manager of the textures of the materials or null to draw them without texture
+	 */
+	public void setTextureManager(TextureManager textureManager) {
+		this.textureManager = textureManager;
+	}
+
+	/**
+	 * @param bufferObjectManager the manager of the buffer objects or null to draw from client memory
+	 */
+	public void setBufferObjectManager(BufferObjectManager bufferObjectManager) {
+		this.bufferObjectManager = bufferObjectManager;
 	}
 
 	@Override
@@ -56,7 +154,7 @@ public abstract class Object3DImpl implements Object3D {
 		// Log.d("Object3DImpl", "Drawing '" + obj.getId() + "' using shader '" + id + "'...");
 
 		// Add program to OpenGL environment
-		GLES20.glUseProgram(mProgram);
+		gl.glUseProgram(mProgram);
 
 		float[] mMatrix = getMMatrix(obj);
 		float[] mvMatrix = getMvMatrix(mMatrix, vMatrix);
@@ -64,21 +162,26 @@ public abstract class Object3DImpl implements Object3D {
 
 		setMvpMatrix(mvpMatrix);
 
-		int mPositionHandle = setPosition(obj);
+		// objects still being loaded are modified while drawn, so they can't be copied to the GPU yet
+		useBufferObjects = bufferObjectManager != null
+				&& (obj.getFaces() == null || obj.getFaces().loaded());
+
+		mPositionHandle = setPosition(obj);
 
-		int mColorHandle = -1;
+		mColorHandle = -1;
 		if (supportsColors()) {
 			mColorHandle = setColors(obj);
 		} else {
 			setColor(obj);
 		}
 
-		int mTextureHandle = -1;
+		mTextureHandle = -1;
+		mTextureId = textureId;
 		if (textureId != -1 && supportsTextures()) {
-			setTexture(obj, textureId);
+			mTextureHandle = setTexture(obj, textureId);
 		}
 
-		int mNormalHandle = -1;
+		mNormalHandle = -1;
 		if (supportsNormals()) {
 			mNormalHandle = setNormals(obj);
 		}
@@ -100,19 +203,19 @@ public abstract class Object3DImpl implements Object3D {
 		drawShape(obj, drawMode, drawSize);
 
 		// Disable vertex array
-		GLES20.glDisableVertexAttribArray(mPositionHandle);
+		gl.glDisableVertexAttribArray(mPositionHandle);
 
 		if (mColorHandle != -1) {
-			GLES20.glDisableVertexAttribArray(mColorHandle);
+			gl.glDisableVertexAttribArray(mColorHandle);
 		}
 
 		// Disable vertex array
 		if (mTextureHandle != -1) {
-			GLES20.glDisableVertexAttribArray(mTextureHandle);
+			gl.glDisableVertexAttribArray(mTextureHandle);
 		}
 
 		if (mNormalHandle != -1) {
-			GLES20.glDisableVertexAttribArray(mNormalHandle);
+			gl.glDisableVertexAttribArray(mNormalHandle);
 		}
 	}
 
@@ -146,12 +249,8 @@ public abstract class Object3DImpl implements Object3D {
 
 	protected void setMvpMatrix(float[] mvpMatrix) {
 
-		// get handle to shape's transformation matrix
-		int mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "u_MVPMatrix");
-		GLUtil.checkGlError("glGetUniformLocation");
-
 		// Apply the projection and view transformation
-		GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrix, 0);
+		gl.glUniformMatrix4fv(locations.mvpMatrix, 1, false, mvpMatrix, 0);
 		GLUtil.checkGlError("glUniformMatrix4fv");
 	}
 
@@ -161,28 +260,23 @@ public abstract class Object3DImpl implements Object3D {
 
 	protected void setColor(Object3DData obj) {
 
-		// get handle to fragment shader's vColor member
-		int mColorHandle = GLES20.glGetUniformLocation(mProgram, "vColor");
-		GLUtil.checkGlError("glGetUniformLocation");
-
 		// Set color for drawing the triangle
 		float[] color = obj.getColor() != null ? obj.getColor() : DEFAULT_COLOR;
-		GLES20.glUniform4fv(mColorHandle, 1, color, 0);
+		gl.glUniform4fv(locations.color, 1, color, 0);
 		GLUtil.checkGlError("glUniform4fv");
 	}
 
 	protected int setColors(Object3DData obj) {
 
 		// get handle to fragment shader's vColor member
-		int mColorHandle = GLES20.glGetAttribLocation(mProgram, "a_Color");
-		GLUtil.checkGlError("glGetAttribLocation");
+		int mColorHandle = locations.colors;
 
 		// Pass in the color information
-		GLES20.glEnableVertexAttribArray(mColorHandle);
+		gl.glEnableVertexAttribArray(mColorHandle);
 		GLUtil.checkGlError("glEnableVertexAttribArray");
 
-		obj.getVertexColorsArrayBuffer().position(0);
-		GLES20.glVertexAttribPointer(mColorHandle, 4, GLES20.GL_FLOAT, false, 0, obj.getVertexColorsArrayBuffer());
+		setAttribute(obj, mColorHandle, VertexLayout.COLOR_SIZE, obj.getVertexColorsArrayBuffer(),
+				obj.getVertexLayout() != null ? obj.getVertexLayout().getColorOffset() : -1, 0);
 		GLUtil.checkGlError("glVertexAttribPointer");
 
 		return mColorHandle;
@@ -191,18 +285,16 @@ public abstract class Object3DImpl implements Object3D {
 	protected int setPosition(Object3DData obj) {
 
 		// get handle to vertex shader's a_Position member
-		int mPositionHandle = GLES20.glGetAttribLocation(mProgram, "a_Position");
-		GLUtil.checkGlError("glGetAttribLocation");
+		int mPositionHandle = locations.position;
 
 		// Enable a handle to the triangle vertices
-		GLES20.glEnableVertexAttribArray(mPositionHandle);
+		gl.glEnableVertexAttribArray(mPositionHandle);
 		GLUtil.checkGlError("glEnableVertexAttribArray");
 
 		FloatBuffer vertexBuffer = obj.getVertexArrayBuffer() != null ? obj.getVertexArrayBuffer()
 				: obj.getVertexBuffer();
-		vertexBuffer.position(0);
-		GLES20.glVertexAttribPointer(mPositionHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, VERTEX_STRIDE,
-				vertexBuffer);
+		setAttribute(obj, mPositionHandle, COORDS_PER_VERTEX, vertexBuffer,
+				obj.getVertexLayout() != null ? obj.getVertexLayout().getPositionOffset() : -1, 0);
 		GLUtil.checkGlError("glVertexAttribPointer");
 
 		return mPositionHandle;
@@ -213,15 +305,14 @@ public abstract class Object3DImpl implements Object3D {
 	}
 
 	protected int setNormals(Object3DData obj) {
-		int mNormalHandle = GLES20.glGetAttribLocation(mProgram, "a_Normal");
-		GLUtil.checkGlError("glGetAttribLocation");
+		int mNormalHandle = locations.normal;
 
-		GLES20.glEnableVertexAttribArray(mNormalHandle);
+		gl.glEnableVertexAttribArray(mNormalHandle);
 		GLUtil.checkGlError("glEnableVertexAttribArray");
 
 		// Pass in the normal information
-		obj.getVertexNormalsArrayBuffer().position(0);
-		GLES20.glVertexAttribPointer(mNormalHandle, 3, GLES20.GL_FLOAT, false, 0, obj.getVertexNormalsArrayBuffer());
+		setAttribute(obj, mNormalHandle, VertexLayout.NORMAL_SIZE, obj.getVertexNormalsArrayBuffer(),
+				obj.getVertexLayout() != null ? obj.getVertexLayout().getNormalOffset() : -1, 0);
 
 		return mNormalHandle;
 	}
@@ -231,9 +322,8 @@ public abstract class Object3DImpl implements Object3D {
 	}
 
 	protected void setLightPos(float[] lightPosInEyeSpace) {
-		int mLightPosHandle = GLES20.glGetUniformLocation(mProgram, "u_LightPos");
 		// Pass in the light position in eye space.
-		GLES20.glUniform3f(mLightPosHandle, lightPosInEyeSpace[0], lightPosInEyeSpace[1], lightPosInEyeSpace[2]);
+		gl.glUniform3f(locations.lightPos, lightPosInEyeSpace[0], lightPosInEyeSpace[1], lightPosInEyeSpace[2]);
 	}
 
 	protected boolean supportsMvMatrix() {
@@ -241,11 +331,8 @@ public abstract class Object3DImpl implements Object3D {
 	}
 
 	protected void setMvMatrix(float[] mvMatrix) {
-		int mMVMatrixHandle = GLES20.glGetUniformLocation(mProgram, "u_MVMatrix");
-		GLUtil.checkGlError("glGetUniformLocation");
-
 		// Pass in the modelview matrix.
-		GLES20.glUniformMatrix4fv(mMVMatrixHandle, 1, false, mvMatrix, 0);
+		gl.glUniformMatrix4fv(locations.mvMatrix, 1, false, mvMatrix, 0);
 		GLUtil.checkGlError("glUniformMatrix4fv");
 	}
 
@@ -254,43 +341,176 @@ public abstract class Object3DImpl implements Object3D {
 	}
 
 	protected int setTexture(Object3DData obj, int textureId) {
-		int mTextureUniformHandle = GLES20.glGetUniformLocation(mProgram, "u_Texture");
-		GLUtil.checkGlError("glGetUniformLocation");
-
 		// Set the active texture unit to texture unit 0.
-		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+		gl.glActiveTexture(GLES20.GL_TEXTURE0);
 		GLUtil.checkGlError("glActiveTexture");
 
 		// Bind to the texture in OpenGL
-		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+		gl.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
 		GLUtil.checkGlError("glBindTexture");
 
 		// Tell the texture uniform sampler to use this texture in the shader by binding to texture unit 0.
-		GLES20.glUniform1i(mTextureUniformHandle, 0);
+		gl.glUniform1i(locations.texture, 0);
 		GLUtil.checkGlError("glUniform1i");
 
-		int mTextureCoordinateHandle = GLES20.glGetAttribLocation(mProgram, "a_TexCoordinate");
-		GLUtil.checkGlError("glGetAttribLocation");
+		int mTextureCoordinateHandle = locations.texCoordinate;
 
 		// Enable a handle to the triangle vertices
-		GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
+		gl.glEnableVertexAttribArray(mTextureCoordinateHandle);
 		GLUtil.checkGlError("glEnableVertexAttribArray");
 
 		// Prepare the triangle coordinate data
-		obj.getTextureCoordsArrayBuffer().position(0);
-		GLES20.glVertexAttribPointer(mTextureCoordinateHandle, 2, GLES20.GL_FLOAT, false, 0,
-				obj.getTextureCoordsArrayBuffer());
+		setAttribute(obj, mTextureCoordinateHandle, VertexLayout.TEXTURE_SIZE, obj.getTextureCoordsArrayBuffer(),
+				obj.getVertexLayout() != null ? obj.getVertexLayout().getTextureOffset() : -1, 0);
 		GLUtil.checkGlError("glVertexAttribPointer");
 
 		return mTextureCoordinateHandle;
 	}
 
+	/**
+	 * Set the color & texture of the material for the following ranges. The parts without material (or whose
+	 * material has no color or texture) are drawn with the ones of the object. Textures still being uploaded are
+	 * replaced by a white texture
+	 *
+	 * @param material the material or null for the one of the object
+	 */
+	protected void setMaterial(Object3DData obj, DrawMaterial material) {
+		if (!supportsColors()) {
+			if (material != null && material.getColor() != null) {
+				gl.glUniform4fv(locations.color, 1, material.getColor(), 0);
+				GLUtil.checkGlError("glUniform4fv");
+			} else {
+				setColor(obj);
+			}
+		}
+		if (mTextureHandle != -1) {
+			int textureId = mTextureId;
+			if (material != null && textureManager != null) {
+				textureId = material.getTextureData() != null ? textureManager.acquire(material) : -1;
+				if (textureId == -1) {
+					textureId = textureManager.getDefaultTexture();
+				}
+			}
+			gl.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+			GLUtil.checkGlError("glBindTexture");
+		}
+	}
+
+	/**
+	 * Point the attribute to its data, either in the interleaved buffer of the object or in its own array
+	 *
+	 * @param size         number of floats of the attribute
+	 * @param array        the separate array of the attribute
+	 * @param layoutOffset offset of the attribute in the interleaved buffer or -1 if it's not interleaved
+	 * @param vertex       the first vertex
+	 */
+	private void setAttribute(Object3DData obj, int handle, int size, FloatBuffer array, int layoutOffset,
+							  int vertex) {
+		if (useBufferObjects) {
+			if (obj.getInterleavedArrayBuffer() != null && layoutOffset != -1) {
+				int stride = obj.getVertexLayout().getStride();
+				bufferObjectManager.bind(obj, GLES20.GL_ARRAY_BUFFER, obj.getInterleavedArrayBuffer(),
+						obj.getDataVersion());
+				gl.glVertexAttribPointer(handle, size, GLES20.GL_FLOAT, false, stride,
+						vertex * stride + layoutOffset);
+			} else {
+				bufferObjectManager.bind(obj, GLES20.GL_ARRAY_BUFFER, array, obj.getDataVersion());
+				gl.glVertexAttribPointer(handle, size, GLES20.GL_FLOAT, false, size * 4,
+						vertex * size * 4);
+			}
+		} else if (obj.getInterleavedArrayBuffer() != null && layoutOffset != -1) {
+			gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+			int stride = obj.getVertexLayout().getStride();
+			ByteBuffer buffer = obj.getInterleavedArrayBuffer().duplicate();
+			buffer.position(vertex * stride + layoutOffset);
+			gl.glVertexAttribPointer(handle, size, GLES20.GL_FLOAT, false, stride, buffer);
+		} else {
+			gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+			FloatBuffer buffer = array.duplicate();
+			buffer.position(vertex * size);
+			gl.glVertexAttribPointer(handle, size, GLES20.GL_FLOAT, false, size * 4, buffer);
+		}
+	}
+
+	/**
+	 * Point the enabled attributes to the specified vertex, so the following indices are relative to it
+	 */
+	protected void setVertexOffset(Object3DData obj, int vertex) {
+		FloatBuffer vertexBuffer = obj.getVertexArrayBuffer() != null ? obj.getVertexArrayBuffer()
+				: obj.getVertexBuffer();
+		VertexLayout layout = obj.getVertexLayout();
+		setAttribute(obj, mPositionHandle, COORDS_PER_VERTEX, vertexBuffer,
+				layout != null ? layout.getPositionOffset() : -1, vertex);
+		if (mColorHandle != -1) {
+			setAttribute(obj, mColorHandle, VertexLayout.COLOR_SIZE, obj.getVertexColorsArrayBuffer(),
+					layout != null ? layout.getColorOffset() : -1, vertex);
+		}
+		if (mTextureHandle != -1) {
+			setAttribute(obj, mTextureHandle, VertexLayout.TEXTURE_SIZE, obj.getTextureCoordsArrayBuffer(),
+					layout != null ? layout.getTextureOffset() : -1, vertex);
+		}
+		if (mNormalHandle != -1) {
+			setAttribute(obj, mNormalHandle, VertexLayout.NORMAL_SIZE, obj.getVertexNormalsArrayBuffer(),
+					layout != null ? layout.getNormalOffset() : -1, vertex);
+		}
+		GLUtil.checkGlError("glVertexAttribPointer");
+	}
+
+	/**
+	 * Draw the indices starting at the specified one, either from the buffer object or from client memory
+	 *
+	 * @param type    {@link GLES20#GL_UNSIGNED_SHORT} or {@link GLES20#GL_UNSIGNED_INT}
+	 * @param indices the indices of the object
+	 * @param first   the first index to draw
+	 */
+	private void drawElements(Object3DData obj, int drawMode, int count, int type, Buffer indices, int first) {
+		if (useBufferObjects) {
+			bufferObjectManager.bind(obj, GLES20.GL_ELEMENT_ARRAY_BUFFER, indices, obj.getDataVersion());
+			gl.glDrawElements(drawMode, count, type,
+					first * (type == GLES20.GL_UNSIGNED_SHORT ? 2 : 4));
+		} else {
+			gl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+			indices.position(first);
+			gl.glDrawElements(drawMode, count, type, indices);
+		}
+	}
+
 	protected void drawShape(Object3DData obj, int drawMode, int drawSize) {
 		FloatBuffer vertexBuffer = obj.getVertexArrayBuffer() != null ? obj.getVertexArrayBuffer()
 				: obj.getVertexBuffer();
 		vertexBuffer.position(0);
 		List<int[]> drawModeList = obj.getDrawModeList();
 		IntBuffer drawOrderBuffer = obj.getDrawOrder();
+		ShortBuffer drawOrderShortBuffer = obj.getDrawOrderShort();
+
+		if (drawOrderShortBuffer != null && drawModeList != null && !obj.isDrawUsingArrays()) {
+			float[] bounds = frustum != null ? obj.getDrawRangeBounds() : null;
+			if (bounds != null && bounds.length != drawModeList.size() * 4) {
+				bounds = null;
+			}
+			// every range has its own vertices, so that they can be referenced with 16 bit indices
+			int vertexOffset = 0;
+			List<DrawMaterial> materials = obj.getDrawMaterials();
+			int material = -1;
+			for (int i = 0; i < drawModeList.size(); i++) {
+				int[] range = drawModeList.get(i);
+				if (bounds != null && !frustum.isRangeVisible(mMatrix, bounds, i * 4)) {
+					continue;
+				}
+				if (range[3] != vertexOffset) {
+					setVertexOffset(obj, range[3]);
+					vertexOffset = range[3];
+				}
+				// ranges are sorted by material, so it changes once per material
+				int rangeMaterial = materials != null && range.length > 4 ? range[4] : -1;
+				if (rangeMaterial != material) {
+					setMaterial(obj, rangeMaterial != -1 ? materials.get(rangeMaterial) : null);
+					material = rangeMaterial;
+				}
+				drawElements(obj, drawMode, range[2], GLES20.GL_UNSIGNED_SHORT, drawOrderShortBuffer, range[1]);
+			}
+			return;
+		}
 
 
 		if (obj.isDrawUsingArrays()){
@@ -310,10 +530,10 @@ public abstract class Object3DImpl implements Object3D {
 						// Log.v("Object3DImpl","Drawing wireframe for '" + obj.getId() + "' (" + drawSizePolygon + ")...");
 						for (int i = 0; i < polygon[2] - 2; i++) {
 							// Log.v("Object3DImpl","Drawing wireframe triangle '" + i + "' for '" + obj.getId() + "'...");
-							GLES20.glDrawArrays(drawMode, polygon[1] + i, 3);
+							gl.glDrawArrays(drawMode, polygon[1] + i, 3);
 						}
 					} else {
-						GLES20.glDrawArrays(drawMode, polygon[1], polygon[2]);
+						gl.glDrawArrays(drawMode, polygon[1], polygon[2]);
 					}
 				}
 			} else {
@@ -323,8 +543,7 @@ public abstract class Object3DImpl implements Object3D {
 					int drawModePolygon = drawPart[0];
 					int vertexPos = drawPart[1];
 					int drawSizePolygon = drawPart[2];
-					drawOrderBuffer.position(vertexPos);
-					GLES20.glDrawElements(drawModePolygon, drawSizePolygon, GLES20.GL_UNSIGNED_INT, drawOrderBuffer);
+					drawElements(obj, drawModePolygon, drawSizePolygon, GLES20.GL_UNSIGNED_INT, drawOrderBuffer, vertexPos);
 				}
 			}
 		} else {
@@ -332,14 +551,11 @@ public abstract class Object3DImpl implements Object3D {
 				if (drawSize <= 0) {
 					// String mode = drawMode == GLES20.GL_POINTS ? "Points" : drawMode == GLES20.GL_LINES? "Lines": "Triangles?";
 					// Log.d(obj.getId(),"Drawing all elements with mode '"+mode+"'...");
-					drawOrderBuffer.position(0);
-					GLES20.glDrawElements(drawMode, drawOrderBuffer.capacity(), GLES20.GL_UNSIGNED_INT,
-							drawOrderBuffer);
+					drawElements(obj, drawMode, drawOrderBuffer.capacity(), GLES20.GL_UNSIGNED_INT, drawOrderBuffer, 0);
 				} else {
 					//Log.d(obj.getId(),"Drawing single elements of size '"+drawSize+"'...");
 					for (int i = 0; i < drawOrderBuffer.capacity(); i += drawSize) {
-						drawOrderBuffer.position(i);
-						GLES20.glDrawElements(drawMode, drawSize, GLES20.GL_UNSIGNED_INT, drawOrderBuffer);
+						drawElements(obj, drawMode, drawSize, GLES20.GL_UNSIGNED_INT, drawOrderBuffer, i);
 					}
 				}
 			} else {
@@ -356,11 +572,11 @@ public abstract class Object3DImpl implements Object3D {
 						drawCount = (int)((Math.sin(rotation-this.shift+ Math.PI / 2 * 3)+1)/2f*drawCount);
 					}
 					// Log.d(obj.getId(),"Drawing all triangles using arrays... counter("+drawCount+")");
-					GLES20.glDrawArrays(drawMode, 0, drawCount);
+					gl.glDrawArrays(drawMode, 0, drawCount);
 				} else {
 					//Log.d(obj.getId(),"Drawing single triangles using arrays...");
 					for (int i = 0; i < vertexBuffer.capacity() / COORDS_PER_VERTEX; i += drawSize) {
-						GLES20.glDrawArrays(drawMode, i, drawSize);
+						gl.glDrawArrays(drawMode, i, drawSize);
 					}
 				}
 			}
@@ -0,0 +1,111 @@
+package org.andresoviedo.app.model3D.model;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import org.andresoviedo.app.util.nio.NativeMemory;
+
+/**
+ * Layout of a vertex in an interleaved buffer: all the attributes of a vertex are stored together (position, normal,
+ * texture coordinates & color), so drawing reads a single stream of memory.
+ *
+ * @author andresoviedo
+ */
+public final class VertexLayout {
+
+	private static final int BYTES_PER_FLOAT = 4;
+
+	public static final int POSITION_SIZE = 3;
+	public static final int NORMAL_SIZE = 3;
+	public static final int TEXTURE_SIZE = 2;
+	public static final int COLOR_SIZE = 4;
+
+	private final int positionOffset;
+	private final int normalOffset;
+	private final int textureOffset;
+	private final int colorOffset;
+	private final int stride;
+
+	/**
+	 * @param normals       whether the vertices have normals
+	 * @param textureCoords whether the vertices have texture coordinates
+	 * @param colors        whether the vertices have colors
+	 */
+	public VertexLayout(boolean normals, boolean textureCoords, boolean colors) {
+		int offset = 0;
+		positionOffset = offset;
+		offset += POSITION_SIZE * BYTES_PER_FLOAT;
+		normalOffset = normals ? offset : -1;
+		offset += normals ? NORMAL_SIZE * BYTES_PER_FLOAT : 0;
+		textureOffset = textureCoords ? offset : -1;
+		offset += textureCoords ? TEXTURE_SIZE * BYTES_PER_FLOAT : 0;
+		colorOffset = colors ? offset : -1;
+		offset += colors ? COLOR_SIZE * BYTES_PER_FLOAT : 0;
+		stride = offset;
+	}
+
+	/**
+	 * @return the size of a vertex in bytes
+	 */
+	public int getStride() {
+		return stride;
+	}
+
+	public int getPositionOffset() {
+		return positionOffset;
+	}
+
+	/**
+	 * @return the offset in bytes of the normal or -1 if vertices have no normal
+	 */
+	public int getNormalOffset() {
+		return normalOffset;
+	}
+
+	/**
+	 * @return the offset in bytes of the texture coordinates or -1 if vertices have no texture coordinates
+	 */
+	public int getTextureOffset() {
+		return textureOffset;
+	}
+
+	/**
+	 * @return the offset in bytes of the color or -1 if vertices have no color
+	 */
+	public int getColorOffset() {
+		return colorOffset;
+	}
+
+	/**
+	 * Build the interleaved buffer from the arrays of every attribute
+	 *
+	 * @param positions     3 floats per vertex
+	 * @param normals       3 floats per vertex or null if this layout has no normals
+	 * @param textureCoords 2 floats per vertex or null if this layout has no texture coordinates
+	 * @param colors        4 floats per vertex or null if this layout has no colors
+	 * @return a direct buffer in native order
+	 */
+	public ByteBuffer interleave(FloatBuffer positions, FloatBuffer normals, FloatBuffer textureCoords,
+								 FloatBuffer colors) {
+		int count = positions.capacity() / POSITION_SIZE;
+		ByteBuffer ret = NativeMemory.allocate(count * stride);
+		FloatBuffer vertices = ret.asFloatBuffer();
+		copy(positions, vertices, count, POSITION_SIZE, positionOffset);
+		copy(normals, vertices, count, NORMAL_SIZE, normalOffset);
+		copy(textureCoords, vertices, count, TEXTURE_SIZE, textureOffset);
+		copy(colors, vertices, count, COLOR_SIZE, colorOffset);
+		return ret;
+	}
+
+	private void copy(FloatBuffer src, FloatBuffer dst, int count, int size, int offset) {
+		if (offset == -1) {
+			return;
+		}
+		int floatStride = stride / BYTES_PER_FLOAT;
+		for (int i = 0, j = offset / BYTES_PER_FLOAT; i < count; i++, j += floatStride) {
+			for (int k = 0; k < size; k++) {
+				dst.put(j + k, src.get(i * size + k));
+			}
+		}
+	}
+}
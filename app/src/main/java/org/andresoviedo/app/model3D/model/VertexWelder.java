@@ -0,0 +1,106 @@
+package org.andresoviedo.app.model3D.model;
+
+/**
+ * Open addressing hash table of vertex keys (i.e. position, normal, texture & material indices) that assigns the same
+ * index to identical keys, so triangle corners that share all their attributes can be welded into a single vertex.
+ * Keys are stored in a flat int array, so no objects are allocated per vertex.
+ *
+ * @author andresoviedo
+ */
+final class VertexWelder {
+
+	/**
+	 * Number of ints of every key
+	 */
+	static final int KEY_SIZE = 6;
+
+	// index of the vertex + 1 (0 means empty slot)
+	private int[] table;
+	private int mask;
+	private int[] keys;
+	private int size;
+
+	/**
+	 * @param expectedSize expected number of unique vertices
+	 */
+	VertexWelder(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		table = new int[capacity];
+		mask = capacity - 1;
+		keys = new int[Math.max(16, expectedSize) * KEY_SIZE];
+	}
+
+	/**
+	 * Get the index of the vertex with the specified key, adding it if it's new. New vertices get the index
+	 * {@link #size()} had before calling this method.
+	 *
+	 * @param key {@link #KEY_SIZE} ints identifying the vertex
+	 * @return the index of the vertex
+	 */
+	int weld(int[] key) {
+		int slot = hash(key, 0) & mask;
+		while (true) {
+			int index = table[slot] - 1;
+			if (index == -1) {
+				break;
+			}
+			if (equals(key, index * KEY_SIZE)) {
+				return index;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		// new vertex
+		if ((size + 1) * KEY_SIZE > keys.length) {
+			int[] newKeys = new int[keys.length * 2];
+			System.arraycopy(keys, 0, newKeys, 0, size * KEY_SIZE);
+			keys = newKeys;
+		}
+		System.arraycopy(key, 0, keys, size * KEY_SIZE, KEY_SIZE);
+		table[slot] = ++size;
+		if (size * 2 > table.length) {
+			rehash();
+		}
+		return size - 1;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private boolean equals(int[] key, int offset) {
+		for (int i = 0; i < KEY_SIZE; i++) {
+			if (keys[offset + i] != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void rehash() {
+		table = new int[table.length * 2];
+		mask = table.length - 1;
+		for (int index = 0; index < size; index++) {
+			int slot = hash(keys, index * KEY_SIZE) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = index + 1;
+		}
+	}
+
+	private static int hash(int[] key, int offset) {
+		int h = key[offset];
+		for (int i = 1; i < KEY_SIZE; i++) {
+			h = h * 31 + key[offset + i];
+		}
+		// spread the bits, since consecutive indices are very common
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h;
+	}
+}
@@ -0,0 +1,175 @@
+package org.andresoviedo.app.model3D.services;
+
+import android.os.SystemClock;
+
+import org.andresoviedo.app.model3D.model.Object3DBuilder;
+import org.andresoviedo.app.util.nio.NativeMemory;
+
+import java.util.Locale;
+
+/**
+ * Timing and throughput of every stage of the loading of a model: wall time, bytes read, lines & faces processed and
+ * direct buffer bytes allocated. Stages not run (i.e. analyze when loading in single pass) are not measured.
+ *
+ * Stages are run one after the other, except the materials and texture stages that are part of
+ * {@link #GENERATE_ARRAYS}. Once the model is drawn for the first time the report is delivered to
+ * {@link Object3DBuilder.Callback#onLoadReport(LoadReport)}.
+ *
+ * @author andresoviedo
+ */
+public final class LoadReport {
+
+	public static final int ANALYZE = 0;
+	public static final int ALLOCATE = 1;
+	public static final int PARSE = 2;
+	public static final int CENTER_SCALE = 3;
+	public static final int GENERATE_ARRAYS = 4;
+	public static final int MATERIALS = 5;
+	public static final int TEXTURES = 6;
+	/**
+	 * First frame drawing the complete model, when its buffers are uploaded to the GPU. The bytes are the bytes
+	 * uploaded to buffer objects
+	 */
+	public static final int GPU_UPLOAD = 7;
+
+	private static final String[] NAMES = {"analyze", "allocate", "parse", "center/scale", "generateArrays",
+			"materials", "textures", "gpu upload"};
+	private static final int STAGES = NAMES.length;
+
+	private final String modelId;
+	private final Object3DBuilder.Callback callback;
+	private final boolean[] measured = new boolean[STAGES];
+	private final long[] times = new long[STAGES];
+	private final long[] bytesRead = new long[STAGES];
+	private final long[] lines = new long[STAGES];
+	private final long[] faces = new long[STAGES];
+	private final long[] directBytes = new long[STAGES];
+	// start of the stages running
+	private final long[] startTimes = new long[STAGES];
+	private final long[] startDirectBytes = new long[STAGES];
+	private boolean complete;
+
+	public LoadReport(String modelId, Object3DBuilder.Callback callback) {
+		this.modelId = modelId;
+		this.callback = callback;
+	}
+
+	public String getModelId() {
+		return modelId;
+	}
+
+	public synchronized void begin(int stage) {
+		startTimes[stage] = SystemClock.uptimeMillis();
+		startDirectBytes[stage] = NativeMemory.getAllocatedBytes();
+	}
+
+	public synchronized void end(int stage) {
+		measured[stage] = true;
+		times[stage] += SystemClock.uptimeMillis() - startTimes[stage];
+		directBytes[stage] += NativeMemory.getAllocatedBytes() - startDirectBytes[stage];
+	}
+
+	/**
+	 * Record a stage measured by the caller
+	 */
+	public synchronized void record(int stage, long millis, long bytes) {
+		measured[stage] = true;
+		times[stage] += millis;
+		bytesRead[stage] += bytes;
+	}
+
+	public synchronized void addBytesRead(int stage, long bytes) {
+		bytesRead[stage] += bytes;
+	}
+
+	public synchronized void addLines(int stage, long count) {
+		lines[stage] += count;
+	}
+
+	public synchronized void addFaces(int stage, long count) {
+		faces[stage] += count;
+	}
+
+	/**
+	 * Mark the report as complete (all the stages have been run) and deliver it to the callback. Only the first call
+	 * has effect
+	 */
+	public void complete() {
+		synchronized (this) {
+			if (complete) {
+				return;
+			}
+			complete = true;
+		}
+		if (callback != null) {
+			callback.onLoadReport(this);
+		}
+	}
+
+	public synchronized boolean isComplete() {
+		return complete;
+	}
+
+	public synchronized boolean isMeasured(int stage) {
+		return measured[stage];
+	}
+
+	/**
+	 * @return wall time in milliseconds
+	 */
+	public synchronized long getTime(int stage) {
+		return times[stage];
+	}
+
+	public synchronized long getBytesRead(int stage) {
+		return bytesRead[stage];
+	}
+
+	public synchronized long getLines(int stage) {
+		return lines[stage];
+	}
+
+	public synchronized long getFaces(int stage) {
+		return faces[stage];
+	}
+
+	public synchronized long getDirectBytes(int stage) {
+		return directBytes[stage];
+	}
+
+	public synchronized float getLinesPerSecond(int stage) {
+		return times[stage] > 0 ? lines[stage] * 1000f / times[stage] : 0;
+	}
+
+	public synchronized float getFacesPerSecond(int stage) {
+		return times[stage] > 0 ? faces[stage] * 1000f / times[stage] : 0;
+	}
+
+	/**
+	 * @return wall time of all the stages, in milliseconds. Materials & textures are already part of generateArrays
+	 */
+	public synchronized long getTotalTime() {
+		long ret = 0;
+		for (int i = 0; i < STAGES; i++) {
+			if (i != MATERIALS && i != TEXTURES) {
+				ret += times[i];
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder ret = new StringBuilder("Load report of '").append(modelId).append("' (")
+				.append(getTotalTime()).append(" ms)");
+		for (int i = 0; i < STAGES; i++) {
+			if (!measured[i]) {
+				continue;
+			}
+			ret.append(String.format(Locale.US, "%n%-15s %6d ms %10d bytes %9d lines (%.0f/s) %9d faces (%.0f/s) "
+							+ "%10d direct bytes", NAMES[i], times[i], bytesRead[i], lines[i], getLinesPerSecond(i),
+					faces[i], getFacesPerSecond(i), directBytes[i]));
+		}
+		return ret.toString();
+	}
+}
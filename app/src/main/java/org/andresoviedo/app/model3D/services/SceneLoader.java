@@ -1,6 +1,7 @@
 package org.andresoviedo.app.model3D.services;
 
 import java.io.File;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -74,30 +75,51 @@ public class SceneLoader {
 				throw new RuntimeException(e);
 			}
 
+			// keep drawing while the model is being loaded, so it's shown progressively
+			parent.getFrameScheduler().startAnimation();
 			Object3DBuilder.loadV6AsyncParallel(parent, url, parent.getParamFile(), parent.getParamAssetDir(),
 					parent.getParamAssetFilename(), new Callback() {
 
 						long startTime = SystemClock.uptimeMillis();
 
+						// the object added to the scene while it's still being built
+						volatile Object3DData building;
+
 						@Override
 						public void onBuildComplete(Object3DData data) {
 							final String elapsed = (SystemClock.uptimeMillis() - startTime)/1000+" 秒";
+							building = null;
 							makeToastText("加载成功 ("+elapsed+")", Toast.LENGTH_LONG);
+							parent.getFrameScheduler().stopAnimation();
+							requestRender();
 						}
 
 						@Override
 						public void onLoadComplete(Object3DData data) {
 							data.setColor(DEFAULT_COLOR);
 							data.setScale(new float[]{5f, 5f, 5f});
+							building = data;
 							addObject(data);
 						}
 
+						@Override
+						public void onLoadReport(LoadReport report) {
+							Log.i("SceneLoader", report.toString());
+						}
+
 						@Override
 						public void onLoadError(Exception ex) {
 							Log.e("SceneLoader",ex.getMessage(),ex);
-							Toast.makeText(parent.getApplicationContext(),
-									"There was a problem building the model: " + ex.getMessage(), Toast.LENGTH_LONG)
-									.show();
+							parent.getFrameScheduler().stopAnimation();
+							// the model is not completely built (i.e. it was cancelled), so don't leave it half drawn
+							Object3DData data = building;
+							if (data != null) {
+								building = null;
+								removeObject(data);
+							}
+							String message = ex instanceof InterruptedIOException ? "Loading cancelled"
+									: "There was a problem building the model: " + ex.getMessage();
+							Toast.makeText(parent.getApplicationContext(), message, Toast.LENGTH_LONG).show();
 						}
 					});
 		}
@@ -134,8 +156,21 @@ public class SceneLoader {
 		requestRender();
 	}
 
+	/**
+	 * Remove the object from the scene. Its resources (i.e. the texture) are released in the next frame
+	 */
+	public synchronized void removeObject(Object3DData obj) {
+		List<Object3DData> newList = new ArrayList<Object3DData>(objects);
+		newList.remove(obj);
+		this.objects = newList;
+		if (selectedObject == obj) {
+			selectedObject = null;
+		}
+		requestRender();
+	}
+
 	private void requestRender() {
-		parent.getgLView().requestRender();
+		parent.getFrameScheduler().requestFrame();
 	}
 
 	public synchronized List<Object3DData> getObjects() {
@@ -182,10 +217,26 @@ public class SceneLoader {
 
 	public void toggleTextures() {
 		this.drawTextures = !drawTextures;
+		requestRender();
 	}
 
 	public void toggleLighting() {
+		requestRender();
+	}
 
+	/**
+	 * Start or stop rotating the light around the model. The view is redrawn continuously while it rotates
+	 */
+	public synchronized void setRotatingLight(boolean rotatingLight) {
+		if (this.rotatingLight == rotatingLight) {
+			return;
+		}
+		this.rotatingLight = rotatingLight;
+		if (rotatingLight) {
+			parent.getFrameScheduler().startAnimation();
+		} else {
+			parent.getFrameScheduler().stopAnimation();
+		}
 	}
 
 	public boolean isDrawTextures() {
@@ -202,6 +253,7 @@ public class SceneLoader {
 
 	public void setSelectedObject(Object3DData selectedObject) {
 		this.selectedObject = selectedObject;
+		requestRender();
 	}
 
 }
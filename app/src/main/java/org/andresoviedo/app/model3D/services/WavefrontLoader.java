@@ -30,24 +30,43 @@
 package org.andresoviedo.app.model3D.services;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 import java.text.DecimalFormat;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.andresoviedo.app.util.nio.GrowableFloatBuffer;
+import org.andresoviedo.app.model3D.services.wavefront.WavefrontScanner;
+import org.andresoviedo.app.util.io.BinaryCache;
+import org.andresoviedo.app.util.io.ProgressMonitor;
+import org.andresoviedo.app.util.nio.GrowableIntBuffer;
+import org.andresoviedo.app.util.nio.NativeMemory;
 
 import android.content.res.AssetManager;
 import android.opengl.GLES20;
@@ -59,7 +78,8 @@ public class WavefrontLoader {
 	static final boolean INDEXES_START_AT_1 = true;
 	private boolean hasTCs3D = false;
 
-	private ArrayList<Tuple3> texCoords;
+	// view of the tex coords buffer, created on demand
+	private List<Tuple3> texCoords;
 
 	private Faces faces;
 	private FaceMaterials faceMats;
@@ -75,12 +95,38 @@ public class WavefrontLoader {
 	int numNormals = 0;
 	int numFaces = 0;
 	int numVertsReferences = 0;
+	// lines & bytes read (analyzing and loading)
+	private long linesRead = 0;
+	private long bytesRead = 0;
+	// progress of the files read (streams are monitored by wrapping them)
+	private ProgressMonitor progressMonitor;
 
 
 	private FloatBuffer vertsBuffer;
 	private FloatBuffer normalsBuffer;
-	// TODO: build texture data directly into this buffer
+	// 2 or 3 floats per tex coord, depending on hasTCs3D
 	private FloatBuffer textureCoordsBuffer;
+	private int texCoordsCount = 0;
+
+	// single pass loading: buffers grow while parsing and are sealed at the end
+	private boolean singlePass = false;
+	private GrowableFloatBuffer vertsStore;
+	private GrowableFloatBuffer normalsStore;
+	private GrowableFloatBuffer texCoordsStore;
+
+	// parallel loading: the input is split in line aligned chunks that are loaded by other loaders and merged after
+	private static final int MIN_CHUNK_SIZE = 256 * 1024;
+	private static final int CHUNKS_PER_THREAD = 4;
+	private ModelReader chunkReader;
+
+	/**
+	 * Version of the data written by {@link #toCache()} and by
+	 * {@link org.andresoviedo.app.model3D.model.Object3DBuilder#toCache(org.andresoviedo.app.model3D.model.Object3DData)}.
+	 * It must be increased every time the cache layout changes
+	 */
+	public static final int CACHE_VERSION = 4;
+	// whether the model was loaded without errors
+	private boolean loaded = false;
 
 	// flags
 	private final int triangleMode = GLES20.GL_TRIANGLE_FAN;
@@ -89,7 +135,6 @@ public class WavefrontLoader {
 		modelNm = nm;
 		maxSize = 1.0F;
 
-		texCoords = new ArrayList<Tuple3>();
 
 
 		faceMats = new FaceMaterials();
@@ -104,10 +149,56 @@ public class WavefrontLoader {
 		return normalsBuffer;
 	}
 
-	public ArrayList<Tuple3> getTexCoords() {
+	/**
+	 * @return the tex coords packed in a buffer, {@link #getTexCoordsStride()} floats each
+	 */
+	public FloatBuffer getTexCoordsBuffer() {
+		return textureCoordsBuffer;
+	}
+
+	/**
+	 * @return 3 if the tex coords are 3D, 2 otherwise
+	 */
+	public int getTexCoordsStride() {
+		return hasTCs3D ? 3 : 2;
+	}
+
+	/**
+	 * @return a list view of the tex coords buffer. Every access creates a new tuple, so use
+	 * {@link #getTexCoordsBuffer()} instead when iterating over all the tex coords
+	 */
+	public List<Tuple3> getTexCoords() {
+		if (texCoords == null && textureCoordsBuffer != null) {
+			texCoords = asTexCoordsList(textureCoordsBuffer, getTexCoordsStride());
+		}
 		return texCoords;
 	}
 
+	/**
+	 * Get a read only list view of packed tex coords
+	 *
+	 * @param buffer the tex coords. The number of tex coords is given by the limit of the buffer
+	 * @param stride 2 or 3 floats per tex coord. 2D tex coords get {@link #DUMMY_Z_TC} as z value
+	 * @return the view
+	 */
+	public static List<Tuple3> asTexCoordsList(final FloatBuffer buffer, final int stride) {
+		return new AbstractList<Tuple3>() {
+			@Override
+			public Tuple3 get(int index) {
+				if (index < 0 || index >= size()) {
+					throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+				}
+				int i = index * stride;
+				return new Tuple3(buffer.get(i), buffer.get(i + 1), stride == 3 ? buffer.get(i + 2) : DUMMY_Z_TC);
+			}
+
+			@Override
+			public int size() {
+				return buffer.limit() / stride;
+			}
+		};
+	}
+
 	public Faces getFaces() {
 		return faces;
 	}
@@ -124,65 +215,60 @@ public class WavefrontLoader {
 		return modelDims;
 	}
 
+	/**
+	 * @param progressMonitor to notify the progress of the files read (memory mapped) and to cancel the reading, or
+	 *                        null. Streams are monitored by wrapping them
+	 */
+	public void setProgressMonitor(ProgressMonitor progressMonitor) {
+		this.progressMonitor = progressMonitor;
+	}
+
+	/**
+	 * @return lines read so far. Lines are counted every time the model is read (i.e. when analyzing and loading)
+	 */
+	public long getLinesRead() {
+		return linesRead;
+	}
+
+	/**
+	 * @return bytes read so far. Bytes are counted every time the model is read (i.e. when analyzing and loading)
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
 	//分析模型
 	public void analyzeModel(InputStream is) {
-		int lineNum = 0;
-		String line;
+		try {
+			analyzeModel(is, null);
+		} finally {
+			try {
+				is.close();
+			} catch (IOException e) {
+				Log.e("WavefrontLoader", e.getMessage(), e);
+			}
+		}
+	}
 
+	/**
+	 * Same as {@link #analyzeModel(InputStream)} but reading the file through a memory mapped buffer
+	 *
+	 * @param file the model file
+	 */
+	public void analyzeModel(File file) {
+		analyzeModel(null, file);
+	}
 
-		BufferedReader br = null;
+	private void analyzeModel(InputStream is, File file) {
+		ModelReader reader = new ModelReader(true);
 		try {
-			br = new BufferedReader(new InputStreamReader(is));
-
-			while ((line = br.readLine()) != null) {
-				lineNum++;
-				line = line.trim();
-				if (line.length() > 0) {
-
-					if (line.startsWith("v ")) { // vertex
-						numVerts++;
-					} else if (line.startsWith("vt")) { // tex coord
-						numTextures++;
-					} else if (line.startsWith("vn")) {// normal
-						numNormals++;
-					} else if (line.startsWith("f ")) { // face
-						final int faceSize;
-						if (line.contains("  ")) {
-							faceSize = line.split(" +").length - 1;
-						} else {
-							faceSize = line.split(" ").length - 1;
-						}
-						numFaces += (faceSize - 2);
-						// 将多边形转换为三角形
-						numVertsReferences += (faceSize - 2) * 3;
-					} else if (line.startsWith("mtllib ")) //
-					{
-						materials = new Materials(line.substring(7));
-					} else if (line.startsWith("usemtl ")) {// 使用纹理
-					} else if (line.charAt(0) == 'g') { //
-						//不做计算
-					} else if (line.charAt(0) == 's') { //
-
-					} else if (line.charAt(0) == '#') //
-						continue;
-					else if (line.charAt(0) == 'o') //
-						continue;
-					else
-						System.out.println("Ignoring line " + lineNum + " : " + line);
-				}
-			}
+			reader.read(is, file);
 		} catch (IOException e) {
-			Log.e("WavefrontLoader", "Problem reading line '" + (++lineNum) + "'");
+			Log.e("WavefrontLoader", "Problem reading line '" + (reader.scanner.getLineNumber() + 1) + "'");
 			Log.e("WavefrontLoader", e.getMessage(), e);
 			throw new RuntimeException(e);
 		} finally {
-			if (br != null) {
-				try {
-					br.close();
-				} catch (IOException e) {
-					Log.e("WavefrontLoader", e.getMessage(), e);
-				}
-			}
+			countRead(reader);
 		}
 
 		Log.i("OBJ","顶点数:"+numVerts);
@@ -190,211 +276,707 @@ public class WavefrontLoader {
 	}
 
 	/**
-	 * Allocate buffers for pushing the model data
-	 * TODO: use textureCoordsBuffer
+	 * Allocate buffers for pushing the model data. Tex coords take 2 or 3 floats each, as decided when analyzing
 	 */
 	public void allocateBuffers() {
 
 		vertsBuffer = createNativeByteBuffer(numVerts*3*4).asFloatBuffer();
 		normalsBuffer = createNativeByteBuffer(numNormals*3*4).asFloatBuffer();
-		textureCoordsBuffer = createNativeByteBuffer(numTextures*3*4).asFloatBuffer();
+		textureCoordsBuffer = createNativeByteBuffer(numTextures*getTexCoordsStride()*4).asFloatBuffer();
 		IntBuffer buffer = createNativeByteBuffer(numFaces*3*4).asIntBuffer();
-		faces = new Faces(numFaces, buffer, vertsBuffer, normalsBuffer, texCoords);
+		faces = new Faces(numFaces, buffer, vertsBuffer, normalsBuffer, getTexCoords());
 	}
 
 	public void loadModel(InputStream is) {
 		// String fnm = MODEL_DIR + modelNm + ".obj";
-		BufferedReader br = null;
 		try {
-			br = new BufferedReader(new InputStreamReader(is));
-			readModel(br);
+			readModel(is, null);
 		} finally{
-			if (br != null){
+			try {
+				is.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+	}
+
+	/**
+	 * Same as {@link #loadModel(InputStream)} but reading the file through a memory mapped buffer
+	 *
+	 * @param file the model file
+	 */
+	public void loadModel(File file) {
+		readModel(null, file);
+	}
+
+	/**
+	 * Load the model reading the file only once. There is no need to call {@link #analyzeModel(InputStream)} nor
+	 * {@link #allocateBuffers()} before, because the data is pushed into growable buffers that are sealed into the
+	 * final (exactly sized) buffers once the whole file is parsed.
+	 *
+	 * @param is the model data
+	 */
+	public void loadModelSinglePass(InputStream is) {
+		try {
+			loadModelSinglePass(is, null);
+		} finally {
+			try {
+				is.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Same as {@link #loadModelSinglePass(InputStream)} but reading the file through a memory mapped buffer
+	 *
+	 * @param file the model file
+	 */
+	public void loadModelSinglePass(File file) {
+		loadModelSinglePass(null, file);
+	}
+
+	private void loadModelSinglePass(InputStream is, File file) {
+		singlePass = true;
+		vertsStore = new GrowableFloatBuffer();
+		normalsStore = new GrowableFloatBuffer();
+		texCoordsStore = new GrowableFloatBuffer();
+		faces = new Faces(new GrowableIntBuffer());
+		readModel(is, file);
+
+		// seal
+		numVerts = vertsStore.size() / 3;
+		numNormals = normalsStore.size() / 3;
+		numTextures = texCoordsCount;
+		vertsBuffer = vertsStore.seal();
+		normalsBuffer = normalsStore.seal();
+		textureCoordsBuffer = texCoordsStore.seal();
+		vertsStore = null;
+		normalsStore = null;
+		texCoordsStore = null;
+		faces.seal();
+		numFaces = faces.getSize();
+		numVertsReferences = numFaces * 3;
+		singlePass = false;
+
+		Log.i("OBJ","顶点数:"+numVerts);
+		Log.i("OBJ","角面数:"+numFaces);
+	}
+
+	/**
+	 * Load the model parsing chunks of the file concurrently, using as many threads as processors available
+	 *
+	 * @param file the model file. It's memory mapped
+	 */
+	public void loadModelParallel(File file) {
+		loadModelParallel(file, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Load the model parsing chunks of the file concurrently
+	 *
+	 * @param file the model file. It's memory mapped
+	 * @param parallelism number of threads
+	 */
+	public void loadModelParallel(File file, int parallelism) {
+		FileInputStream fis = null;
+		try {
+			fis = new FileInputStream(file);
+			FileChannel channel = fis.getChannel();
+			loadChunks(WavefrontScanner.split(channel, getChunkCount(channel.size(), parallelism)), parallelism);
+		} catch (IOException e) {
+			Log.e("WavefrontLoader", e.getMessage(), e);
+			throw new RuntimeException(e);
+		} finally {
+			if (fis != null) {
 				try {
-					br.close();
+					fis.close();
 				} catch (IOException e) {
-					e.printStackTrace();
+					Log.e("WavefrontLoader", e.getMessage(), e);
 				}
 			}
 		}
+	}
 
+	/**
+	 * Load the model parsing chunks of the stream concurrently. The stream is read completely in memory first.
+	 *
+	 * @param is the model data
+	 * @param parallelism number of threads
+	 */
+	public void loadModelParallel(InputStream is, int parallelism) {
+		try {
+			byte[] data = new byte[64 * 1024];
+			int size = 0;
+			for (int read; (read = is.read(data, size, data.length - size)) != -1; ) {
+				size += read;
+				if (size == data.length) {
+					byte[] newData = new byte[data.length * 2];
+					System.arraycopy(data, 0, newData, 0, size);
+					data = newData;
+				}
+			}
+			loadChunks(WavefrontScanner.split(ByteBuffer.wrap(data, 0, size), getChunkCount(size, parallelism)),
+					parallelism);
+		} catch (IOException e) {
+			Log.e("WavefrontLoader", e.getMessage(), e);
+			throw new RuntimeException(e);
+		} finally {
+			try {
+				is.close();
+			} catch (IOException e) {
+				Log.e("WavefrontLoader", e.getMessage(), e);
+			}
+		}
 	}
 
-	private static ByteBuffer createNativeByteBuffer(int length) {
-		// 初始化形状坐标的顶点字节缓冲区
-		ByteBuffer bb = ByteBuffer.allocateDirect(length);
-		//使用设备硬件的本机字节顺序
-		bb.order(ByteOrder.nativeOrder());
-		return bb;
+	private static int getChunkCount(long size, int parallelism) {
+		return (int) Math.max(1, Math.min(parallelism * CHUNKS_PER_THREAD, size / MIN_CHUNK_SIZE));
 	}
 
-	private void readModel(BufferedReader br)
-	// 逐行解析OBJ文件
-	{
-		boolean isLoaded = true; //
+	private void loadChunks(List<ByteBuffer> chunks, int parallelism) {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, chunks.size())));
+		try {
+			List<Future<WavefrontLoader>> futures = new ArrayList<Future<WavefrontLoader>>(chunks.size());
+			for (final ByteBuffer chunk : chunks) {
+				futures.add(executor.submit(new Callable<WavefrontLoader>() {
+					@Override
+					public WavefrontLoader call() throws Exception {
+						WavefrontLoader part = new WavefrontLoader(modelNm);
+						part.progressMonitor = progressMonitor;
+						part.readChunk(chunk);
+						return part;
+					}
+				}));
+			}
+			List<WavefrontLoader> parts = new ArrayList<WavefrontLoader>(chunks.size());
+			for (Future<WavefrontLoader> future : futures) {
+				parts.add(future.get());
+			}
+			if (progressMonitor != null) {
+				progressMonitor.notifyProgress();
+			}
+			merge(parts, executor);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Log.e("WavefrontLoader", e.getMessage(), e.getCause());
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
 
-		int lineNum = 0;
-		String line;
-		boolean isFirstCoord = true;
-		boolean isFirstTC = true;
-		int numFaces = 0;
+		Log.i("OBJ","顶点数:"+numVerts);
+		Log.i("OBJ","角面数:"+numFaces);
+	}
 
-		int vertNumber = 0;
-		int normalNumber = 0;
+	/**
+	 * Load one chunk of the file into the growable stores of this (partial) loader. Stores are not sealed, since
+	 * they are copied into the final buffers when merging.
+	 */
+	private void readChunk(ByteBuffer chunk) throws IOException {
+		singlePass = true;
+		vertsStore = new GrowableFloatBuffer();
+		normalsStore = new GrowableFloatBuffer();
+		texCoordsStore = new GrowableFloatBuffer();
+		faces = new Faces(new GrowableIntBuffer());
+		faces.relativeRefs = true;
+		chunkReader = new ModelReader(false, true);
+		chunkReader.scanner.setProgressMonitor(progressMonitor);
+		chunkReader.scanner.scan(chunk);
+	}
 
+	/**
+	 * Join the loaded chunks as if the file was loaded sequentially. Face indices, material uses and line numbers are
+	 * offset by what was read in the previous chunks and the dimensions of all chunks are combined.
+	 */
+	private void merge(final List<WavefrontLoader> parts, ExecutorService executor)
+			throws InterruptedException, ExecutionException {
+
+		// the first tex coord line of the file sets whether tex coords are 3D
+		for (WavefrontLoader part : parts) {
+			if (part.chunkReader.firstTCTokens != -1) {
+				hasTCs3D = part.chunkReader.firstTCTokens == 3;
+				System.out.println("Using 3D tex coords: " + hasTCs3D);
+				break;
+			}
+		}
 
-		try {
-			while (((line = br.readLine()) != null)) {
-				lineNum++;
-				line = line.trim();
-				if (line.length() > 0) {
-
-					if (line.startsWith("v ")) { // 顶点数据
-						isLoaded = addVert(vertsBuffer, vertNumber++ * 3, line, isFirstCoord, modelDims) && isLoaded;
-						if (isFirstCoord)
-							isFirstCoord = false;
-					} else if (line.startsWith("vt")) { //
-						isLoaded = addTexCoord(line, isFirstTC) && isLoaded;
-						if (isFirstTC)
-							isFirstTC = false;
-					} else if (line.startsWith("vn")) // 法线
-						isLoaded = addVert(normalsBuffer, normalNumber++ * 3,line, isFirstCoord, null) && isLoaded;
-					else if (line.startsWith("f ")) { // 面
-						isLoaded = faces.addFace(line) && isLoaded;
-						numFaces++;
-					} else if (line.startsWith("mtllib ")) //
-					{
-
-					} else if (line.startsWith("usemtl ")) // use material
-						faceMats.addUse(numFaces, line.substring(7));
-					else if (line.charAt(0) == 'g') { //
-
-					} else if (line.charAt(0) == 's') { //
-
-					} else if (line.charAt(0) == '#') //
-						continue;
-					else if (line.charAt(0) == 'o') //
-						continue;
-					else
-						System.out.println("Ignoring line " + lineNum + " : " + line);
+		// offsets of each chunk
+		final int[] vertBases = new int[parts.size()];
+		final int[] normalBases = new int[parts.size()];
+		final int[] faceBases = new int[parts.size()];
+		final int[] texCoordBases = new int[parts.size()];
+		final int[] texCoordOutBases = new int[parts.size()];
+		final int[] texIdxBases = new int[parts.size()];
+		final int[] normIdxBases = new int[parts.size()];
+		int numTexIdxs = 0, numNormIdxs = 0;
+		int lineBase = 0, texCoordLines = 0;
+		boolean isLoaded = true;
+		boolean hasDimensions = false;
+		for (int i = 0; i < parts.size(); i++) {
+			WavefrontLoader part = parts.get(i);
+			ModelReader reader = part.chunkReader;
+			vertBases[i] = numVerts;
+			normalBases[i] = numNormals;
+			faceBases[i] = numFaces;
+			texCoordBases[i] = texCoordLines;
+			texCoordOutBases[i] = texCoordsCount;
+			texIdxBases[i] = numTexIdxs;
+			normIdxBases[i] = numNormIdxs;
+			numTexIdxs += part.faces.texIdxsCount;
+			numNormIdxs += part.faces.normIdxsCount;
+			numVerts += reader.vertNumber;
+			numNormals += reader.normalNumber;
+			numFaces += part.faces.facesLoadCounter;
+			texCoordLines += reader.texCoordNumber;
+
+			texCoordsCount += part.countTexCoords(hasTCs3D);
+			faceMats.addAll(part.faceMats, faceBases[i]);
+			if (part.materials != null) {
+				materials = part.materials;
+			}
+			if (reader.hasDimensions && !hasDimensions) {
+				modelDims = part.modelDims;
+				hasDimensions = true;
+			} else if (reader.hasDimensions) {
+				modelDims.update(part.modelDims);
+			}
+			for (int j = 0; j < reader.ignoredLines.size(); j++) {
+				System.out.println("Ignoring line " + (lineBase + reader.ignoredLineNumbers.get(j)) + " : "
+						+ reader.ignoredLines.get(j));
+			}
+			lineBase += reader.scanner.getLineNumber();
+			countRead(reader);
+			isLoaded = isLoaded && reader.isLoaded;
+		}
+		numTextures = texCoordsCount;
+		numVertsReferences = numFaces * 3;
+
+		// copy the chunks into the final buffers
+		vertsBuffer = createNativeByteBuffer(numVerts * 3 * 4).asFloatBuffer();
+		normalsBuffer = createNativeByteBuffer(numNormals * 3 * 4).asFloatBuffer();
+		textureCoordsBuffer = createNativeByteBuffer(texCoordsCount * getTexCoordsStride() * 4).asFloatBuffer();
+		faces = new Faces(numFaces, createNativeByteBuffer(numFaces * 3 * 4).asIntBuffer(), vertsBuffer,
+				normalsBuffer, getTexCoords());
+		faces.facesTexIdxs = createNativeByteBuffer(numTexIdxs * 4).asIntBuffer();
+		faces.facesNormIdxs = createNativeByteBuffer(numNormIdxs * 4).asIntBuffer();
+		faces.texIdxsCount = numTexIdxs;
+		faces.normIdxsCount = numNormIdxs;
+		faces.facesLoadCounter = numFaces;
+		List<Future<?>> futures = new ArrayList<Future<?>>(parts.size());
+		for (int i = 0; i < parts.size(); i++) {
+			final WavefrontLoader part = parts.get(i);
+			final int index = i;
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					FloatBuffer verts = vertsBuffer.duplicate();
+					verts.position(vertBases[index] * 3);
+					part.vertsStore.copyTo(verts);
+					FloatBuffer normals = normalsBuffer.duplicate();
+					normals.position(normalBases[index] * 3);
+					part.normalsStore.copyTo(normals);
+					FloatBuffer texCoords = textureCoordsBuffer.duplicate();
+					texCoords.position(texCoordOutBases[index] * getTexCoordsStride());
+					part.copyTexCoords(texCoords, hasTCs3D);
+					part.faces.copyTo(faces, faceBases[index] * 3, texIdxBases[index], normIdxBases[index],
+							vertBases[index], texCoordBases[index], normalBases[index]);
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		for (WavefrontLoader part : parts) {
+			faces.verticesReferencesCount += part.faces.verticesReferencesCount;
+			faces.faceVertexLoadCounter += part.faces.faceVertexLoadCounter;
+		}
+
+		loaded = isLoaded;
+		if (!isLoaded) {
+			Log.e("WavefrontLoader","Error loading model");
+		}
+	}
+
+	/**
+	 * Count the valid tex coords of this chunk once it's known whether they are 3D or not
+	 */
+	private int countTexCoords(boolean is3D) {
+		int ret = texCoordsCount;
+		for (int[] incomplete : chunkReader.incompleteTexCoords) {
+			if (incomplete[1] < (is3D ? 3 : 2)) {
+				System.out.println("Problem parsing texture coordinate");
+				chunkReader.isLoaded = false;
+				ret--;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Copy the valid tex coords of this chunk (stored as 3 floats each) into the buffer with the final stride
+	 */
+	private void copyTexCoords(FloatBuffer dst, boolean is3D) {
+		List<int[]> incomplete = chunkReader.incompleteTexCoords;
+		for (int i = 0, j = 0; i < texCoordsCount; i++) {
+			if (j < incomplete.size() && incomplete.get(j)[0] == i) {
+				if (incomplete.get(j++)[1] < (is3D ? 3 : 2)) {
+					continue;
 				}
 			}
+			dst.put(texCoordsStore.get(i * 3)).put(texCoordsStore.get(i * 3 + 1));
+			if (is3D) {
+				dst.put(texCoordsStore.get(i * 3 + 2));
+			}
+		}
+	}
+
+	private void countRead(ModelReader reader) {
+		linesRead += reader.scanner.getLineNumber();
+		bytesRead += reader.scanner.getBytesScanned();
+	}
+
+	private static ByteBuffer createNativeByteBuffer(int length) {
+		return NativeMemory.allocate(length);
+	}
+
+	private void readModel(InputStream is, File file)
+	// 逐行解析OBJ文件
+	{
+		ModelReader reader = new ModelReader(false);
+		try {
+			reader.read(is, file);
 		} catch (IOException e) {
 			Log.e("WavefrontLoader",e.getMessage(),e);
 			throw new RuntimeException(e);
+		} finally {
+			countRead(reader);
 		}
 
-		if (!isLoaded) {
+		if (texCoordsStore == null) {
+			// discard the tex coords that couldn't be parsed
+			textureCoordsBuffer.limit(texCoordsCount * getTexCoordsStride());
+			faces.seal();
+		}
+
+		loaded = reader.isLoaded;
+		if (!reader.isLoaded) {
 			Log.e("WavefrontLoader","Error loading model");
 			// throw new RuntimeException("Error loading model");
 		}
 	} // end of readModel()
 
 	/**
-	 * 解析顶点并将其添加到缓冲区。如果顶点不能被解析 默认（0,0,0）
-	 *
-	 *
-	 * @param buffer 要添加顶点的缓冲区
-	 * @param offset 缓冲区的偏移量
-	 * @param line 要解析的顶点
-	 * @param isFirstCoord 如果这是第一个被解析的顶点
-	 * @param dimensions 模型显示，以便更新 (TODO move this out of this method)
-	 * @return <
-	 */
-	private boolean addVert(FloatBuffer buffer, int offset, String line, boolean isFirstCoord, ModelDimensions dimensions)
-	/*
-	 * 将Vertex从行“V X Y Z”添加到VERT查询列表中，并更新模型维度的信息
+	 * Receives the elements parsed by the {@link WavefrontScanner}. When analyzing, elements are only counted.
+	 * Otherwise they are pushed into the buffers (or into the growable stores when loading in single pass).
 	 */
-	{
-		float x=0,y=0,z=0;
-		try{
-			String[] tokens = null;
-			if (line.contains("  ")){
-				tokens = line.split(" +");
+	private class ModelReader implements WavefrontScanner.Listener {
+
+		private final boolean analyze;
+		// reading a chunk of the file. Whatever depends on the previous chunks is resolved when merging
+		private final boolean chunk;
+		private final WavefrontScanner scanner = new WavefrontScanner(this);
+
+		private boolean isLoaded = true;
+		private boolean isFirstCoord = true;
+		private boolean isFirstTC = true;
+		private boolean hasDimensions = false;
+		private int vertNumber = 0;
+		private int normalNumber = 0;
+		private int texCoordNumber = 0;
+
+		// chunk only: tokens of the first tex coord line, {index, parsed} of the tex coords not completely parsed
+		// and lines ignored (to report them with the right line number)
+		private int firstTCTokens = -1;
+		private List<int[]> incompleteTexCoords;
+		private List<Integer> ignoredLineNumbers;
+		private List<String> ignoredLines;
+
+		ModelReader(boolean analyze) {
+			this(analyze, false);
+		}
+
+		ModelReader(boolean analyze, boolean chunk) {
+			this.analyze = analyze;
+			this.chunk = chunk;
+			if (chunk) {
+				incompleteTexCoords = new ArrayList<int[]>();
+				ignoredLineNumbers = new ArrayList<Integer>();
+				ignoredLines = new ArrayList<String>();
 			}
-			else{
-				tokens = line.split(" ");
+		}
+
+		/**
+		 * Read the model from the file (memory mapped) if specified, otherwise from the stream
+		 */
+		void read(InputStream is, File file) throws IOException {
+			if (file != null) {
+				scanner.setProgressMonitor(progressMonitor);
+				scanner.scan(file);
+			} else {
+				scanner.scan(is);
 			}
-			x = Float.parseFloat(tokens[1]);
-			y = Float.parseFloat(tokens[2]);
-			z = Float.parseFloat(tokens[3]);
+		}
 
-			if (dimensions != null) {
-				if (isFirstCoord)
+		@Override
+		public void onVertex(float x, float y, float z, int parsed) {
+			if (analyze) {
+				numVerts++;
+				return;
+			}
+			// 如果顶点不能被解析 默认（0,0,0）
+			addVert(vertsBuffer, vertsStore, vertNumber++ * 3, x, y, z);
+			if (parsed == 3) {
+				if (isFirstCoord || (chunk && !hasDimensions))
 					modelDims.set(x, y, z);
 				else
 					modelDims.update(x, y, z);
+				hasDimensions = true;
+			} else {
+				Log.e("WavefrontLoader", "Problem parsing vertex at line " + scanner.getLineNumber());
+				isLoaded = false;
 			}
+			isFirstCoord = false;
+		}
 
-			return true;
-
-		}catch(NumberFormatException ex){
-			Log.e("WavefrontLoader",ex.getMessage());
-		} finally{
+		@Override
+		public void onNormal(float x, float y, float z, int parsed) {
+			if (analyze) {
+				numNormals++;
+				return;
+			}
+			addVert(normalsBuffer, normalsStore, normalNumber++ * 3, x, y, z);
+			if (parsed != 3) {
+				Log.e("WavefrontLoader", "Problem parsing normal at line " + scanner.getLineNumber());
+				isLoaded = false;
+			}
+		}
 
-			buffer.put(offset, x).put(offset+1, y).put(offset+2, z);
+		@Override
+		public void onTexCoord(float u, float v, float w, int tokens, int parsed) {
+			if (analyze) {
+				// the size of the buffer depends on the first tex coord line
+				if (isFirstTC) {
+					hasTCs3D = tokens == 3;
+					isFirstTC = false;
+				}
+				numTextures++;
+				return;
+			}
+			texCoordNumber++;
+			if (chunk) {
+				// dimension is known only when the first chunk with tex coords is found
+				if (firstTCTokens == -1) {
+					firstTCTokens = tokens;
+				}
+				texCoordsStore.add(u, v, w);
+				if (parsed < 3) {
+					incompleteTexCoords.add(new int[]{texCoordsCount, parsed});
+				}
+				texCoordsCount++;
+				return;
+			}
+			// 在线上，这是通过查看第一条Tex coord线来确定的
+			if (isFirstTC) {
+				hasTCs3D = tokens == 3;
+				System.out.println("Using 3D tex coords: " + hasTCs3D);
+				isFirstTC = false;
+			}
+			// 如果只有两个坐标，则只存储u,v
+			if (parsed >= getTexCoordsStride()) {
+				if (texCoordsStore != null) {
+					texCoordsStore.add(u);
+					texCoordsStore.add(v);
+					if (hasTCs3D) {
+						texCoordsStore.add(w);
+					}
+				} else {
+					int offset = texCoordsCount * getTexCoordsStride();
+					textureCoordsBuffer.put(offset, u).put(offset + 1, v);
+					if (hasTCs3D) {
+						textureCoordsBuffer.put(offset + 2, w);
+					}
+				}
+				texCoordsCount++;
+			} else {
+				System.out.println("Problem parsing texture coordinate at line " + scanner.getLineNumber());
+				isLoaded = false;
+			}
 		}
 
-		return false;
-	}
+		@Override
+		public void onFace(int[] vertIdxs, int[] texIdxs, int[] normIdxs, int count, boolean ok) {
+			if (analyze) {
+				// 将多边形转换为三角形
+				numFaces += (count - 2);
+				numVertsReferences += (count - 2) * 3;
+				return;
+			}
+			if (ok) {
+				isLoaded = faces.addFace(vertIdxs, texIdxs, normIdxs, count, vertNumber, texCoordNumber, normalNumber)
+						&& isLoaded;
+			} else {
+				Log.e("WavefrontLoader", "Problem parsing face at line " + scanner.getLineNumber());
+				isLoaded = false;
+			}
+		}
 
-	private boolean addTexCoord(String line, boolean isFirstTC)
-	/*
-	 * 将“VT U V W”行中的纹理坐标添加到texcocorylist中.
-	 * 在线上，这是通过查看第一条Tex coord线来确定的
-	 */
-	{
-		if (isFirstTC) {
-			hasTCs3D = checkTC3D(line);
-			System.out.println("Using 3D tex coords: " + hasTCs3D);
+		@Override
+		public void onMaterialLib(String name) {
+			// in single pass mode there was no previous analysis
+			if (analyze || singlePass) {
+				materials = new Materials(name);
+			}
 		}
 
-		Tuple3 texCoord = readTCTuple(line);
-		if (texCoord != null) {
-			texCoords.add(texCoord);
-			return true;
+		@Override
+		public void onUseMaterial(String name) {
+			if (!analyze) {
+				// materials are located by the triangle, as polygons are split in triangles
+				faceMats.addUse(faces.facesLoadCounter, name);
+			}
 		}
 
-		return false;
+		@Override
+		public void onIgnoredLine(int lineNumber, String line) {
+			if (chunk) {
+				ignoredLineNumbers.add(lineNumber);
+				ignoredLines.add(line);
+				return;
+			}
+			System.out.println("Ignoring line " + lineNumber + " : " + line);
+		}
 	}
 
-	private boolean checkTC3D(String line)
-	/*
-	 *检查模型数据
+	/**
+	 * 将顶点添加到缓冲区
+	 *
+	 * @param buffer 要添加顶点的缓冲区
+	 * @param store the growable buffer to append the vertex to when loading in single pass (null otherwise)
+	 * @param offset 缓冲区的偏移量
 	 */
-	{
-		String[] tokens = line.split("\\s+");
-		return (tokens.length == 4);
+	private static void addVert(FloatBuffer buffer, GrowableFloatBuffer store, int offset, float x, float y, float z) {
+		if (store != null) {
+			store.add(x, y, z);
+		} else {
+			buffer.put(offset, x).put(offset + 1, y).put(offset + 2, z);
+		}
 	}
 
-	private Tuple3 readTCTuple(String line)
-	/*
-	 * 该行以“vt”OBJ字开头，两个或三个浮点数（x，y，z）用于由空格分隔的tex坐标
-	 * 如果只有两个坐标，则为z值分配一个虚拟值DUMMY_Z_TC。
+	/**
+	 * @return true if the model was loaded and there was no problem parsing it
 	 */
-	{
-		StringTokenizer tokens = new StringTokenizer(line, " ");
-		tokens.nextToken(); //
+	public boolean isLoaded() {
+		return loaded;
+	}
 
+	/**
+	 * Get the loaded model as binary sections that can be stored in a {@link BinaryCache}. It's called once the model
+	 * is centered & scaled, so the vertices and the dimensions are cached scaled and the model is not scaled again
+	 * when it's loaded from the cache.
+	 *
+	 * @return the model sections
+	 */
+	public Map<String, Buffer> toCache() {
+		Map<String, Buffer> ret = new LinkedHashMap<String, Buffer>();
+		ret.put("info", IntBuffer.wrap(new int[]{hasTCs3D ? 1 : 0, faces.getSize()}));
+		ret.put("dims", FloatBuffer.wrap(new float[]{modelDims.leftPt, modelDims.rightPt, modelDims.topPt,
+				modelDims.bottomPt, modelDims.farPt, modelDims.nearPt}));
+		ret.put("verts", vertsBuffer);
+		ret.put("normals", normalsBuffer);
+		ret.put("texCoords", textureCoordsBuffer);
+		ret.put("faces", faces.facesVertIdxs);
+		ret.put("faces.tex", faces.facesTexIdxs);
+		ret.put("faces.norm", faces.facesNormIdxs);
 		try {
-			float x = Float.parseFloat(tokens.nextToken());
-			float y = Float.parseFloat(tokens.nextToken());
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			DataOutputStream dos = new DataOutputStream(bos);
+			dos.writeBoolean(materials != null);
+			if (materials != null) {
+				dos.writeUTF(materials.mfnm);
+			}
+			dos.writeInt(faceMats.faceMats.size());
+			for (Map.Entry<Integer, String> entry : faceMats.faceMats.entrySet()) {
+				dos.writeInt(entry.getKey());
+				dos.writeUTF(entry.getValue());
+			}
+			dos.writeInt(faceMats.matCount.size());
+			for (Map.Entry<String, Integer> entry : faceMats.matCount.entrySet()) {
+				dos.writeUTF(entry.getKey());
+				dos.writeInt(entry.getValue());
+			}
+			dos.close();
+			ret.put("materials", ByteBuffer.wrap(bos.toByteArray()));
+		} catch (IOException ex) {
+			// writing to memory
+			throw new RuntimeException(ex);
+		}
+		return ret;
+	}
+
+	/**
+	 * Load the model from a cache entry written with {@link #toCache()}. All the buffers are used directly from
+	 * the (privately) mapped entry, so they are not copied.
+	 *
+	 * @param entry the cached model
+	 */
+	public void loadCache(BinaryCache.Entry entry) {
+		IntBuffer info = entry.getInts("info");
+		hasTCs3D = info.get(0) == 1;
+		FloatBuffer dims = entry.getFloats("dims");
+		modelDims.leftPt = dims.get(0);
+		modelDims.rightPt = dims.get(1);
+		modelDims.topPt = dims.get(2);
+		modelDims.bottomPt = dims.get(3);
+		modelDims.farPt = dims.get(4);
+		modelDims.nearPt = dims.get(5);
+
+		vertsBuffer = entry.getFloats("verts");
+		normalsBuffer = entry.getFloats("normals");
+		textureCoordsBuffer = entry.getFloats("texCoords");
+		texCoordsCount = textureCoordsBuffer.capacity() / getTexCoordsStride();
+		faces = new Faces(info.get(1), entry.getInts("faces"), vertsBuffer, normalsBuffer, getTexCoords());
+		faces.facesLoadCounter = faces.totalFaces;
+		faces.faceVertexLoadCounter = faces.totalFaces * 3;
+		faces.verticesReferencesCount = faces.totalFaces * 3;
+		faces.facesTexIdxs = entry.getInts("faces.tex");
+		faces.facesNormIdxs = entry.getInts("faces.norm");
+		faces.texIdxsCount = faces.facesTexIdxs.capacity();
+		faces.normIdxsCount = faces.facesNormIdxs.capacity();
 
-			float z = DUMMY_Z_TC;
-			if (hasTCs3D)
-				z = Float.parseFloat(tokens.nextToken());
-			return new Tuple3(x, y, z);
-		} catch (NumberFormatException e) {
-			System.out.println(e.getMessage());
+		try {
+			ByteBuffer bb = entry.get("materials");
+			byte[] data = new byte[bb.remaining()];
+			bb.get(data);
+			DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+			materials = dis.readBoolean() ? new Materials(dis.readUTF()) : null;
+			for (int i = dis.readInt(); i > 0; i--) {
+				faceMats.faceMats.put(dis.readInt(), dis.readUTF());
+			}
+			for (int i = dis.readInt(); i > 0; i--) {
+				faceMats.matCount.put(dis.readUTF(), dis.readInt());
+			}
+		} catch (IOException ex) {
+			// reading from memory
+			throw new RuntimeException(ex);
 		}
 
-		return null; // means an error occurred
+		numVerts = vertsBuffer.capacity() / 3;
+		numNormals = normalsBuffer.capacity() / 3;
+		numTextures = texCoordsCount;
+		numFaces = faces.getSize();
+		numVertsReferences = numFaces * 3;
+		loaded = true;
 	}
 
 	public void reportOnModel() {
 		Log.i("WavefrontLoader","No. of vertices: " + vertsBuffer.capacity()/3);
 		Log.i("WavefrontLoader","No. of normal coords: " + normalsBuffer.capacity()/3);
-		Log.i("WavefrontLoader","No. of tex coords: " + texCoords.size());
+		Log.i("WavefrontLoader","No. of tex coords: " + texCoordsCount);
 		Log.i("WavefrontLoader","No. of faces: " + faces.getSize());
 
 		modelDims.reportDimensions();
@@ -495,6 +1077,50 @@ public class WavefrontLoader {
 				farPt = z;
 		} // end of update()
 
+		/**
+		 * Grow the edges to include the other dimensions
+		 */
+		public void update(ModelDimensions other) {
+			update(other.leftPt, other.bottomPt, other.farPt);
+			update(other.rightPt, other.topPt, other.nearPt);
+		}
+
+
+		public float getLeftPt() {
+			return leftPt;
+		}
+
+		public float getRightPt() {
+			return rightPt;
+		}
+
+		public float getTopPt() {
+			return topPt;
+		}
+
+		public float getBottomPt() {
+			return bottomPt;
+		}
+
+		public float getFarPt() {
+			return farPt;
+		}
+
+		public float getNearPt() {
+			return nearPt;
+		}
+
+		/**
+		 * Move & scale the edges like the vertices of the model when it's centered & scaled
+		 */
+		public void centerScale(Tuple3 center, float scaleFactor) {
+			leftPt = (leftPt - center.getX()) * scaleFactor;
+			rightPt = (rightPt - center.getX()) * scaleFactor;
+			topPt = (topPt - center.getY()) * scaleFactor;
+			bottomPt = (bottomPt - center.getY()) * scaleFactor;
+			farPt = (farPt - center.getZ()) * scaleFactor;
+			nearPt = (nearPt - center.getZ()) * scaleFactor;
+		}
 
 		public float getWidth() {
 			return (rightPt - leftPt);
@@ -560,6 +1186,14 @@ public class WavefrontLoader {
 			// file = new File(mtlFnm);
 		}
 
+		/**
+		 * @return the name of the materials file (relative to the model)
+		 */
+		public String getFileName() {
+			return mfnm;
+		}
+
+
 		public void readMaterials(File currentDir, String assetsDir, AssetManager am) {
 			try {
 				InputStream is;
@@ -791,7 +1425,7 @@ public class WavefrontLoader {
 			return texture;
 		}
 
-		String getName() {
+		public String getName() {
 			return name;
 		}
 
@@ -800,22 +1434,43 @@ public class WavefrontLoader {
 	public class Faces {
 		private static final float DUMMY_Z_TC = -5.0f;
 
-		public final int totalFaces;
+		public int totalFaces;
 		/**
 		 * 每个面使用的顶点的索引
 		 */
 		public IntBuffer facesVertIdxs;
 		/**
-		 * 每个面使用的tex坐标的索引
+		 * Vertex indices when the total number of faces is not known in advance (single pass loading)
+		 */
+		private GrowableIntBuffer facesVertIdxsStore;
+		/**
+		 * When loading a chunk of the file, the position of the indices that were relative (negative) so they can be
+		 * offset by the elements of the previous chunks
+		 */
+		private boolean relativeRefs;
+		private GrowableIntBuffer relativeVertRefs;
+		private GrowableIntBuffer relativeTexRefs;
+		private GrowableIntBuffer relativeNormRefs;
+		/**
+		 * 每个面使用的tex坐标的索引 (3 per triangle, only for the faces that have tex coords)
 		 */
-		public ArrayList<int[]> facesTexIdxs;
+		public IntBuffer facesTexIdxs;
 		/**
-		 * 每个面使用的法线的索引
+		 * 每个面使用的法线的索引 (3 per triangle, only for the faces that have normals)
 		 */
-		public ArrayList<int[]> facesNormIdxs;
+		public IntBuffer facesNormIdxs;
+		private GrowableIntBuffer facesTexIdxsStore;
+		private GrowableIntBuffer facesNormIdxsStore;
+		private int texIdxsCount;
+		private int normIdxsCount;
+		/**
+		 * Tex coord & normal indices of the triangle being added
+		 */
+		private final int[] vt = new int[3];
+		private final int[] vn = new int[3];
 
 		private FloatBuffer normals;
-		private ArrayList<Tuple3> texCoords;
+		private List<Tuple3> texCoords;
 
 		// 顶点引用的总数。也就是说，每个面引用3个或更多个向量。这是所有数据总和
 		// faces
@@ -826,15 +1481,42 @@ public class WavefrontLoader {
 		//
 		//
 
-		Faces(int totalFaces, IntBuffer buffer, FloatBuffer vs, FloatBuffer ns, ArrayList<Tuple3> ts) {
+		Faces(int totalFaces, IntBuffer buffer, FloatBuffer vs, FloatBuffer ns, List<Tuple3> ts) {
 			this.totalFaces = totalFaces;
 			normals = ns;
 			texCoords = ts;
 
+			// tex coord & normal indices are allocated with the first face that has them
 			facesVertIdxs = buffer;
-			facesTexIdxs = new ArrayList<int[]>();
-			facesNormIdxs = new ArrayList<int[]>();
 		} //
+
+		Faces(GrowableIntBuffer store) {
+			this.totalFaces = 0;
+			facesVertIdxsStore = store;
+			facesTexIdxsStore = new GrowableIntBuffer();
+			facesNormIdxsStore = new GrowableIntBuffer();
+		}
+
+		/**
+		 * Build the final index buffers when the faces were loaded in single pass mode. Otherwise, limit the tex coord
+		 * & normal indices to the ones that were added.
+		 */
+		void seal() {
+			if (facesVertIdxsStore != null) {
+				facesVertIdxs = facesVertIdxsStore.seal();
+				facesTexIdxs = facesTexIdxsStore.seal();
+				facesNormIdxs = facesNormIdxsStore.seal();
+				facesVertIdxsStore = null;
+				facesTexIdxsStore = null;
+				facesNormIdxsStore = null;
+				totalFaces = facesLoadCounter;
+				return;
+			}
+			if (facesTexIdxs == null) facesTexIdxs = createNativeByteBuffer(0).asIntBuffer();
+			if (facesNormIdxs == null) facesNormIdxs = createNativeByteBuffer(0).asIntBuffer();
+			facesTexIdxs.limit(texIdxsCount);
+			facesNormIdxs.limit(normIdxsCount);
+		}
 		public int getSize(){
 			return totalFaces;
 		}
@@ -845,109 +1527,162 @@ public class WavefrontLoader {
 		}
 
 		/**
-		 * 从“f v / vt / vn ...”行得到这个面部的指示，其中vt或vn索引值可能不存在。
+		 * 添加“f v / vt / vn ...”行的面部的指示，其中vt或vn索引值可能不存在。
+		 *
+		 * @param vertIdxs the vertex indices of the polygon
+		 * @param texIdxs the texture indices or {@link WavefrontScanner#ABSENT}
+		 * @param normIdxs the normal indices or {@link WavefrontScanner#ABSENT}
+		 * @param numTokens number of vertices of the polygon
+		 * @param numVerts vertices read so far, to resolve relative (negative) indices
+		 * @param numTexCoords tex coords read so far
+		 * @param numNormals normals read so far
 		 */
-		public boolean addFace(String line) {
-			try {
-				line = line.substring(2); //
-				String[] tokens = null;
-				if (line.contains("  ")){
-					tokens = line.split(" +");
-				}
-				else{
-					tokens = line.split(" ");
-				}
-				int numTokens = tokens.length; //
-				// 创建数组以保存v，vt，vn标记
-
-				int vt[] = null;
-				int vn[] = null;
+		public boolean addFace(int[] vertIdxs, int[] texIdxs, int[] normIdxs, int numTokens, int numVerts,
+							   int numTexCoords, int numNormals) {
+			// 当前三角形是否有vt，vn标记
+			boolean hasVt = false;
+			boolean hasVn = false;
 
+			for (int i = 0, faceIndex = 0; i < numTokens; i++, faceIndex++) {
 
-				for (int i = 0, faceIndex = 0; i < numTokens; i++, faceIndex++) {
+				// 所有多边形转换为三角形
+				if (faceIndex > 2){
+					// 将多边形转换为三角形
+					faceIndex = 0;
 
-					// 所有多边形转换为三角形
-					if (faceIndex > 2){
-						// 将多边形转换为三角形
-						faceIndex = 0;
+					facesLoadCounter++;
+					verticesReferencesCount += 3;
+					if (hasVt) addTexIdxs();
+					if (hasVn) addNormIdxs();
 
-						facesLoadCounter++;
-						verticesReferencesCount += 3;
-						if (vt != null)  facesTexIdxs.add(vt);
-						if (vn != null) facesNormIdxs.add(vn);
+					hasVt = false;
+					hasVn = false;
 
-						vt = null;
-						vn = null;
+					i -= 2;
+				}
 
-						i -= 2;
-					}
+				// 将所有多边形转换为三角形
+				int faceToken;
+				if (WavefrontLoader.this.triangleMode == GLES20.GL_TRIANGLE_FAN && faceIndex == 0) {
+					//在FAN模式下，所有面都共享初始顶点
+					faceToken = 0;
+				}
+				else {
+					// GL.GL_TRIANGLES | GL.GL_TRIANGLE_STRIP
+					faceToken = i;
+				}
 
-					// 将所有多边形转换为三角形
-					String faceToken = null;
-					if (WavefrontLoader.this.triangleMode == GLES20.GL_TRIANGLE_FAN) {
-						if (faceIndex == 0){
-							//在FAN模式下，所有面都共享初始顶点
-							faceToken = tokens[0];//
-						}else{
-							faceToken = tokens[i]; //
-						}
+				// 负指数相对于最后读取的元素
+				int vertIdx = vertIdxs[faceToken];
+				if (vertIdx < 0) {
+					vertIdx += numVerts + 1;
+					if (relativeRefs) relativeVertRefs = addRef(relativeVertRefs, faceVertexLoadCounter);
+				}
+				if (texIdxs[faceToken] != WavefrontScanner.ABSENT){
+					if (!hasVt) {
+						vt[0] = vt[1] = vt[2] = 0;
+						hasVt = true;
 					}
-					else {
-						// GL.GL_TRIANGLES | GL.GL_TRIANGLE_STRIP
-						faceToken = tokens[i]; //
+					vt[faceIndex] = texIdxs[faceToken];
+					if (vt[faceIndex] < 0) {
+						vt[faceIndex] += numTexCoords + 1;
+						if (relativeRefs) relativeTexRefs = addRef(relativeTexRefs, texIdxsCount + faceIndex);
 					}
-
-
-					String[] faceTokens = faceToken.split("/");
-					int numSeps = faceTokens.length; //
-					//
-
-					int vertIdx = Integer.parseInt(faceTokens[0]);
-					/*if (vertIdx > 65535){
-						Log.e("WavefrontLoader","Ignoring face because its out of range (>65535)");
-						continue;
-					}*/
-					if (numSeps > 1){
-						if (vt == null)	vt = new int[3];
-						try{
-							vt[faceIndex] = Integer.parseInt(faceTokens[1]);
-						}catch(NumberFormatException ex){
-							vt[faceIndex] = 0;
-						}
-					}
-					if (numSeps > 2){
-						if (vn == null)	vn = new int[3];
-						try{
-							vn[faceIndex] = Integer.parseInt(faceTokens[2]);
-						}catch(NumberFormatException ex){
-							vn[faceIndex] = 0;
-						}
+				}
+				if (normIdxs[faceToken] != WavefrontScanner.ABSENT){
+					if (!hasVn) {
+						vn[0] = vn[1] = vn[2] = 0;
+						hasVn = true;
 					}
-					//
-					//如果缺少vt或vn索引值，则添加0;
-					//实际指数从1开始
-
-					if (WavefrontLoader.INDEXES_START_AT_1) {
-						vertIdx--;
-						if (vt != null)	vt[faceIndex] = vt[faceIndex] - 1;
-						if (vn != null) vn[faceIndex] = vn[faceIndex] - 1;
+					vn[faceIndex] = normIdxs[faceToken];
+					if (vn[faceIndex] < 0) {
+						vn[faceIndex] += numNormals + 1;
+						if (relativeRefs) relativeNormRefs = addRef(relativeNormRefs, normIdxsCount + faceIndex);
 					}
-					// 存储面的索引
-					facesVertIdxs.put(faceVertexLoadCounter++,vertIdx);
 				}
-				if (vt != null)  facesTexIdxs.add(vt);
-				if (vn != null) facesNormIdxs.add(vn);
+				//
+				//如果缺少vt或vn索引值，则添加0;
+				//实际指数从1开始
+
+				if (WavefrontLoader.INDEXES_START_AT_1) {
+					vertIdx--;
+					if (hasVt) vt[faceIndex] = vt[faceIndex] - 1;
+					if (hasVn) vn[faceIndex] = vn[faceIndex] - 1;
+				}
+				// 存储面的索引
+				if (facesVertIdxsStore != null) {
+					facesVertIdxsStore.add(vertIdx);
+					faceVertexLoadCounter++;
+				} else {
+					facesVertIdxs.put(faceVertexLoadCounter++, vertIdx);
+				}
+			}
+			if (hasVt) addTexIdxs();
+			if (hasVn) addNormIdxs();
 
-				facesLoadCounter++;
-				verticesReferencesCount += 3;
+			facesLoadCounter++;
+			verticesReferencesCount += 3;
 
-			} catch (NumberFormatException e) {
-				Log.e("WavefrontLoader",e.getMessage(),e);
-				return false;
-			}
 			return true;
 		}
 
+		private void addTexIdxs() {
+			if (facesTexIdxsStore != null) {
+				facesTexIdxsStore.add(vt[0]);
+				facesTexIdxsStore.add(vt[1]);
+				facesTexIdxsStore.add(vt[2]);
+			} else {
+				if (facesTexIdxs == null) facesTexIdxs = createNativeByteBuffer(totalFaces * 3 * 4).asIntBuffer();
+				facesTexIdxs.put(texIdxsCount, vt[0]).put(texIdxsCount + 1, vt[1]).put(texIdxsCount + 2, vt[2]);
+			}
+			texIdxsCount += 3;
+		}
+
+		private void addNormIdxs() {
+			if (facesNormIdxsStore != null) {
+				facesNormIdxsStore.add(vn[0]);
+				facesNormIdxsStore.add(vn[1]);
+				facesNormIdxsStore.add(vn[2]);
+			} else {
+				if (facesNormIdxs == null) facesNormIdxs = createNativeByteBuffer(totalFaces * 3 * 4).asIntBuffer();
+				facesNormIdxs.put(normIdxsCount, vn[0]).put(normIdxsCount + 1, vn[1]).put(normIdxsCount + 2, vn[2]);
+			}
+			normIdxsCount += 3;
+		}
+
+
+		private GrowableIntBuffer addRef(GrowableIntBuffer refs, int position) {
+			if (refs == null) refs = new GrowableIntBuffer(16);
+			refs.add(position);
+			return refs;
+		}
+
+		/**
+		 * Copy the indices of this chunk into the merged faces and offset the relative indices by the number of
+		 * elements in the previous chunks
+		 *
+		 * @param dst the merged faces
+		 * @param vertOffset position of the first vertex index of this chunk in the merged faces
+		 * @param texOffset position of the first tex coord index of this chunk in the merged faces
+		 * @param normOffset position of the first normal index of this chunk in the merged faces
+		 */
+		void copyTo(Faces dst, int vertOffset, int texOffset, int normOffset, int vertBase, int texCoordBase,
+					int normalBase) {
+			copyTo(facesVertIdxsStore, dst.facesVertIdxs, vertOffset, relativeVertRefs, vertBase);
+			copyTo(facesTexIdxsStore, dst.facesTexIdxs, texOffset, relativeTexRefs, texCoordBase);
+			copyTo(facesNormIdxsStore, dst.facesNormIdxs, normOffset, relativeNormRefs, normalBase);
+		}
+
+		private void copyTo(GrowableIntBuffer src, IntBuffer dst, int offset, GrowableIntBuffer relativeRefs,
+							int base) {
+			IntBuffer target = dst.duplicate();
+			target.position(offset);
+			src.copyTo(target);
+			for (int i = 0; relativeRefs != null && i < relativeRefs.size(); i++) {
+				int position = offset + relativeRefs.get(i);
+				dst.put(position, dst.get(position) + base);
+			}
+		}
 
 		public int getVerticesReferencesCount() {
 			// 只有三角形
@@ -986,6 +1721,22 @@ public class WavefrontLoader {
 				matCount.put(matName, 1);
 		} //
 
+		/**
+		 * Add the uses of other materials, offsetting their face index
+		 */
+		public void addAll(FaceMaterials other, int faceOffset) {
+			for (Map.Entry<Integer, String> entry : other.faceMats.entrySet()) {
+				int faceIdx = entry.getKey() + faceOffset;
+				if (faceMats.containsKey(faceIdx))
+					System.out.println("Face index " + faceIdx + " changed to use material " + entry.getValue());
+				faceMats.put(faceIdx, entry.getValue());
+			}
+			for (Map.Entry<String, Integer> entry : other.matCount.entrySet()) {
+				Integer count = matCount.get(entry.getKey());
+				matCount.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+			}
+		}
+
 		public String findMaterial(int faceIdx) {
 			return (String) faceMats.get(faceIdx);
 		}
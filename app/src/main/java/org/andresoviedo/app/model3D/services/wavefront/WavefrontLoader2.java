@@ -1,18 +1,24 @@
 package org.andresoviedo.app.model3D.services.wavefront;
 
 import android.app.Activity;
+import android.content.res.AssetFileDescriptor;
 import android.opengl.GLES20;
+import android.os.SystemClock;
 import android.util.Log;
 
 import org.andresoviedo.app.model3D.controller.LoaderTask;
 import org.andresoviedo.app.model3D.model.Object3DBuilder;
 import org.andresoviedo.app.model3D.model.Object3DData;
+import org.andresoviedo.app.model3D.services.LoadReport;
+import org.andresoviedo.app.util.io.BinaryCache;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URL;
+import java.nio.Buffer;
+import java.util.Map;
 
 /**
  * Wavefront loader implementation
@@ -22,26 +28,78 @@ import java.net.URL;
 
 public class WavefrontLoader2 {
 
+	/**
+	 * Read the model twice: the first time to count the elements and the second one to fill exactly sized buffers.
+	 * The object is shown (as points) while the faces are still being loaded.
+	 */
+	public static final int MODE_TWO_PASS = 0;
+	/**
+	 * Read the model only once, pushing the data into growable buffers that are sealed at the end
+	 */
+	public static final int MODE_SINGLE_PASS = 1;
+	/**
+	 * Split the model in chunks that are parsed concurrently in all the cores available and then merged
+	 */
+	public static final int MODE_PARALLEL = 2;
+
+	/**
+	 * Max size of the binary cache of parsed models (in the app cache dir)
+	 */
+	private static final long CACHE_SIZE = 256L * 1024 * 1024;
+
 	public static void loadAsync(final Activity parent, URL url, final File currentDir,
 								 final String assetsDir, final String modelId, final Object3DBuilder.Callback callback)
+	{
+		loadAsync(parent, url, currentDir, assetsDir, modelId, callback, MODE_SINGLE_PASS);
+	}
+
+	public static void loadAsync(final Activity parent, URL url, final File currentDir,
+								 final String assetsDir, final String modelId, final Object3DBuilder.Callback callback,
+								 final int mode)
 	{
 		new LoaderTask(parent,url,currentDir,assetsDir,modelId,callback){
 
 			// TODO: move this method inside the wavefront loader
+			// files are memory mapped (see getFile()), so only assets are read as streams
 			private InputStream getInputStream() {
 				Log.i("LoaderTask", "Opening " + modelId + "...");
 				try {
-					final InputStream ret;
-					if (currentDir != null) {
-						return new FileInputStream(new File(currentDir, modelId));
-					} else if (assetsDir != null) {
-						return parent.getAssets().open(assetsDir + "/" + modelId);
+					if (assetsDir != null) {
+						String asset = assetsDir + "/" + modelId;
+						return monitor(parent.getAssets().open(asset), getAssetLength(asset));
 					} else {
 						throw new IllegalArgumentException("Model data source not specified");
 					}
 				} catch (IOException ex) {
 					throw new RuntimeException(
-							"There was a problem opening file/asset '" + (currentDir != null ? currentDir : assetsDir) + "/" + modelId + "'");
+							"There was a problem opening asset '" + assetsDir + "/" + modelId + "'");
+				}
+			}
+
+			/**
+			 * @param wfl the loader that will read the file. It notifies the progress of the mapped file to the dialog
+			 *            and stops reading if the task is cancelled
+			 * @return the model file
+			 */
+			private File getFile(org.andresoviedo.app.model3D.services.WavefrontLoader wfl) {
+				File file = new File(currentDir, modelId);
+				wfl.setProgressMonitor(monitor(file.length()));
+				return file;
+			}
+
+			/**
+			 * @return the size of the asset or -1 if it's compressed in the apk (then the size is unknown)
+			 */
+			private long getAssetLength(String asset) {
+				try {
+					AssetFileDescriptor fd = parent.getAssets().openFd(asset);
+					try {
+						return fd.getLength();
+					} finally {
+						fd.close();
+					}
+				} catch (IOException ex) {
+					return -1;
 				}
 			}
 
@@ -56,60 +114,233 @@ public class WavefrontLoader2 {
 				}
 			}
 
+			// the model was completely loaded in build()
+			private boolean loaded;
+			// the model was loaded from the cache already scaled
+			private boolean scaled;
+			// the model was loaded from the cache already built, so there is nothing else to do
+			private boolean built;
+
+			private BinaryCache getCache() {
+				return new BinaryCache(new File(parent.getCacheDir(), "models"), CACHE_SIZE);
+			}
+
+			/**
+			 * Files are identified by their path, size & last modification. Assets can only change when the app is
+			 * updated, so the apk size & last modification are used instead.
+			 */
+			private String getCacheKey() {
+				final int version = org.andresoviedo.app.model3D.services.WavefrontLoader.CACHE_VERSION;
+				if (currentDir != null) {
+					File file = new File(currentDir, modelId);
+					return BinaryCache.key(version, file.getAbsolutePath(), file.length(), file.lastModified());
+				}
+				File apk = new File(parent.getApplicationInfo().sourceDir);
+				return BinaryCache.key(version, "assets", assetsDir + "/" + modelId, apk.length(), apk.lastModified());
+			}
+
+			/**
+			 * Cache the model once it's built. Indexed objects are cached built (see
+			 * {@link Object3DBuilder#toCache(Object3DData)}), so they are not parsed, scaled, welded nor split again.
+			 * The other ones are cached parsed & scaled.
+			 */
+			private void writeCache(Object3DData data) {
+				org.andresoviedo.app.model3D.services.WavefrontLoader wfl = data.getLoader();
+				if (!wfl.isLoaded()) {
+					Log.i("LoaderTask", "Model not cached because it has errors");
+					return;
+				}
+				long start = SystemClock.uptimeMillis();
+				Map<String, Buffer> sections = Object3DBuilder.toCache(data);
+				if (getCache().put(getCacheKey(), sections != null ? sections : wfl.toCache())) {
+					Log.i("LoaderTask", "Model cached in " + (SystemClock.uptimeMillis() - start) + " ms");
+				}
+			}
+
 			@Override
 			protected Object3DData build() throws IOException {
-				InputStream params0 = getInputStream();
+				long start = SystemClock.uptimeMillis();
+				BinaryCache.Entry cached = getCache().get(getCacheKey());
+				if (cached != null && Object3DBuilder.isBuilt(cached)) {
+					publishProgress(4);
+					Object3DData data3D = new Object3DData(cached.getFloats("built.vertices"));
+					data3D.setId(modelId);
+					data3D.setCurrentDir(currentDir);
+					data3D.setAssetsDir(assetsDir);
+					data3D.setLoadReport(report);
+					data3D.setDrawMode(GLES20.GL_TRIANGLES);
+					report.begin(LoadReport.GENERATE_ARRAYS);
+					Object3DBuilder.loadCache(parent.getAssets(), data3D, cached);
+					report.end(LoadReport.GENERATE_ARRAYS);
+					report.addFaces(LoadReport.GENERATE_ARRAYS, data3D.getDrawOrderShort().capacity() / 3);
+					Log.i("LoaderTask", "Model loaded built from cache in " + (SystemClock.uptimeMillis() - start) + " ms");
+					built = true;
+					return data3D;
+				}
+				if (cached != null) {
+					org.andresoviedo.app.model3D.services.WavefrontLoader wfl = new org.andresoviedo.app.model3D.services.WavefrontLoader("");
+					publishProgress(2);
+					report.begin(LoadReport.PARSE);
+					wfl.loadCache(cached);
+					report.end(LoadReport.PARSE);
+					report.addFaces(LoadReport.PARSE, wfl.getFaces().getSize());
+					wfl.reportOnModel();
+					Log.i("LoaderTask", "Model loaded from cache in " + (SystemClock.uptimeMillis() - start) + " ms");
+					loaded = true;
+					scaled = true;
+					return newObject3DData(wfl, GLES20.GL_POINTS);
+				}
+
+				if (mode != MODE_TWO_PASS) {
+					loaded = true;
+					return buildSinglePass();
+				}
+
 				org.andresoviedo.app.model3D.services.WavefrontLoader wfl = new org.andresoviedo.app.model3D.services.WavefrontLoader("");
 
 				// allocate memory
 				publishProgress(0);
-				wfl.analyzeModel(params0);
-				closeStream(params0);
+				report.begin(LoadReport.ANALYZE);
+				if (currentDir != null) {
+					wfl.analyzeModel(getFile(wfl));
+				} else {
+					InputStream params0 = getInputStream();
+					wfl.analyzeModel(params0);
+					closeStream(params0);
+				}
+				report.end(LoadReport.ANALYZE);
+				report.addBytesRead(LoadReport.ANALYZE, wfl.getBytesRead());
+				report.addLines(LoadReport.ANALYZE, wfl.getLinesRead());
 
 				// Allocate memory
 				publishProgress(1);
+				report.begin(LoadReport.ALLOCATE);
 				wfl.allocateBuffers();
+				report.end(LoadReport.ALLOCATE);
 				wfl.reportOnModel();
 
 				// create the 3D object
-				Object3DData data3D = new Object3DData(wfl.getVerts(), wfl.getNormals(), wfl.getTexCoords(), wfl.getFaces(),
-						wfl.getFaceMats(), wfl.getMaterials());
+				return newObject3DData(wfl, GLES20.GL_TRIANGLES);
+			}
+
+			private Object3DData newObject3DData(org.andresoviedo.app.model3D.services.WavefrontLoader wfl, int drawMode) {
+				Object3DData data3D = new Object3DData(wfl.getVerts(), wfl.getNormals(), wfl.getTexCoordsBuffer(),
+						wfl.getTexCoordsStride(), wfl.getFaces(), wfl.getFaceMats(), wfl.getMaterials());
 				data3D.setId(modelId);
 				data3D.setCurrentDir(currentDir);
 				data3D.setAssetsDir(assetsDir);
 				data3D.setLoader(wfl);
-				data3D.setDrawMode(GLES20.GL_TRIANGLES);
+				data3D.setDrawMode(drawMode);
 				data3D.setDimensions(data3D.getLoader().getDimensions());
-
 				return data3D;
 			}
 
+			private Object3DData buildSinglePass() throws IOException {
+				org.andresoviedo.app.model3D.services.WavefrontLoader wfl = new org.andresoviedo.app.model3D.services.WavefrontLoader("");
+
+				// parse model
+				publishProgress(2);
+				report.begin(LoadReport.PARSE);
+				if (mode == MODE_PARALLEL) {
+					if (currentDir != null) {
+						wfl.loadModelParallel(getFile(wfl));
+					} else {
+						wfl.loadModelParallel(getInputStream(), Runtime.getRuntime().availableProcessors());
+					}
+				} else if (currentDir != null) {
+					// files are memory mapped
+					wfl.loadModelSinglePass(getFile(wfl));
+				} else {
+					InputStream stream = getInputStream();
+					try {
+						wfl.loadModelSinglePass(stream);
+					} finally {
+						closeStream(stream);
+					}
+				}
+				endParse(wfl, 0, 0);
+				wfl.reportOnModel();
+
+				// create the 3D object. It's drawn as points until the build is complete
+				return newObject3DData(wfl, GLES20.GL_POINTS);
+			}
+
 			@Override
 			protected void build(Object3DData data) throws Exception {
-				InputStream stream = getInputStream();
+				if (built) {
+					return;
+				}
+				if (loaded) {
+					buildArrays(data);
+					return;
+				}
+
+				long bytesRead = data.getLoader().getBytesRead();
+				long linesRead = data.getLoader().getLinesRead();
+				InputStream stream = null;
 				try {
 					// parse model
 					publishProgress(2);
-					data.getLoader().loadModel(stream);
+					report.begin(LoadReport.PARSE);
+					if (currentDir != null) {
+						data.getLoader().loadModel(getFile(data.getLoader()));
+					} else {
+						stream = getInputStream();
+						data.getLoader().loadModel(stream);
+					}
+				} catch (Exception e) {
+					Log.e("Object3DBuilder", e.getMessage(), e);
+					throw e;
+				} finally {
 					closeStream(stream);
+				}
+				endParse(data.getLoader(), bytesRead, linesRead);
+				buildArrays(data);
+			}
 
-					// scale object
-					publishProgress(3);
-					data.centerScale();
+			/**
+			 * End the parse stage. The lines & bytes read before parsing (when analyzing) are not counted
+			 */
+			private void endParse(org.andresoviedo.app.model3D.services.WavefrontLoader wfl, long bytesRead,
+								  long linesRead) {
+				report.end(LoadReport.PARSE);
+				report.addBytesRead(LoadReport.PARSE, wfl.getBytesRead() - bytesRead);
+				report.addLines(LoadReport.PARSE, wfl.getLinesRead() - linesRead);
+				report.addFaces(LoadReport.PARSE, wfl.getFaces().getSize());
+			}
+
+			private void buildArrays(Object3DData data) throws Exception {
+				try {
+					// scale object (unless it was cached scaled)
+					if (!scaled) {
+						publishProgress(3);
+						report.begin(LoadReport.CENTER_SCALE);
+						data.centerScale();
+						report.end(LoadReport.CENTER_SCALE);
+					}
 
 					// draw triangles instead of points
 					data.setDrawMode(GLES20.GL_TRIANGLES);
 
+					// the parse may have ended just when the loading was cancelled
+					if (isCancelled()) {
+						throw new InterruptedIOException("Loading cancelled");
+					}
+
 					// build 3D object buffers
 					publishProgress(4);
-					Object3DBuilder.generateArrays(parent.getAssets(), data);
+					report.begin(LoadReport.GENERATE_ARRAYS);
+					Object3DBuilder.generateIndexedArrays(parent.getAssets(), data);
+					report.end(LoadReport.GENERATE_ARRAYS);
+					report.addFaces(LoadReport.GENERATE_ARRAYS, data.getFaces().getSize());
+					// models loaded from the cache are already there. Cancelled models are not cached
+					if (!scaled && !isCancelled()) {
+						writeCache(data);
+					}
 					publishProgress(5);
-
 				} catch (Exception e) {
 					Log.e("Object3DBuilder", e.getMessage(), e);
 					throw e;
-				} finally {
-					closeStream(stream);
 				}
 			}
 		}.execute();
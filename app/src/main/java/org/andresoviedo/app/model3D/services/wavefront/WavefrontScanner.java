@@ -0,0 +1,738 @@
+package org.andresoviedo.app.model3D.services.wavefront;
+
+import org.andresoviedo.app.util.io.ProgressMonitor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Byte oriented OBJ tokenizer. Lines are read straight from a {@link ByteBuffer} (either a heap buffer filled from a
+ * stream or a memory mapped file) and numbers are parsed in place, so no String or array is created for the
+ * vertex, texture, normal and face lines. Every parsed element is pushed to a {@link Listener}.
+ *
+ * The results are the same as the ones of the String based parser in
+ * {@link org.andresoviedo.app.model3D.services.WavefrontLoader}: floats are rounded exactly as
+ * {@link Float#parseFloat(String)} does (falling back to it for the rare numbers that can't be parsed exactly here)
+ * and face tokens follow the same rules as <code>String.split("/")</code>.
+ *
+ * @author andresoviedo
+ */
+public final class WavefrontScanner {
+
+	/**
+	 * Value of a texture or normal face index when it's not specified in the file (i.e. <code>f 1 2 3</code>)
+	 */
+	public static final int ABSENT = Integer.MIN_VALUE;
+
+	public interface Listener {
+
+		/**
+		 * @param parsed number of coordinates successfully parsed (coordinates not parsed are 0)
+		 */
+		void onVertex(float x, float y, float z, int parsed);
+
+		/**
+		 * @param parsed number of coordinates successfully parsed (coordinates not parsed are 0)
+		 */
+		void onNormal(float x, float y, float z, int parsed);
+
+		/**
+		 * @param tokens number of values declared in the line (2 or 3)
+		 * @param parsed number of values successfully parsed
+		 */
+		void onTexCoord(float u, float v, float w, int tokens, int parsed);
+
+		/**
+		 * Polygon declared in the line. Arrays are reused between calls, so they must not be retained.
+		 *
+		 * @param vertIdxs the vertex indices as written in the file
+		 * @param texIdxs  the texture indices. {@link #ABSENT} if not specified, 0 if specified but invalid
+		 * @param normIdxs the normal indices. {@link #ABSENT} if not specified, 0 if specified but invalid
+		 * @param count    number of vertices of the polygon
+		 * @param ok       false if any vertex index couldn't be parsed
+		 */
+		void onFace(int[] vertIdxs, int[] texIdxs, int[] normIdxs, int count, boolean ok);
+
+		void onMaterialLib(String name);
+
+		void onUseMaterial(String name);
+
+		void onIgnoredLine(int lineNumber, String line);
+	}
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// files bigger than this are mapped in several windows. A buffer can't address more than 2GB anyway, and smaller
+	// windows keep the address space used on 32 bit devices bounded
+	private static final int MAX_MAP_SIZE = 1 << 28;
+
+	// mapped data is scanned in slices of this size, to notify the progress and check the cancellation in between
+	private static final int PROGRESS_SLICE = 1 << 20;
+
+	private static final float[] FLOAT_POW10 = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+	private static final double[] DOUBLE_POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	private final Listener listener;
+	private ProgressMonitor monitor;
+
+	// current buffer & line being scanned
+	private ByteBuffer buf;
+	private int pos;
+	private int lineEnd;
+	private int lineNumber;
+	// bytes of all the lines scanned
+	private long bytesScanned;
+
+	// last token
+	private int tokenStart;
+	private int tokenEnd;
+
+	// status of the last number parsed
+	private boolean parseOk;
+
+	// reusable face data
+	private int[] vertIdxs = new int[8];
+	private int[] texIdxs = new int[8];
+	private int[] normIdxs = new int[8];
+
+	// reusable tex coord data
+	private final float[] texCoord = new float[3];
+
+	// only used for numbers that can't be parsed in place
+	private char[] chars = new char[64];
+
+	public WavefrontScanner(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @param monitor to count the bytes of the mapped data scanned or null. Streams are monitored by wrapping them
+	 */
+	public void setProgressMonitor(ProgressMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	public long getBytesScanned() {
+		return bytesScanned;
+	}
+
+	/**
+	 * Scan the whole stream
+	 *
+	 * @param is the OBJ data
+	 * @throws IOException if there is a problem reading the stream
+	 */
+	public void scan(InputStream is) throws IOException {
+		byte[] data = new byte[64 * 1024];
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		int filled = 0;
+		while (true) {
+			int read = is.read(data, filled, data.length - filled);
+			boolean eof = read == -1;
+			if (!eof) {
+				filled += read;
+			}
+			int consumed = scan(buffer, 0, filled, eof);
+			if (eof) {
+				break;
+			}
+			int pending = filled - consumed;
+			if (consumed == 0 && pending == data.length) {
+				// line longer than the buffer
+				byte[] newData = new byte[data.length * 2];
+				System.arraycopy(data, 0, newData, 0, filled);
+				data = newData;
+				buffer = ByteBuffer.wrap(data);
+			} else if (consumed > 0) {
+				System.arraycopy(data, consumed, data, 0, pending);
+			}
+			filled = pending;
+		}
+	}
+
+	/**
+	 * Scan the whole file. The file is memory mapped (read only), so the data is parsed directly from the page cache
+	 * without being copied into a stream buffer.
+	 *
+	 * @param file the OBJ file
+	 * @throws IOException if there is a problem mapping the file
+	 */
+	public void scan(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			scan(fis.getChannel());
+		} finally {
+			fis.close();
+		}
+	}
+
+	/**
+	 * Scan the whole channel mapping it in windows of at most {@link #MAX_MAP_SIZE} bytes. Every window starts at the
+	 * beginning of the line that didn't fit in the previous one.
+	 *
+	 * @param channel the OBJ data
+	 * @throws IOException if there is a problem mapping the file or the progress monitor was cancelled
+	 */
+	public void scan(FileChannel channel) throws IOException {
+		final long size = channel.size();
+		long position = 0;
+		long window = Math.min(size, MAX_MAP_SIZE);
+		while (position < size) {
+			int length = (int) Math.min(window, size - position);
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+			boolean eof = position + length == size;
+			int consumed = scanSlices(map, 0, length, eof);
+			if (eof) {
+				break;
+			}
+			if (consumed == 0) {
+				// line longer than the window
+				if (window >= Integer.MAX_VALUE) {
+					throw new IOException("Line too long at offset " + position);
+				}
+				window = Math.min(window * 2, Integer.MAX_VALUE);
+			}
+			position += consumed;
+		}
+		if (monitor != null) {
+			monitor.notifyProgress();
+		}
+	}
+
+	/**
+	 * Scan the whole buffer (i.e. a mapped chunk of a file), counting the bytes scanned with the progress monitor
+	 *
+	 * @param buffer the data, from 0 to its limit
+	 * @throws InterruptedIOException if the progress monitor was cancelled
+	 */
+	public void scan(ByteBuffer buffer) throws IOException {
+		scanSlices(buffer, 0, buffer.limit(), true);
+	}
+
+	/**
+	 * Same as {@link #scan(ByteBuffer, int, int, boolean)} but notifying the progress and checking the cancellation
+	 * every {@link #PROGRESS_SLICE} bytes
+	 */
+	private int scanSlices(ByteBuffer buffer, int start, int end, boolean endOfInput) throws IOException {
+		if (monitor == null) {
+			return scan(buffer, start, end, endOfInput);
+		}
+		int position = start;
+		while (true) {
+			monitor.checkCancelled();
+			int sliceEnd = end - position > PROGRESS_SLICE ? position + PROGRESS_SLICE : end;
+			int consumed = scan(buffer, position, sliceEnd, sliceEnd == end && endOfInput);
+			if (consumed == position && sliceEnd < end) {
+				// line longer than the slice
+				sliceEnd = end;
+				consumed = scan(buffer, position, end, endOfInput);
+			}
+			monitor.count(consumed - position);
+			position = consumed;
+			if (sliceEnd == end) {
+				return position;
+			}
+		}
+	}
+
+	/**
+	 * Split the file in (at least) the specified number of line aligned chunks. Every chunk is mapped read only.
+	 *
+	 * @param channel the OBJ data
+	 * @param chunks  the number of chunks wanted. More are returned if the file doesn't fit in that many mappings
+	 * @return the mapped chunks, in file order
+	 * @throws IOException if there is a problem mapping the file
+	 */
+	public static List<ByteBuffer> split(FileChannel channel, int chunks) throws IOException {
+		final long size = channel.size();
+		final long chunkSize = Math.min(MAX_MAP_SIZE, Math.max(1, (size + chunks - 1) / chunks));
+		final List<ByteBuffer> ret = new ArrayList<ByteBuffer>();
+		long start = 0;
+		while (start < size) {
+			long end = start + chunkSize >= size ? size : nextLine(channel, start + chunkSize - 1, size);
+			if (end - start > Integer.MAX_VALUE) {
+				throw new IOException("Line too long at offset " + start);
+			}
+			ret.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+			start = end;
+		}
+		return ret;
+	}
+
+	/**
+	 * Split the buffer in the specified number of line aligned chunks. The chunks share the content of the buffer.
+	 *
+	 * @param data   the OBJ data, between position and limit
+	 * @param chunks the number of chunks wanted
+	 * @return the chunks, in order
+	 */
+	public static List<ByteBuffer> split(ByteBuffer data, int chunks) {
+		final int size = data.remaining();
+		final int chunkSize = Math.max(1, (int) (((long) size + chunks - 1) / chunks));
+		final List<ByteBuffer> ret = new ArrayList<ByteBuffer>();
+		int start = 0;
+		while (start < size) {
+			int end = start;
+			if (size - start <= chunkSize) {
+				end = size;
+			} else {
+				end = start + chunkSize - 1;
+				while (end < size && data.get(data.position() + end) != '\n') {
+					end++;
+				}
+				end = Math.min(end + 1, size);
+			}
+			ByteBuffer chunk = data.duplicate();
+			chunk.position(data.position() + start);
+			chunk.limit(data.position() + end);
+			ret.add(chunk.slice());
+			start = end;
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the offset of the line after the first line feed found from the specified position, or the size of the
+	 * channel if there isn't any
+	 */
+	private static long nextLine(FileChannel channel, long position, long size) throws IOException {
+		final int window = 64 * 1024;
+		while (position < size) {
+			int length = (int) Math.min(window, size - position);
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+			for (int i = 0; i < length; i++) {
+				if (map.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += length;
+		}
+		return size;
+	}
+
+	/**
+	 * Scan all the complete lines in the specified range of the buffer
+	 *
+	 * @param buffer     the data. Only absolute gets are used, so position & limit are not modified
+	 * @param start      first byte to scan
+	 * @param end        end of the data (exclusive)
+	 * @param endOfInput whether there is no more data after <code>end</code>, so the last line is complete even if
+	 *                   it has no line feed
+	 * @return the offset right after the last line scanned. Bytes after that offset belong to an incomplete line
+	 */
+	public int scan(ByteBuffer buffer, int start, int end, boolean endOfInput) {
+		this.buf = buffer;
+		int lineStart = start;
+		while (lineStart < end) {
+			int eol = lineStart;
+			while (eol < end && buffer.get(eol) != '\n') {
+				eol++;
+			}
+			if (eol == end && !endOfInput) {
+				break;
+			}
+			lineNumber++;
+			scanLine(lineStart, eol);
+			lineStart = eol < end ? eol + 1 : end;
+		}
+		this.buf = null;
+		bytesScanned += lineStart - start;
+		return lineStart;
+	}
+
+	private void scanLine(int start, int end) {
+		// trim
+		while (start < end && buf.get(start) <= ' ') {
+			start++;
+		}
+		while (end > start && buf.get(end - 1) <= ' ') {
+			end--;
+		}
+		if (start == end) {
+			return;
+		}
+
+		pos = start;
+		lineEnd = end;
+		byte c0 = buf.get(start);
+		byte c1 = start + 1 < end ? buf.get(start + 1) : 0;
+		switch (c0) {
+			case 'v':
+				if (c1 == ' ' || c1 == '\t') {
+					pos = start + 1;
+					scanVertex(false);
+				} else if (c1 == 't') {
+					pos = start + 2;
+					scanTexCoord();
+				} else if (c1 == 'n') {
+					pos = start + 2;
+					scanVertex(true);
+				} else {
+					ignore(start, end);
+				}
+				break;
+			case 'f':
+				if (c1 == ' ' || c1 == '\t') {
+					pos = start + 1;
+					scanFace();
+				} else {
+					ignore(start, end);
+				}
+				break;
+			case 'm':
+				if (startsWith(start, end, "mtllib ")) {
+					listener.onMaterialLib(new String(toBytes(start + 7, end), UTF8));
+				} else {
+					ignore(start, end);
+				}
+				break;
+			case 'u':
+				if (startsWith(start, end, "usemtl ")) {
+					listener.onUseMaterial(new String(toBytes(start + 7, end), UTF8));
+				} else {
+					ignore(start, end);
+				}
+				break;
+			case 'g':
+			case 's':
+			case '#':
+			case 'o':
+				break;
+			default:
+				ignore(start, end);
+		}
+	}
+
+	private void scanVertex(boolean normal) {
+		float x = 0, y = 0, z = 0;
+		int parsed = 0;
+		if (nextToken()) {
+			x = parseFloat(tokenStart, tokenEnd);
+			if (parseOk) {
+				parsed++;
+				if (nextToken()) {
+					y = parseFloat(tokenStart, tokenEnd);
+					if (parseOk) {
+						parsed++;
+						if (nextToken()) {
+							z = parseFloat(tokenStart, tokenEnd);
+							if (parseOk) {
+								parsed++;
+							}
+						}
+					}
+				}
+			}
+		}
+		if (parsed < 3) {
+			// keep previous behaviour: coordinates after the wrong one are 0
+			if (parsed < 1) x = 0;
+			if (parsed < 2) y = 0;
+			z = 0;
+		}
+		if (normal) {
+			listener.onNormal(x, y, z, parsed);
+		} else {
+			listener.onVertex(x, y, z, parsed);
+		}
+	}
+
+	private void scanTexCoord() {
+		float[] values = texCoord;
+		values[0] = values[1] = values[2] = 0;
+		int tokens = 0;
+		int parsed = 0;
+		boolean failed = false;
+		while (nextToken()) {
+			if (tokens < 3 && !failed) {
+				float value = parseFloat(tokenStart, tokenEnd);
+				if (parseOk) {
+					values[tokens] = value;
+					parsed++;
+				} else {
+					failed = true;
+				}
+			}
+			tokens++;
+		}
+		listener.onTexCoord(values[0], values[1], values[2], tokens, parsed);
+	}
+
+	private void scanFace() {
+		int count = 0;
+		boolean ok = true;
+		while (nextToken()) {
+			if (count == vertIdxs.length) {
+				vertIdxs = grow(vertIdxs);
+				texIdxs = grow(texIdxs);
+				normIdxs = grow(normIdxs);
+			}
+
+			// split the token by '/'. Trailing empty segments are discarded like String.split() does
+			int segment = 0;
+			int lastNonEmpty = -1;
+			int s0 = tokenStart, e0 = tokenEnd, s1 = tokenEnd, e1 = tokenEnd, s2 = tokenEnd, e2 = tokenEnd;
+			int segmentStart = tokenStart;
+			for (int i = tokenStart; i <= tokenEnd; i++) {
+				if (i == tokenEnd || buf.get(i) == '/') {
+					if (segment == 0) {
+						e0 = i;
+					} else if (segment == 1) {
+						s1 = segmentStart;
+						e1 = i;
+					} else if (segment == 2) {
+						s2 = segmentStart;
+						e2 = i;
+					}
+					if (i > segmentStart) {
+						lastNonEmpty = segment;
+					}
+					segment++;
+					segmentStart = i + 1;
+				}
+			}
+			int numSeps = lastNonEmpty + 1;
+
+			vertIdxs[count] = parseInt(s0, e0);
+			ok = ok && parseOk;
+			texIdxs[count] = ABSENT;
+			normIdxs[count] = ABSENT;
+			if (numSeps > 1) {
+				texIdxs[count] = parseInt(s1, e1);
+				if (!parseOk) texIdxs[count] = 0;
+			}
+			if (numSeps > 2) {
+				normIdxs[count] = parseInt(s2, e2);
+				if (!parseOk) normIdxs[count] = 0;
+			}
+			count++;
+		}
+		listener.onFace(vertIdxs, texIdxs, normIdxs, count, ok);
+	}
+
+	private static int[] grow(int[] array) {
+		int[] ret = new int[array.length * 2];
+		System.arraycopy(array, 0, ret, 0, array.length);
+		return ret;
+	}
+
+	private boolean nextToken() {
+		while (pos < lineEnd && isBlank(buf.get(pos))) {
+			pos++;
+		}
+		if (pos == lineEnd) {
+			return false;
+		}
+		tokenStart = pos;
+		while (pos < lineEnd && !isBlank(buf.get(pos))) {
+			pos++;
+		}
+		tokenEnd = pos;
+		return true;
+	}
+
+	private static boolean isBlank(byte b) {
+		return b == ' ' || b == '\t';
+	}
+
+	private boolean startsWith(int start, int end, String prefix) {
+		if (end - start < prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (buf.get(start + i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private byte[] toBytes(int start, int end) {
+		byte[] ret = new byte[end - start];
+		for (int i = start; i < end; i++) {
+			ret[i - start] = buf.get(i);
+		}
+		return ret;
+	}
+
+	private void ignore(int start, int end) {
+		listener.onIgnoredLine(lineNumber, new String(toBytes(start, end), UTF8));
+	}
+
+	/**
+	 * Parse an integer the same way {@link Integer#parseInt(String)} does.
+	 */
+	int parseInt(int start, int end) {
+		parseOk = false;
+		if (start >= end) {
+			return 0;
+		}
+		int p = start;
+		boolean negative = false;
+		byte c = buf.get(p);
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			p++;
+			if (p == end) {
+				return 0;
+			}
+		}
+		long value = 0;
+		for (; p < end; p++) {
+			c = buf.get(p);
+			if (c < '0' || c > '9') {
+				return 0;
+			}
+			value = value * 10 + (c - '0');
+			if (value > (long) Integer.MAX_VALUE + 1) {
+				return 0;
+			}
+		}
+		if (negative) {
+			value = -value;
+		} else if (value > Integer.MAX_VALUE) {
+			return 0;
+		}
+		parseOk = true;
+		return (int) value;
+	}
+
+	/**
+	 * Parse a float with the same result as {@link Float#parseFloat(String)}. Plain decimal numbers are converted
+	 * in place when the conversion is known to be exact; anything else goes through {@link Float#parseFloat(String)}.
+	 */
+	float parseFloat(int start, int end) {
+		parseOk = false;
+		if (start >= end) {
+			return 0;
+		}
+		int p = start;
+		boolean negative = false;
+		byte c = buf.get(p);
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			p++;
+		}
+
+		long mantissa = 0;
+		int significantDigits = 0;
+		int exponent = 0;
+		boolean anyDigit = false;
+		boolean exact = true;
+
+		// integer part
+		for (; p < end; p++) {
+			c = buf.get(p);
+			if (c < '0' || c > '9') break;
+			anyDigit = true;
+			if (mantissa != 0 || c != '0') {
+				if (significantDigits < 18) {
+					mantissa = mantissa * 10 + (c - '0');
+					significantDigits++;
+				} else {
+					exact = false;
+				}
+			}
+		}
+		// fraction
+		if (p < end && buf.get(p) == '.') {
+			p++;
+			for (; p < end; p++) {
+				c = buf.get(p);
+				if (c < '0' || c > '9') break;
+				anyDigit = true;
+				if (mantissa != 0 || c != '0') {
+					if (significantDigits < 18) {
+						mantissa = mantissa * 10 + (c - '0');
+						significantDigits++;
+						exponent--;
+					} else {
+						exact = false;
+					}
+				} else {
+					exponent--;
+				}
+			}
+		}
+		// exponent
+		if (anyDigit && p < end && (buf.get(p) == 'e' || buf.get(p) == 'E')) {
+			p++;
+			boolean negativeExp = false;
+			if (p < end && (buf.get(p) == '-' || buf.get(p) == '+')) {
+				negativeExp = buf.get(p) == '-';
+				p++;
+			}
+			int exp = 0;
+			int expDigits = 0;
+			for (; p < end; p++) {
+				c = buf.get(p);
+				if (c < '0' || c > '9') break;
+				exp = exp * 10 + (c - '0');
+				if (++expDigits > 4) {
+					exact = false;
+				}
+			}
+			if (expDigits == 0) {
+				exact = false;
+			}
+			exponent += negativeExp ? -exp : exp;
+		}
+
+		if (!anyDigit || p != end || !exact) {
+			return parseFloatSlow(start, end);
+		}
+
+		float ret;
+		if (mantissa == 0) {
+			ret = 0f;
+		} else if (mantissa < (1L << 24) && exponent >= -10 && exponent <= 10) {
+			// both operands are exact floats, so IEEE rounding gives the correctly rounded result
+			ret = exponent < 0 ? (float) mantissa / FLOAT_POW10[-exponent] : (float) mantissa * FLOAT_POW10[exponent];
+		} else if (mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+			// the double is correctly rounded. Rounding it again to float is only wrong when it lies exactly on a
+			// midpoint between two floats
+			double d = exponent < 0 ? mantissa / DOUBLE_POW10[-exponent] : mantissa * DOUBLE_POW10[exponent];
+			long bits = Double.doubleToRawLongBits(d);
+			ret = (float) d;
+			if ((bits & 0x1FFFFFFFL) == 0x10000000L || ret < Float.MIN_NORMAL || Float.isInfinite(ret)) {
+				return parseFloatSlow(start, end);
+			}
+		} else {
+			return parseFloatSlow(start, end);
+		}
+		parseOk = true;
+		return negative ? -ret : ret;
+	}
+
+	private float parseFloatSlow(int start, int end) {
+		int length = end - start;
+		if (chars.length < length) {
+			chars = new char[length];
+		}
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) (buf.get(start + i) & 0xFF);
+		}
+		try {
+			float ret = Float.parseFloat(new String(chars, 0, length));
+			parseOk = true;
+			return ret;
+		} catch (NumberFormatException ex) {
+			parseOk = false;
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,213 @@
+package org.andresoviedo.app.model3D.util;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a copy in the GPU (vertex & index buffer objects) of the client buffers being drawn, so the driver doesn't
+ * have to copy the whole mesh on every draw call.
+ *
+ * Buffers are uploaded the first time they are bound and then only when their version changes (i.e. when the
+ * vertices are modified in place). Every buffer belongs to the object that bound it first: the buffers of an object
+ * are deleted from the GPU when the object leaves the scene, and the buffers that haven't been drawn for a while
+ * (i.e. replaced by new arrays) are deleted too, unless their object is kept (i.e. it's out of the screen). All the
+ * methods must be called from the GL thread.
+ *
+ * @author andresoviedo
+ */
+public final class BufferObjectManager {
+
+	/**
+	 * Number of frames a buffer object is kept in the GPU without being drawn
+	 */
+	private static final int MAX_UNUSED_FRAMES = 60;
+
+	private static final class Entry {
+		final Object owner;
+		final Buffer data;
+		final int id;
+		final int size;
+		int version;
+		long lastFrame;
+
+		Entry(Object owner, Buffer data, int id, int size, int version) {
+			this.owner = owner;
+			this.data = data;
+			this.id = id;
+			this.size = size;
+			this.version = version;
+		}
+	}
+
+	private final GLFacade gl;
+	private final Map<Buffer, Entry> entries = new IdentityHashMap<Buffer, Entry>();
+	// the buffers of every object
+	private final Map<Object, List<Entry>> owners = new IdentityHashMap<Object, List<Entry>>();
+	private final int[] ids = new int[1];
+	private long frame;
+	// bytes currently stored in the GPU
+	private long size;
+
+	public BufferObjectManager(GLFacade gl) {
+		this.gl = gl;
+	}
+
+	public GLFacade getGL() {
+		return gl;
+	}
+
+	/**
+	 * Bind the buffer object with the contents of the specified buffer, uploading it if it's not in the GPU or if it
+	 * has a different version.
+	 *
+	 * @param owner   the object drawn with the buffer
+	 * @param target  {@link GLES20#GL_ARRAY_BUFFER} or {@link GLES20#GL_ELEMENT_ARRAY_BUFFER}
+	 * @param data    the client buffer. The whole buffer (from 0 to its capacity) is uploaded
+	 * @param version version of the data
+	 * @return the buffer object
+	 */
+	public int bind(Object owner, int target, Buffer data, int version) {
+		Entry entry = entries.get(data);
+		if (entry == null) {
+			gl.glGenBuffers(1, ids, 0);
+			entry = new Entry(owner, data, ids[0], data.capacity() * bytesPerElement(data), version);
+			gl.glBindBuffer(target, entry.id);
+			gl.glBufferData(target, entry.size, rewind(data), GLES20.GL_STATIC_DRAW);
+			GLUtil.checkGlError(gl, "glBufferData");
+			entries.put(data, entry);
+			List<Entry> owned = owners.get(owner);
+			if (owned == null) {
+				owned = new ArrayList<Entry>(4);
+				owners.put(owner, owned);
+			}
+			owned.add(entry);
+			size += entry.size;
+			Log.d("BufferObjectManager", "Uploaded buffer " + entry.id + " (" + entry.size + " bytes)");
+		} else {
+			gl.glBindBuffer(target, entry.id);
+			if (entry.version != version) {
+				gl.glBufferSubData(target, 0, entry.size, rewind(data));
+				GLUtil.checkGlError(gl, "glBufferSubData");
+				entry.version = version;
+			}
+		}
+		entry.lastFrame = frame;
+		return entry.id;
+	}
+
+	/**
+	 * Keep the buffers of the object in the GPU although it's not drawn in this frame (i.e. it's out of the screen)
+	 *
+	 * @param owner the object
+	 */
+	public void keep(Object owner) {
+		List<Entry> owned = owners.get(owner);
+		if (owned != null) {
+			for (int i = 0; i < owned.size(); i++) {
+				owned.get(i).lastFrame = frame;
+			}
+		}
+	}
+
+	/**
+	 * Delete the buffer objects that haven't been drawn (or kept) during the last frames. To be called at the end of
+	 * every frame
+	 */
+	public void endFrame() {
+		frame++;
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+			Entry entry = it.next();
+			if (frame - entry.lastFrame > MAX_UNUSED_FRAMES) {
+				delete(entry);
+				it.remove();
+				List<Entry> owned = owners.get(entry.owner);
+				owned.remove(entry);
+				if (owned.isEmpty()) {
+					owners.remove(entry.owner);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Delete the buffer objects of the object (i.e. it was removed from the scene)
+	 *
+	 * @param owner the object
+	 */
+	public void release(Object owner) {
+		List<Entry> owned = owners.remove(owner);
+		if (owned != null) {
+			for (int i = 0; i < owned.size(); i++) {
+				Entry entry = owned.get(i);
+				entries.remove(entry.data);
+				delete(entry);
+			}
+		}
+	}
+
+	/**
+	 * Delete all the buffer objects
+	 */
+	public void release() {
+		for (Entry entry : entries.values()) {
+			delete(entry);
+		}
+		entries.clear();
+		owners.clear();
+	}
+
+	/**
+	 * @return the bytes stored in the GPU
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	private void delete(Entry entry) {
+		ids[0] = entry.id;
+		gl.glDeleteBuffers(1, ids, 0);
+		size -= entry.size;
+		Log.d("BufferObjectManager", "Deleted buffer " + entry.id + " (" + entry.size + " bytes)");
+	}
+
+	private static Buffer rewind(Buffer data) {
+		// don't modify the position of the client buffer
+		Buffer ret = duplicate(data);
+		ret.position(0);
+		ret.limit(ret.capacity());
+		return ret;
+	}
+
+	private static Buffer duplicate(Buffer data) {
+		if (data instanceof ByteBuffer) {
+			return ((ByteBuffer) data).duplicate();
+		} else if (data instanceof ShortBuffer) {
+			return ((ShortBuffer) data).duplicate();
+		} else if (data instanceof IntBuffer) {
+			return ((IntBuffer) data).duplicate();
+		} else if (data instanceof FloatBuffer) {
+			return ((FloatBuffer) data).duplicate();
+		}
+		throw new IllegalArgumentException("Unsupported buffer: " + data.getClass());
+	}
+
+	private static int bytesPerElement(Buffer data) {
+		if (data instanceof ByteBuffer) {
+			return 1;
+		} else if (data instanceof ShortBuffer) {
+			return 2;
+		}
+		return 4;
+	}
+}
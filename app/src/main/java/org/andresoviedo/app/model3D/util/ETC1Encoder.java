@@ -0,0 +1,205 @@
+package org.andresoviedo.app.model3D.util;
+
+import org.andresoviedo.app.util.nio.NativeMemory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encoder of RGBA images into ETC1 (RGB, 4 bits per texel), the compressed texture format supported by all the OpenGL
+ * ES 2.0 devices. It's plain java, so textures can be encoded in any thread (or out of the device).
+ *
+ * Every 4x4 block is encoded trying both the individual and the differential modes, with the block split either
+ * vertically or horizontally, and keeping the combination with the lowest error. The base color of every sub-block is
+ * its average color and every pixel gets the modifier of the table closest to its color. Alpha is ignored.
+ *
+ * @author andresoviedo
+ */
+public final class ETC1Encoder {
+
+	/**
+	 * Internal format of the ETC1 textures (GL_OES_compressed_ETC1_RGB8_texture)
+	 */
+	public static final int ETC1_RGB8_OES = 0x8D64;
+
+	/**
+	 * Bytes of every 4x4 block
+	 */
+	public static final int BLOCK_SIZE = 8;
+
+	/**
+	 * Intensity modifiers {a, b}. The pixel index 0 is +a, 1 is +b, 2 is -a and 3 is -b
+	 */
+	private static final int[][] MODIFIERS = {{2, 8}, {5, 17}, {9, 29}, {13, 42}, {18, 60}, {24, 80}, {33, 106},
+			{47, 183}};
+
+	private ETC1Encoder() {
+	}
+
+	/**
+	 * @return bytes of the image encoded (edge blocks are padded)
+	 */
+	public static int getEncodedSize(int width, int height) {
+		return ((width + 3) / 4) * ((height + 3) / 4) * BLOCK_SIZE;
+	}
+
+	/**
+	 * Encode the image. Pixels out of the image in the edge blocks repeat the last row or column
+	 *
+	 * @param rgba   the pixels, row after row
+	 * @param width  width of the image
+	 * @param height height of the image
+	 * @return the blocks, row after row, in a direct buffer
+	 */
+	public static ByteBuffer encode(ByteBuffer rgba, int width, int height) {
+		// blocks are big endian
+		ByteBuffer ret = NativeMemory.allocate(getEncodedSize(width, height)).order(ByteOrder.BIG_ENDIAN);
+		int[] r = new int[16], g = new int[16], b = new int[16];
+		for (int by = 0; by < height; by += 4) {
+			for (int bx = 0; bx < width; bx += 4) {
+				for (int y = 0; y < 4; y++) {
+					int row = Math.min(by + y, height - 1) * width;
+					for (int x = 0; x < 4; x++) {
+						int p = (row + Math.min(bx + x, width - 1)) * 4;
+						r[y * 4 + x] = rgba.get(p) & 0xFF;
+						g[y * 4 + x] = rgba.get(p + 1) & 0xFF;
+						b[y * 4 + x] = rgba.get(p + 2) & 0xFF;
+					}
+				}
+				ret.putLong(encodeBlock(r, g, b));
+			}
+		}
+		ret.position(0);
+		return ret;
+	}
+
+	/**
+	 * Encode a 4x4 block
+	 *
+	 * @param r the reds of the 16 pixels, row after row
+	 * @param g the greens
+	 * @param b the blues
+	 * @return the 64 bits of the block, to be stored in big endian
+	 */
+	static long encodeBlock(int[] r, int[] g, int[] b) {
+		long best = 0;
+		long bestError = Long.MAX_VALUE;
+		int[] base = new int[6];
+		int[] tables = new int[2];
+		long[] indices = new long[1];
+		for (int flip = 0; flip < 2; flip++) {
+			// average color of both sub-blocks
+			int[] sum = new int[6];
+			for (int p = 0; p < 16; p++) {
+				int s = subBlock(p, flip) * 3;
+				sum[s] += r[p];
+				sum[s + 1] += g[p];
+				sum[s + 2] += b[p];
+			}
+
+			// individual mode: 2 colors of 4 bits
+			for (int i = 0; i < 6; i++) {
+				base[i] = Math.min(15, (sum[i] * 15 + 4 * 255) / (8 * 255));
+			}
+			int[] colors = new int[6];
+			for (int i = 0; i < 6; i++) {
+				colors[i] = (base[i] << 4) | base[i];
+			}
+			long error = encodeIndices(r, g, b, flip, colors, tables, indices);
+			if (error < bestError) {
+				bestError = error;
+				best = ((long) base[0] << 60) | ((long) base[3] << 56) | ((long) base[1] << 52)
+						| ((long) base[4] << 48) | ((long) base[2] << 44) | ((long) base[5] << 40)
+						| ((long) tables[0] << 37) | ((long) tables[1] << 34) | ((long) flip << 32) | indices[0];
+			}
+
+			// differential mode: a color of 5 bits and the difference to the other one in 3 bits
+			boolean fits = true;
+			for (int i = 0; i < 6; i++) {
+				base[i] = Math.min(31, (sum[i] * 31 + 4 * 255) / (8 * 255));
+			}
+			for (int i = 0; i < 3; i++) {
+				int diff = base[i + 3] - base[i];
+				fits &= diff >= -4 && diff <= 3;
+			}
+			if (!fits) {
+				continue;
+			}
+			for (int i = 0; i < 6; i++) {
+				colors[i] = (base[i] << 3) | (base[i] >> 2);
+			}
+			error = encodeIndices(r, g, b, flip, colors, tables, indices);
+			if (error < bestError) {
+				bestError = error;
+				best = ((long) base[0] << 59) | ((long) ((base[3] - base[0]) & 7) << 56) | ((long) base[1] << 51)
+						| ((long) ((base[4] - base[1]) & 7) << 48) | ((long) base[2] << 43)
+						| ((long) ((base[5] - base[2]) & 7) << 40) | ((long) tables[0] << 37)
+						| ((long) tables[1] << 34) | (1L << 33) | ((long) flip << 32) | indices[0];
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Choose the best table for every sub-block and the best modifier for every pixel
+	 *
+	 * @param colors  the base colors (8 bits) of both sub-blocks
+	 * @param tables  output: the table of both sub-blocks
+	 * @param indices output: the 32 bits of pixel indices
+	 * @return the squared error
+	 */
+	private static long encodeIndices(int[] r, int[] g, int[] b, int flip, int[] colors, int[] tables,
+									  long[] indices) {
+		long ret = 0;
+		indices[0] = 0;
+		for (int s = 0; s < 2; s++) {
+			long bestError = Long.MAX_VALUE;
+			long bestIndices = 0;
+			for (int t = 0; t < MODIFIERS.length; t++) {
+				long error = 0;
+				long bits = 0;
+				for (int p = 0; p < 16 && error < bestError; p++) {
+					if (subBlock(p, flip) != s) {
+						continue;
+					}
+					int bestPixelError = Integer.MAX_VALUE;
+					int bestIndex = 0;
+					for (int i = 0; i < 4; i++) {
+						int modifier = (i & 2) == 0 ? MODIFIERS[t][i & 1] : -MODIFIERS[t][i & 1];
+						int dr = clamp(colors[s * 3] + modifier) - r[p];
+						int dg = clamp(colors[s * 3 + 1] + modifier) - g[p];
+						int db = clamp(colors[s * 3 + 2] + modifier) - b[p];
+						int pixelError = dr * dr + dg * dg + db * db;
+						if (pixelError < bestPixelError) {
+							bestPixelError = pixelError;
+							bestIndex = i;
+						}
+					}
+					error += bestPixelError;
+					// pixels are stored column after column: msb in the high half, lsb in the low half
+					int bit = (p & 3) * 4 + (p >> 2);
+					bits |= ((long) (bestIndex >> 1) << (16 + bit)) | ((long) (bestIndex & 1) << bit);
+				}
+				if (error < bestError) {
+					bestError = error;
+					bestIndices = bits;
+					tables[s] = t;
+				}
+			}
+			ret += bestError;
+			indices[0] |= bestIndices;
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the sub-block of the pixel: left & right halves (no flip) or top & bottom halves (flip)
+	 */
+	private static int subBlock(int p, int flip) {
+		return flip == 0 ? (p & 3) >> 1 : p >> 3;
+	}
+
+	private static int clamp(int value) {
+		return value < 0 ? 0 : (value > 255 ? 255 : value);
+	}
+}
@@ -0,0 +1,52 @@
+package org.andresoviedo.app.model3D.util;
+
+import java.nio.Buffer;
+
+/**
+ * The OpenGL calls used to draw the objects. Calls have the same signature than in {@link android.opengl.GLES20}, so
+ * that they can be recorded (i.e. to verify what is uploaded without a GPU) or filtered before reaching the driver.
+ *
+ * @author andresoviedo
+ */
+public interface GLFacade {
+
+	void glUseProgram(int program);
+
+	void glUniform1i(int location, int x);
+
+	void glUniform3f(int location, float x, float y, float z);
+
+	void glUniform4fv(int location, int count, float[] v, int offset);
+
+	void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+
+	void glActiveTexture(int texture);
+
+	void glBindTexture(int target, int texture);
+
+	void glEnableVertexAttribArray(int index);
+
+	void glDisableVertexAttribArray(int index);
+
+	void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer ptr);
+
+	void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset);
+
+	void glGenBuffers(int n, int[] buffers, int offset);
+
+	void glDeleteBuffers(int n, int[] buffers, int offset);
+
+	void glBindBuffer(int target, int buffer);
+
+	void glBufferData(int target, int size, Buffer data, int usage);
+
+	void glBufferSubData(int target, int offset, int size, Buffer data);
+
+	void glDrawArrays(int mode, int first, int count);
+
+	void glDrawElements(int mode, int count, int type, Buffer indices);
+
+	void glDrawElements(int mode, int count, int type, int offset);
+
+	int glGetError();
+}
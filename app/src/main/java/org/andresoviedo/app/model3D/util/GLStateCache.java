@@ -0,0 +1,376 @@
+package org.andresoviedo.app.model3D.util;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Facade that remembers the GL state (current program, textures bound to every unit, enabled attribute arrays, bound
+ * buffers and uniform values) and skips the calls that wouldn't change it.
+ *
+ * Disabling attribute arrays is deferred until the next draw call, so an array disabled after drawing an object and
+ * enabled again for the next one never reaches the driver. If the state is changed without this facade (i.e. with
+ * {@link GLES20} directly), {@link #invalidate()} must be called.
+ *
+ * @author andresoviedo
+ */
+public final class GLStateCache implements GLFacade {
+
+	private static final int MAX_TEXTURE_UNITS = 32;
+	private static final int MAX_VERTEX_ATTRIBS = 32;
+
+	private final GLFacade gl;
+
+	private int program;
+	private int activeTexture;
+	private final int[] boundTextures = new int[MAX_TEXTURE_UNITS];
+	// attribute arrays with a known state, arrays enabled & arrays disabled by the client but still enabled in GL
+	private int knownAttribs;
+	private int enabledAttribs;
+	private int pendingDisabledAttribs;
+	private int arrayBuffer;
+	private int elementArrayBuffer;
+	// last values of the uniforms of every program by location
+	private final Map<Integer, Map<Integer, float[]>> uniforms = new HashMap<Integer, Map<Integer, float[]>>();
+	private final float[] scalars = new float[3];
+
+	private long issuedCalls;
+	private long skippedCalls;
+	private long drawCalls;
+	private long vertices;
+	private long programBinds;
+	private long textureBinds;
+
+	public GLStateCache(GLFacade gl) {
+		this.gl = gl;
+		invalidate();
+	}
+
+	/**
+	 * Forget all the state, so the next calls are all sent to GL
+	 */
+	public void invalidate() {
+		program = -1;
+		activeTexture = -1;
+		for (int i = 0; i < boundTextures.length; i++) {
+			boundTextures[i] = -1;
+		}
+		flushDisabledAttribs();
+		knownAttribs = 0;
+		arrayBuffer = -1;
+		elementArrayBuffer = -1;
+		uniforms.clear();
+	}
+
+	/**
+	 * @return number of calls sent to GL
+	 */
+	public long getIssuedCalls() {
+		return issuedCalls;
+	}
+
+	/**
+	 * @return number of calls skipped because they wouldn't change the state
+	 */
+	public long getSkippedCalls() {
+		return skippedCalls;
+	}
+
+	/**
+	 * @return number of draw calls
+	 */
+	public long getDrawCalls() {
+		return drawCalls;
+	}
+
+	/**
+	 * @return number of vertices (or indices) drawn
+	 */
+	public long getVertices() {
+		return vertices;
+	}
+
+	/**
+	 * @return number of times a program was bound
+	 */
+	public long getProgramBinds() {
+		return programBinds;
+	}
+
+	/**
+	 * @return number of times a texture was bound
+	 */
+	public long getTextureBinds() {
+		return textureBinds;
+	}
+
+	public void resetCounters() {
+		issuedCalls = 0;
+		skippedCalls = 0;
+		drawCalls = 0;
+		vertices = 0;
+		programBinds = 0;
+		textureBinds = 0;
+	}
+
+	@Override
+	public void glUseProgram(int program) {
+		if (this.program == program) {
+			skippedCalls++;
+			return;
+		}
+		this.program = program;
+		issuedCalls++;
+		programBinds++;
+		gl.glUseProgram(program);
+	}
+
+	@Override
+	public void glUniform1i(int location, int x) {
+		// sampler units are small, so they are exact as floats
+		scalars[0] = x;
+		if (update(location, scalars, 0, 1)) {
+			gl.glUniform1i(location, x);
+		}
+	}
+
+	@Override
+	public void glUniform3f(int location, float x, float y, float z) {
+		scalars[0] = x;
+		scalars[1] = y;
+		scalars[2] = z;
+		if (update(location, scalars, 0, 3)) {
+			gl.glUniform3f(location, x, y, z);
+		}
+	}
+
+	@Override
+	public void glUniform4fv(int location, int count, float[] v, int offset) {
+		if (update(location, v, offset, count * 4)) {
+			gl.glUniform4fv(location, count, v, offset);
+		}
+	}
+
+	@Override
+	public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+		if (update(location, value, offset, count * 16)) {
+			gl.glUniformMatrix4fv(location, count, transpose, value, offset);
+		}
+	}
+
+	@Override
+	public void glActiveTexture(int texture) {
+		if (activeTexture == texture) {
+			skippedCalls++;
+			return;
+		}
+		activeTexture = texture;
+		issuedCalls++;
+		gl.glActiveTexture(texture);
+	}
+
+	@Override
+	public void glBindTexture(int target, int texture) {
+		int unit = activeTexture - GLES20.GL_TEXTURE0;
+		if (target == GLES20.GL_TEXTURE_2D && unit >= 0 && unit < MAX_TEXTURE_UNITS) {
+			if (boundTextures[unit] == texture) {
+				skippedCalls++;
+				return;
+			}
+			boundTextures[unit] = texture;
+		}
+		issuedCalls++;
+		textureBinds++;
+		gl.glBindTexture(target, texture);
+	}
+
+	@Override
+	public void glEnableVertexAttribArray(int index) {
+		if (index < 0 || index >= MAX_VERTEX_ATTRIBS) {
+			issuedCalls++;
+			gl.glEnableVertexAttribArray(index);
+			return;
+		}
+		int bit = 1 << index;
+		if ((pendingDisabledAttribs & bit) != 0) {
+			// the deferred disable is never sent
+			pendingDisabledAttribs &= ~bit;
+			skippedCalls++;
+		}
+		if ((knownAttribs & enabledAttribs & bit) != 0) {
+			skippedCalls++;
+			return;
+		}
+		knownAttribs |= bit;
+		enabledAttribs |= bit;
+		issuedCalls++;
+		gl.glEnableVertexAttribArray(index);
+	}
+
+	@Override
+	public void glDisableVertexAttribArray(int index) {
+		if (index < 0 || index >= MAX_VERTEX_ATTRIBS) {
+			issuedCalls++;
+			gl.glDisableVertexAttribArray(index);
+			return;
+		}
+		int bit = 1 << index;
+		if (((knownAttribs & ~enabledAttribs) & bit) != 0 || (pendingDisabledAttribs & bit) != 0) {
+			skippedCalls++;
+			return;
+		}
+		// deferred until the next draw call
+		pendingDisabledAttribs |= bit;
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer ptr) {
+		issuedCalls++;
+		gl.glVertexAttribPointer(index, size, type, normalized, stride, ptr);
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+		issuedCalls++;
+		gl.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+	}
+
+	@Override
+	public void glGenBuffers(int n, int[] buffers, int offset) {
+		issuedCalls++;
+		gl.glGenBuffers(n, buffers, offset);
+	}
+
+	@Override
+	public void glDeleteBuffers(int n, int[] buffers, int offset) {
+		// deleting a bound buffer unbinds it
+		for (int i = offset; i < offset + n; i++) {
+			if (buffers[i] == arrayBuffer) {
+				arrayBuffer = 0;
+			}
+			if (buffers[i] == elementArrayBuffer) {
+				elementArrayBuffer = 0;
+			}
+		}
+		issuedCalls++;
+		gl.glDeleteBuffers(n, buffers, offset);
+	}
+
+	@Override
+	public void glBindBuffer(int target, int buffer) {
+		if (target == GLES20.GL_ARRAY_BUFFER) {
+			if (arrayBuffer == buffer) {
+				skippedCalls++;
+				return;
+			}
+			arrayBuffer = buffer;
+		} else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+			if (elementArrayBuffer == buffer) {
+				skippedCalls++;
+				return;
+			}
+			elementArrayBuffer = buffer;
+		}
+		issuedCalls++;
+		gl.glBindBuffer(target, buffer);
+	}
+
+	@Override
+	public void glBufferData(int target, int size, Buffer data, int usage) {
+		issuedCalls++;
+		gl.glBufferData(target, size, data, usage);
+	}
+
+	@Override
+	public void glBufferSubData(int target, int offset, int size, Buffer data) {
+		issuedCalls++;
+		gl.glBufferSubData(target, offset, size, data);
+	}
+
+	@Override
+	public void glDrawArrays(int mode, int first, int count) {
+		flushDisabledAttribs();
+		issuedCalls++;
+		drawCalls++;
+		vertices += count;
+		gl.glDrawArrays(mode, first, count);
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, Buffer indices) {
+		flushDisabledAttribs();
+		issuedCalls++;
+		drawCalls++;
+		vertices += count;
+		gl.glDrawElements(mode, count, type, indices);
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, int offset) {
+		flushDisabledAttribs();
+		issuedCalls++;
+		drawCalls++;
+		vertices += count;
+		gl.glDrawElements(mode, count, type, offset);
+	}
+
+	private void flushDisabledAttribs() {
+		for (int index = 0; pendingDisabledAttribs != 0; index++) {
+			int bit = 1 << index;
+			if ((pendingDisabledAttribs & bit) != 0) {
+				pendingDisabledAttribs &= ~bit;
+				knownAttribs |= bit;
+				enabledAttribs &= ~bit;
+				issuedCalls++;
+				gl.glDisableVertexAttribArray(index);
+			}
+		}
+	}
+
+	/**
+	 * Update the last value of the uniform of the current program
+	 *
+	 * @return true if the value has changed (and so the call has to be sent)
+	 */
+	private boolean update(int location, float[] v, int offset, int size) {
+		if (location == -1) {
+			// GL ignores it
+			skippedCalls++;
+			return false;
+		}
+		Map<Integer, float[]> values = uniforms.get(program);
+		if (values == null) {
+			values = new HashMap<Integer, float[]>();
+			uniforms.put(program, values);
+		}
+		float[] last = values.get(location);
+		if (last != null && last.length == size && equals(last, v, offset)) {
+			skippedCalls++;
+			return false;
+		}
+		if (last == null || last.length != size) {
+			last = new float[size];
+			values.put(location, last);
+		}
+		System.arraycopy(v, offset, last, 0, size);
+		issuedCalls++;
+		return true;
+	}
+
+	private static boolean equals(float[] last, float[] v, int offset) {
+		for (int i = 0; i < last.length; i++) {
+			if (Float.floatToRawIntBits(last[i]) != Float.floatToRawIntBits(v[offset + i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int glGetError() {
+		// it doesn't change the state
+		return gl.glGetError();
+	}
+}
@@ -2,6 +2,8 @@ package org.andresoviedo.app.model3D.util;
 
 import java.io.InputStream;
 
+import org.andresoviedo.dddmodel2.BuildConfig;
+
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
@@ -12,6 +14,24 @@ public final class GLUtil {
 
 	private static final String TAG = "GLUtil";
 
+	/**
+	 * Don't check GL errors at all
+	 */
+	public static final int VALIDATION_OFF = 0;
+	/**
+	 * Check GL errors only once every some frames, at the end of the frame. The call that failed is unknown
+	 */
+	public static final int VALIDATION_SAMPLED = 1;
+	/**
+	 * Check GL errors after every call, failing on the first call with errors
+	 */
+	public static final int VALIDATION_FULL = 2;
+
+	// every glGetError() stalls the driver pipeline, so errors are only checked after every call in debug builds
+	private static volatile int validation = BuildConfig.DEBUG ? VALIDATION_FULL : VALIDATION_OFF;
+	private static volatile int sampleFrames = 60;
+	private static long frame;
+
 	private GLUtil() {
 
 	}
@@ -142,6 +162,39 @@ public final class GLUtil {
 		return textureHandle[0];
 	}
 
+	/**
+	 * Set how GL errors are checked
+	 *
+	 * @param level        {@link #VALIDATION_OFF}, {@link #VALIDATION_SAMPLED} or {@link #VALIDATION_FULL}
+	 * @param sampleFrames number of frames between checks when sampling
+	 */
+	public static void setValidation(int level, int sampleFrames) {
+		if (level < VALIDATION_OFF || level > VALIDATION_FULL || sampleFrames < 1) {
+			throw new IllegalArgumentException("Wrong validation: " + level + "/" + sampleFrames);
+		}
+		GLUtil.validation = level;
+		GLUtil.sampleFrames = sampleFrames;
+		Log.i(TAG, "GL validation level: " + level);
+	}
+
+	public static int getValidation() {
+		return validation;
+	}
+
+	/**
+	 * To be called at the end of every frame. When sampling, it checks the errors of the whole frame once every some
+	 * frames.
+	 */
+	public static void endFrame() {
+		if (validation != VALIDATION_SAMPLED || ++frame % sampleFrames != 0) {
+			return;
+		}
+		int error;
+		while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
+			Log.e(TAG, "Frame " + frame + ": glError " + error + ". Enable full validation to find the failing call");
+		}
+	}
+
 	/**
 	 * Utility method for debugging OpenGL calls. Provide the name of the call just after making it:
 	 * 
@@ -150,16 +203,43 @@ public final class GLUtil {
 	 * MyGLRenderer.checkGlError(&quot;glGetUniformLocation&quot;);
 	 * </pre>
 	 * 
-	 * If the operation is not successful, the check throws an error.
+	 * If the operation is not successful, the check throws an error. Errors are only checked with
+	 * {@link #VALIDATION_FULL}, otherwise this method does nothing.
 	 * 
 	 * @param glOperation
 	 *            - Name of the OpenGL call to check.
 	 */
 	public static void checkGlError(String glOperation) {
+		if (validation != VALIDATION_FULL) {
+			return;
+		}
 		int error;
 		while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
-			Log.e(TAG, glOperation + ": glError " + error);
-			throw new RuntimeException(glOperation + ": glError " + error);
+			glError(glOperation, error);
 		}
 	}
+
+	/**
+	 * Same as {@link #checkGlError(String)} for the calls made through a {@link GLFacade}, so the errors are read
+	 * from the same facade
+	 *
+	 * @param gl          the facade the call was made with
+	 * @param glOperation name of the OpenGL call to check
+	 */
+	public static void checkGlError(GLFacade gl, String glOperation) {
+		if (validation != VALIDATION_FULL) {
+			return;
+		}
+		int error;
+		while ((error = gl.glGetError()) != GLES20.GL_NO_ERROR) {
+			glError(glOperation, error);
+		}
+	}
+
+	private static void glError(String glOperation, int error) {
+		// the stack trace points to the call that failed
+		RuntimeException ex = new RuntimeException(glOperation + ": glError " + error);
+		Log.e(TAG, ex.getMessage(), ex);
+		throw ex;
+	}
 }
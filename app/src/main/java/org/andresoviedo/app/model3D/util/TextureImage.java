@@ -0,0 +1,421 @@
+package org.andresoviedo.app.model3D.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import org.andresoviedo.app.util.io.BinaryCache;
+import org.andresoviedo.app.util.nio.NativeMemory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Texture decoded into RGBA pixels, ready to be uploaded to the GPU. Images are decoded out of the GL thread (i.e.
+ * while loading the model) and downsampled so they fit in the max texture size and in the memory budget.
+ *
+ * The mipmap chain of power of two images (OpenGL ES 2.0 doesn't support mipmaps for other sizes) is built with a box
+ * filter in the same thread, so the textures can be drawn with trilinear filtering when the model is zoomed out.
+ *
+ * Opaque images are compressed into ETC1 (see {@link ETC1Encoder}), which takes 1/8 of the memory of RGBA, and the
+ * result is stored in the cache dir as a .pkm file (a PKM per level) named after the hash of the image. When the same
+ * image is loaded again the compressed texture is read from the cache, so it's neither decoded nor encoded again.
+ *
+ * @author andresoviedo
+ */
+public final class TextureImage {
+
+	private static final String TAG = "TextureImage";
+
+	/**
+	 * Max width or height of the textures. The renderer sets the max supported by the GPU
+	 */
+	private static volatile int maxSize = 2048;
+	/**
+	 * Max bytes of a decoded texture
+	 */
+	private static volatile long maxBytes = 16L * 1024 * 1024;
+	/**
+	 * Whether the mipmaps are built
+	 */
+	private static volatile boolean mipmaps = true;
+	/**
+	 * Whether opaque images are compressed. The renderer disables it if the GPU doesn't support ETC1
+	 */
+	private static volatile boolean etc1 = true;
+	/**
+	 * Where the compressed textures are cached (or null to not cache them)
+	 */
+	private static volatile File cacheDir;
+	/**
+	 * Max size in bytes of the cached textures
+	 */
+	private static final long CACHE_SIZE = 64L * 1024 * 1024;
+
+	private static final byte[] PKM_MAGIC = {'P', 'K', 'M', ' ', '1', '0'};
+	private static final int PKM_ETC1_RGB_NO_MIPMAPS = 0;
+
+	private final int width;
+	private final int height;
+	// RGBA, row after row, or ETC1 blocks of every level (1 if there are no mipmaps)
+	private final ByteBuffer[] levels;
+	private final boolean compressed;
+
+	private TextureImage(int width, int height, ByteBuffer[] levels, boolean compressed) {
+		this.width = width;
+		this.height = height;
+		this.levels = levels;
+		this.compressed = compressed;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the number of levels, 1 if there are no mipmaps
+	 */
+	public int getLevelCount() {
+		return levels.length;
+	}
+
+	public boolean isMipmapped() {
+		return levels.length > 1;
+	}
+
+	/**
+	 * @return true if the levels are ETC1 blocks ({@link ETC1Encoder#ETC1_RGB8_OES}) instead of RGBA pixels
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	public int getWidth(int level) {
+		return Math.max(1, width >> level);
+	}
+
+	public int getHeight(int level) {
+		return Math.max(1, height >> level);
+	}
+
+	public ByteBuffer getPixels(int level) {
+		return levels[level];
+	}
+
+	/**
+	 * @return the bytes of the pixels of all the levels
+	 */
+	public long getSize() {
+		long ret = 0;
+		for (ByteBuffer level : levels) {
+			ret += level.capacity();
+		}
+		return ret;
+	}
+
+	public static void setMipmaps(boolean mipmaps) {
+		TextureImage.mipmaps = mipmaps;
+	}
+
+	public static void setETC1(boolean etc1) {
+		TextureImage.etc1 = etc1;
+	}
+
+	public static boolean isETC1() {
+		return etc1;
+	}
+
+	public static void setCacheDir(File cacheDir) {
+		TextureImage.cacheDir = cacheDir;
+	}
+
+	public static void setMaxSize(int maxSize) {
+		TextureImage.maxSize = maxSize;
+	}
+
+	public static void setMaxBytes(long maxBytes) {
+		TextureImage.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Decode the image, compressing it if it's opaque and ETC1 is enabled
+	 *
+	 * @param data the image file (i.e. png or jpg)
+	 * @return the decoded image or null if it can't be decoded
+	 */
+	public static TextureImage decode(byte[] data) {
+		return decode(data, etc1);
+	}
+
+	/**
+	 * Decode the image. The size is probed first and then the image is decoded already downsampled (by a power of 2)
+	 * to fit in the max size and bytes, so the full resolution image is never in memory.
+	 *
+	 * @param data     the image file (i.e. png or jpg)
+	 * @param compress whether to compress the image into ETC1 (if it's opaque) or to read it from the cache
+	 * @return the decoded image or null if it can't be decoded
+	 */
+	public static TextureImage decode(byte[] data, boolean compress) {
+		File dir = cacheDir;
+		File cached = compress && dir != null ? new File(dir, BinaryCache.key(TextureManager.key(data), maxSize,
+				maxBytes, mipmaps) + ".pkm") : null;
+		if (cached != null && cached.isFile()) {
+			TextureImage ret = readPkm(cached);
+			if (ret != null) {
+				Log.i(TAG, "Read compressed texture " + ret.width + "x" + ret.height + " from '" + cached + "'");
+				return ret;
+			}
+		}
+
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			Log.e(TAG, "Couldn't read the size of the texture");
+			return null;
+		}
+
+		int sampleSize = getSampleSize(options.outWidth, options.outHeight, maxSize, maxBytes);
+		options = new BitmapFactory.Options();
+		// By default, Android applies pre-scaling to bitmaps depending on the resolution of your device and which
+		// resource folder you placed the image in. We don’t want Android to scale our bitmap at all, so to be sure,
+		// we set inScaled to false.
+		options.inScaled = false;
+		options.inSampleSize = sampleSize;
+		options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+		Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		if (bitmap == null) {
+			Log.e(TAG, "Couldn't decode the texture");
+			return null;
+		}
+		if (bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+			// i.e. indexed or gray images
+			Bitmap rgba = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+			bitmap.recycle();
+			bitmap = rgba;
+		}
+		try {
+			Log.i(TAG, "Decoded texture " + bitmap.getWidth() + "x" + bitmap.getHeight() + " (sample size "
+					+ sampleSize + ")");
+			int width = bitmap.getWidth(), height = bitmap.getHeight();
+			ByteBuffer pixels = NativeMemory.allocate(width * height * 4);
+			bitmap.copyPixelsToBuffer(pixels);
+			pixels.position(0);
+			ByteBuffer[] levels = mipmaps && isPowerOfTwo(width) && isPowerOfTwo(height)
+					? buildMipmaps(pixels, width, height) : new ByteBuffer[]{pixels};
+			if (!compress || bitmap.hasAlpha()) {
+				// ETC1 has no alpha
+				return new TextureImage(width, height, levels, false);
+			}
+			TextureImage ret = compress(width, height, levels);
+			if (cached != null) {
+				writePkm(ret, cached);
+			}
+			return ret;
+		} finally {
+			bitmap.recycle();
+		}
+	}
+
+	/**
+	 * Compress all the levels into ETC1
+	 */
+	static TextureImage compress(int width, int height, ByteBuffer[] levels) {
+		ByteBuffer[] ret = new ByteBuffer[levels.length];
+		for (int level = 0; level < levels.length; level++) {
+			ret[level] = ETC1Encoder.encode(levels[level], Math.max(1, width >> level), Math.max(1, height >> level));
+		}
+		return new TextureImage(width, height, ret, true);
+	}
+
+	/**
+	 * Read a compressed texture: a PKM (header & ETC1 blocks) per level
+	 *
+	 * @return the texture or null if the file is corrupted (the file is deleted then)
+	 */
+	static TextureImage readPkm(File file) {
+		InputStream is = null;
+		try {
+			is = new FileInputStream(file);
+			DataInputStream dis = new DataInputStream(is);
+			List<ByteBuffer> levels = new ArrayList<ByteBuffer>();
+			int width = 0, height = 0;
+			byte[] magic = new byte[PKM_MAGIC.length];
+			while (true) {
+				try {
+					dis.readFully(magic);
+				} catch (EOFException ex) {
+					break;
+				}
+				if (!Arrays.equals(magic, PKM_MAGIC) || dis.readUnsignedShort() != PKM_ETC1_RGB_NO_MIPMAPS) {
+					throw new IOException("Not an ETC1 PKM");
+				}
+				int extendedWidth = dis.readUnsignedShort();
+				int extendedHeight = dis.readUnsignedShort();
+				int levelWidth = dis.readUnsignedShort();
+				int levelHeight = dis.readUnsignedShort();
+				if (levels.isEmpty()) {
+					width = levelWidth;
+					height = levelHeight;
+				}
+				if (levelWidth != Math.max(1, width >> levels.size())
+						|| levelHeight != Math.max(1, height >> levels.size())) {
+					throw new IOException("Wrong size of level " + levels.size());
+				}
+				byte[] blocks = new byte[extendedWidth / 4 * extendedHeight / 4 * ETC1Encoder.BLOCK_SIZE];
+				dis.readFully(blocks);
+				ByteBuffer level = NativeMemory.allocate(blocks.length);
+				level.put(blocks);
+				level.position(0);
+				levels.add(level);
+			}
+			if (levels.isEmpty()) {
+				throw new IOException("Empty file");
+			}
+			// keep track of the last use for the eviction
+			file.setLastModified(System.currentTimeMillis());
+			return new TextureImage(width, height, levels.toArray(new ByteBuffer[levels.size()]), true);
+		} catch (IOException ex) {
+			Log.e(TAG, "Problem reading compressed texture '" + file + "'. Deleting it...", ex);
+			file.delete();
+			return null;
+		} finally {
+			if (is != null) {
+				try {
+					is.close();
+				} catch (IOException ex) {
+					Log.e(TAG, ex.getMessage(), ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Store the compressed texture in the cache. If there is any problem, the texture is not cached
+	 */
+	static void writePkm(TextureImage image, File file) {
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			Log.e(TAG, "Couldn't create cache dir '" + dir + "'");
+			return;
+		}
+		File tmp = new File(dir, file.getName() + ".tmp");
+		OutputStream os = null;
+		boolean ok = false;
+		try {
+			os = new FileOutputStream(tmp);
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(os));
+			for (int level = 0; level < image.levels.length; level++) {
+				int levelWidth = image.getWidth(level), levelHeight = image.getHeight(level);
+				dos.write(PKM_MAGIC);
+				dos.writeShort(PKM_ETC1_RGB_NO_MIPMAPS);
+				dos.writeShort((levelWidth + 3) & ~3);
+				dos.writeShort((levelHeight + 3) & ~3);
+				dos.writeShort(levelWidth);
+				dos.writeShort(levelHeight);
+				byte[] blocks = new byte[image.levels[level].capacity()];
+				image.levels[level].duplicate().get(blocks);
+				dos.write(blocks);
+			}
+			dos.flush();
+			ok = true;
+		} catch (IOException ex) {
+			Log.e(TAG, "Problem writing compressed texture '" + file + "'", ex);
+		} finally {
+			if (os != null) {
+				try {
+					os.close();
+				} catch (IOException ex) {
+					Log.e(TAG, ex.getMessage(), ex);
+					ok = false;
+				}
+			}
+		}
+		if (!ok || !tmp.renameTo(file)) {
+			tmp.delete();
+			return;
+		}
+		Log.i(TAG, "Cached compressed texture '" + file + "' (" + file.length() + " bytes)");
+		BinaryCache.evict(dir, CACHE_SIZE);
+	}
+
+	/**
+	 * Build the mipmap chain, from the full image down to 1x1
+	 *
+	 * @return all the levels, including the image
+	 */
+	static ByteBuffer[] buildMipmaps(ByteBuffer pixels, int width, int height) {
+		int count = 1;
+		for (int w = width, h = height; w > 1 || h > 1; w = Math.max(1, w / 2), h = Math.max(1, h / 2)) {
+			count++;
+		}
+		ByteBuffer[] ret = new ByteBuffer[count];
+		ret[0] = pixels;
+		for (int i = 1, w = width, h = height; i < count; i++) {
+			int w2 = Math.max(1, w / 2), h2 = Math.max(1, h / 2);
+			ret[i] = NativeMemory.allocate(w2 * h2 * 4);
+			downsample(ret[i - 1], w, h, ret[i]);
+			w = w2;
+			h = h2;
+		}
+		return ret;
+	}
+
+	/**
+	 * Halve the image averaging every 2x2 block of pixels (box filter). When a dimension is 1, pixels are averaged
+	 * in pairs along the other one. Colors are premultiplied by alpha, so they can be averaged directly.
+	 *
+	 * @param src the RGBA pixels
+	 * @param dst the RGBA pixels of the image halved (max(1, width / 2) x max(1, height / 2))
+	 */
+	static void downsample(ByteBuffer src, int width, int height, ByteBuffer dst) {
+		int w2 = Math.max(1, width / 2), h2 = Math.max(1, height / 2);
+		for (int y = 0; y < h2; y++) {
+			int y0 = Math.min(y * 2, height - 1), y1 = Math.min(y * 2 + 1, height - 1);
+			for (int x = 0; x < w2; x++) {
+				int x0 = Math.min(x * 2, width - 1), x1 = Math.min(x * 2 + 1, width - 1);
+				int p00 = (y0 * width + x0) * 4, p01 = (y0 * width + x1) * 4;
+				int p10 = (y1 * width + x0) * 4, p11 = (y1 * width + x1) * 4;
+				int out = (y * w2 + x) * 4;
+				for (int c = 0; c < 4; c++) {
+					int sum = (src.get(p00 + c) & 0xFF) + (src.get(p01 + c) & 0xFF) + (src.get(p10 + c) & 0xFF)
+							+ (src.get(p11 + c) & 0xFF);
+					// rounded
+					dst.put(out + c, (byte) ((sum + 2) >> 2));
+				}
+			}
+		}
+	}
+
+	private static boolean isPowerOfTwo(int n) {
+		return n > 0 && (n & (n - 1)) == 0;
+	}
+
+	/**
+	 * @return the smallest power of 2 that fits the image in the max size and bytes
+	 */
+	static int getSampleSize(int width, int height, int maxSize, long maxBytes) {
+		int ret = 1;
+		while (width / ret > maxSize || height / ret > maxSize
+				|| (long) (width / ret) * (height / ret) * 4 > maxBytes) {
+			ret *= 2;
+		}
+		return ret;
+	}
+}
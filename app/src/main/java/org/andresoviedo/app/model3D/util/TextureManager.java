@@ -0,0 +1,539 @@
+package org.andresoviedo.app.model3D.util;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.andresoviedo.app.util.nio.NativeMemory;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the textures of the objects in the GPU. Textures are identified by the hash of their contents, so objects
+ * using the same image share the same GL texture, and they are reference counted by the objects using them.
+ *
+ * When the textures don't fit in the memory budget the least recently used ones are deleted: first the ones no
+ * longer referenced and then the ones not drawn in the current frame (they are uploaded again when needed). All the
+ * methods must be called from the GL thread.
+ *
+ * Textures are decoded out of the GL thread (see {@link TextureImage}) and uploaded in slices of rows, spending at
+ * most {@link #UPLOAD_MILLIS_PER_FRAME} per frame, so a big texture doesn't freeze the frame. Textures evicted before
+ * (or compressed for a GPU without ETC1) are decoded again in a background thread. Objects are drawn without texture
+ * until their texture is completely uploaded.
+ *
+ * Textures with mipmaps (see {@link TextureImage#isMipmapped()}) are drawn with trilinear filtering
+ * ({@link GLES20#GL_LINEAR_MIPMAP_LINEAR}), so minified models don't shimmer. The rest use nearest filtering, as
+ * before.
+ *
+ * Compressed textures (see {@link TextureImage#isCompressed()}) are uploaded with glCompressedTexImage2D, a level per
+ * slice, as ETC1 can't be updated partially.
+ *
+ * Textures belong to a {@link Textured}: either an object or each of its materials (see
+ * {@link org.andresoviedo.app.model3D.model.DrawMaterial}).
+ *
+ * @author andresoviedo
+ */
+public final class TextureManager {
+
+	private static final String TAG = "TextureManager";
+
+	/**
+	 * Default memory budget (bytes)
+	 */
+	public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+	/**
+	 * Time spent uploading textures in every frame. At least one slice is uploaded per frame
+	 */
+	private static final long UPLOAD_MILLIS_PER_FRAME = 4;
+	private static final int SLICE_BYTES = 256 * 1024;
+
+	/**
+	 * Something drawn with a texture
+	 */
+	public interface Textured {
+		/**
+		 * @return the image file of the texture or null if there is no texture
+		 */
+		byte[] getTextureData();
+
+		/**
+		 * @return the texture already decoded or null if it has to be decoded when it's drawn
+		 */
+		TextureImage getTextureImage();
+
+		void setTextureImage(TextureImage textureImage);
+	}
+
+	private static final class Entry {
+		final int id;
+		final long size;
+		final boolean mipmapped;
+		int refs;
+		long lastFrame;
+		// pixels pending to be uploaded (null when the upload is complete), level being uploaded & its rows uploaded
+		TextureImage image;
+		int uploadedLevel;
+		int uploadedRows;
+
+		Entry(int id, long size, boolean mipmapped) {
+			this.id = id;
+			this.size = size;
+			this.mipmapped = mipmapped;
+		}
+	}
+
+	private static final class User {
+		final byte[] data;
+		final String key;
+
+		User(byte[] data, String key) {
+			this.data = data;
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Seconds the decoder thread is kept alive without textures to decode
+	 */
+	private static final long DECODER_KEEP_ALIVE = 10;
+
+	/**
+	 * The decoder threads never keep the app alive
+	 */
+	private static final ThreadFactory DECODER_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread ret = new Thread(r, "TextureDecoder");
+			ret.setDaemon(true);
+			return ret;
+		}
+	};
+
+	private final GLStateCache glState;
+	private long budget;
+	// textures by key, from the least to the most recently used
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	// the texture of every object (or material)
+	private final Map<Textured, User> users = new IdentityHashMap<Textured, User>();
+	// textures being decoded in the background, by key
+	private final Map<String, Future<TextureImage>> decodes = new HashMap<String, Future<TextureImage>>();
+	private ExecutorService decoder;
+	private final int[] ids = new int[1];
+	private long frame;
+	// bytes currently stored in the GPU
+	private long size;
+	// upload time of the current frame
+	private long uploadFrame = -1;
+	private long uploadDeadline;
+	private int uploadedSlices;
+	// 1x1 white texture
+	private int defaultTexture = -1;
+
+	/**
+	 * @param glState the state cache to invalidate when textures are bound without it (or null)
+	 * @param budget  max bytes of textures in the GPU
+	 */
+	public TextureManager(GLStateCache glState, long budget) {
+		this.glState = glState;
+		this.budget = budget;
+	}
+
+	public void setBudget(long budget) {
+		this.budget = budget;
+		evict(null);
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @return the bytes of textures currently stored in the GPU
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return number of textures stored in the GPU
+	 */
+	public int getCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Get the texture of the object, uploading it if it's not in the GPU. The object keeps a reference to the texture
+	 * until it's released (or its texture data changes)
+	 *
+	 * @param obj the object (or material)
+	 * @return the texture or -1 if the object has no texture (or it's still being uploaded)
+	 */
+	public int acquire(Textured obj) {
+		byte[] data = obj.getTextureData();
+		User user = users.get(obj);
+		if (user != null && user.data != data) {
+			release(obj);
+			user = null;
+		}
+		if (data == null) {
+			return -1;
+		}
+		if (user == null) {
+			user = new User(data, key(data));
+			users.put(obj, user);
+			Entry entry = entries.get(user.key);
+			if (entry != null) {
+				entry.refs++;
+			}
+		}
+
+		Entry entry = entries.get(user.key);
+		if (entry == null) {
+			TextureImage image = obj.getTextureImage();
+			if (image == null || (image.isCompressed() && !TextureImage.isETC1())) {
+				// not decoded when loading (i.e. evicted before) or compressed before knowing the GPU doesn't
+				// support it
+				if (!isDecoded(user.key, data)) {
+					return -1;
+				}
+				image = getDecoded(user.key);
+			}
+			entry = create(user.key, image);
+			// all the objects with the same texture reference it again
+			for (User other : users.values()) {
+				if (other.key.equals(user.key)) {
+					entry.refs++;
+				}
+			}
+			evict(entry);
+		} else {
+			entry.lastFrame = frame;
+		}
+		if (entry.image != null && !upload(entry)) {
+			return -1;
+		}
+		if (obj.getTextureImage() != null) {
+			// the pixels are not needed anymore. If the texture is evicted it's decoded again
+			releaseImages(user.key);
+		}
+		return entry.id;
+	}
+
+	/**
+	 * @return a 1x1 white texture, for the parts of the objects without texture drawn with a texture program
+	 */
+	public int getDefaultTexture() {
+		if (defaultTexture == -1) {
+			ByteBuffer white = NativeMemory.allocate(4);
+			white.put(0, (byte) 0xFF).put(1, (byte) 0xFF).put(2, (byte) 0xFF).put(3, (byte) 0xFF);
+			GLES20.glGenTextures(1, ids, 0);
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, ids[0]);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+			GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, 1, 1, 0, GLES20.GL_RGBA,
+					GLES20.GL_UNSIGNED_BYTE, white);
+			GLUtil.checkGlError("glTexImage2D");
+			if (glState != null) {
+				glState.invalidate();
+			}
+			defaultTexture = ids[0];
+		}
+		return defaultTexture;
+	}
+
+	/**
+	 * @return true if there are textures partially uploaded, so more frames are needed to complete them
+	 */
+	public boolean hasPendingUploads() {
+		if (!decodes.isEmpty()) {
+			return true;
+		}
+		for (Entry entry : entries.values()) {
+			if (entry.image != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Release the reference of the object to its texture. The texture is kept in the GPU while it fits in the budget
+	 */
+	public void release(Textured obj) {
+		User user = users.remove(obj);
+		if (user == null) {
+			return;
+		}
+		Entry entry = entries.get(user.key);
+		if (entry != null) {
+			entry.refs--;
+		}
+		// the texture is not needed anymore
+		Future<TextureImage> decode = decodes.get(user.key);
+		if (decode != null && !isUsed(user.key)) {
+			decode.cancel(false);
+			decodes.remove(user.key);
+		}
+	}
+
+	/**
+	 * To be called at the end of every frame
+	 */
+	public void endFrame() {
+		frame++;
+	}
+
+	/**
+	 * Delete all the textures and stop the background decoding
+	 */
+	public void release() {
+		for (Entry entry : entries.values()) {
+			delete(entry);
+		}
+		entries.clear();
+		users.clear();
+		decodes.clear();
+		if (decoder != null) {
+			decoder.shutdownNow();
+			decoder = null;
+		}
+		if (defaultTexture != -1) {
+			ids[0] = defaultTexture;
+			GLES20.glDeleteTextures(1, ids, 0);
+			if (glState != null) {
+				glState.invalidate();
+			}
+			defaultTexture = -1;
+		}
+	}
+
+	/**
+	 * Decode the texture in the background, if it's not being decoded yet
+	 *
+	 * @return true if the texture is decoded (see {@link #getDecoded(String)}), false if it's still being decoded
+	 */
+	private boolean isDecoded(String key, final byte[] data) {
+		Future<TextureImage> decode = decodes.get(key);
+		if (decode == null) {
+			if (decoder == null) {
+				decoder = newDecoder();
+			}
+			decode = decoder.submit(new Callable<TextureImage>() {
+				@Override
+				public TextureImage call() {
+					return TextureImage.decode(data);
+				}
+			});
+			decodes.put(key, decode);
+		}
+		return decode.isDone();
+	}
+
+	/**
+	 * @return a single thread executor whose thread ends when there is nothing to decode (API 9+)
+	 */
+	@TargetApi(Build.VERSION_CODES.GINGERBREAD)
+	private static ExecutorService newDecoder() {
+		ThreadPoolExecutor ret = new ThreadPoolExecutor(1, 1, DECODER_KEEP_ALIVE, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), DECODER_THREADS);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+			ret.allowCoreThreadTimeOut(true);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the texture decoded in the background or null if it couldn't be decoded
+	 */
+	private TextureImage getDecoded(String key) {
+		Future<TextureImage> decode = decodes.remove(key);
+		try {
+			return decode.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException ex) {
+			Log.e(TAG, "Problem decoding texture: " + ex.getMessage(), ex.getCause());
+			return null;
+		}
+	}
+
+	private boolean isUsed(String key) {
+		for (User user : users.values()) {
+			if (user.key.equals(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Create the texture in the GPU (without pixels yet)
+	 *
+	 * @param image the texture decoded or null if it couldn't be decoded
+	 */
+	private Entry create(String key, TextureImage image) {
+		if (image == null) {
+			// it's not tried again
+			Entry entry = new Entry(-1, 0, false);
+			entries.put(key, entry);
+			return entry;
+		}
+
+		GLES20.glGenTextures(1, ids, 0);
+		GLUtil.checkGlError("glGenTextures");
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, ids[0]);
+		boolean mipmapped = image.isMipmapped();
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+				mipmapped ? GLES20.GL_LINEAR_MIPMAP_LINEAR : GLES20.GL_NEAREST);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+				mipmapped ? GLES20.GL_LINEAR : GLES20.GL_NEAREST);
+		// all the levels must be defined before drawing, or the texture is incomplete. Compressed levels are defined
+		// when uploaded
+		for (int level = 0; !image.isCompressed() && level < image.getLevelCount(); level++) {
+			GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, level, GLES20.GL_RGBA, image.getWidth(level),
+					image.getHeight(level), 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+		}
+		GLUtil.checkGlError("glTexImage2D");
+		if (glState != null) {
+			// the texture was bound without the state cache
+			glState.invalidate();
+		}
+
+		Entry entry = new Entry(ids[0], image.getSize(), mipmapped);
+		entry.image = image;
+		entry.lastFrame = frame;
+		entries.put(key, entry);
+		size += entry.size;
+		Log.i(TAG, "Created texture " + entry.id + " (" + entry.size + " bytes, " + image.getLevelCount()
+				+ " levels" + (image.isCompressed() ? ", ETC1" : "") + "). In use: " + size + "/" + budget);
+		return entry;
+	}
+
+	/**
+	 * Upload the next slices of the texture, while there is time left in the frame
+	 *
+	 * @return true if the texture is completely uploaded
+	 */
+	private boolean upload(Entry entry) {
+		if (uploadFrame != frame) {
+			uploadFrame = frame;
+			uploadDeadline = SystemClock.uptimeMillis() + UPLOAD_MILLIS_PER_FRAME;
+			uploadedSlices = 0;
+		}
+		TextureImage image = entry.image;
+		boolean bound = false;
+		while (entry.uploadedLevel < image.getLevelCount()
+				&& (uploadedSlices == 0 || SystemClock.uptimeMillis() < uploadDeadline)) {
+			if (!bound) {
+				GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, entry.id);
+				bound = true;
+			}
+			int level = entry.uploadedLevel;
+			int width = image.getWidth(level), height = image.getHeight(level);
+			if (image.isCompressed()) {
+				ByteBuffer blocks = image.getPixels(level).duplicate();
+				GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, level, ETC1Encoder.ETC1_RGB8_OES, width, height,
+						0, blocks.capacity(), blocks);
+				GLUtil.checkGlError("glCompressedTexImage2D");
+				entry.uploadedLevel++;
+				uploadedSlices++;
+				continue;
+			}
+			int rowBytes = width * 4;
+			int rows = Math.min(Math.max(1, SLICE_BYTES / rowBytes), height - entry.uploadedRows);
+			ByteBuffer pixels = image.getPixels(level).duplicate();
+			pixels.position(entry.uploadedRows * rowBytes);
+			GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, level, 0, entry.uploadedRows, width, rows,
+					GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
+			GLUtil.checkGlError("glTexSubImage2D");
+			entry.uploadedRows += rows;
+			if (entry.uploadedRows == height) {
+				entry.uploadedLevel++;
+				entry.uploadedRows = 0;
+			}
+			uploadedSlices++;
+		}
+		if (bound && glState != null) {
+			glState.invalidate();
+		}
+		if (entry.uploadedLevel < image.getLevelCount()) {
+			return false;
+		}
+		entry.image = null;
+		Log.i(TAG, "Uploaded texture " + entry.id);
+		return true;
+	}
+
+	private void releaseImages(String key) {
+		for (Map.Entry<Textured, User> user : users.entrySet()) {
+			if (user.getValue().key.equals(key)) {
+				user.getKey().setTextureImage(null);
+			}
+		}
+	}
+
+	/**
+	 * Delete the least recently used textures until they fit in the budget
+	 *
+	 * @param keep texture that must not be deleted
+	 */
+	private void evict(Entry keep) {
+		// first the textures not referenced, then the ones not drawn in this frame
+		for (int pass = 0; pass < 2 && size > budget; pass++) {
+			for (Iterator<Entry> it = entries.values().iterator(); it.hasNext() && size > budget; ) {
+				Entry entry = it.next();
+				if (entry == keep || (pass == 0 && entry.refs > 0) || entry.lastFrame == frame) {
+					continue;
+				}
+				delete(entry);
+				it.remove();
+			}
+		}
+	}
+
+	private void delete(Entry entry) {
+		if (entry.id != -1) {
+			ids[0] = entry.id;
+			GLES20.glDeleteTextures(1, ids, 0);
+			if (glState != null) {
+				glState.invalidate();
+			}
+		}
+		size -= entry.size;
+		Log.i(TAG, "Deleted texture " + entry.id + " (" + entry.size + " bytes, " + entry.refs + " refs)");
+	}
+
+	/**
+	 * @return the hash of the contents (SHA-1)
+	 */
+	static String key(byte[] data) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+			StringBuilder ret = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				ret.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return ret.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
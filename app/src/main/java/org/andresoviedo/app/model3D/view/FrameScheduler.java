@@ -0,0 +1,98 @@
+package org.andresoviedo.app.model3D.view;
+
+import android.opengl.GLSurfaceView;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Decides when the view has to be drawn. The view is drawn only when it's dirty (the camera moved, an object was
+ * added, a toggle changed...) and, while something is animating (i.e. the light is rotating or a model is being
+ * loaded), at the target frame rate.
+ *
+ * Frames can be requested from any thread.
+ *
+ * @author andresoviedo
+ */
+public final class FrameScheduler {
+
+	/**
+	 * Default frame rate while animating
+	 */
+	public static final int DEFAULT_FPS = 60;
+
+	private final GLSurfaceView view;
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final long frameInterval;
+	// number of animations running
+	private int animations;
+	private boolean framePosted;
+	private long lastFrameTime;
+
+	private final Runnable frame = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (FrameScheduler.this) {
+				framePosted = false;
+			}
+			view.requestRender();
+		}
+	};
+
+	public FrameScheduler(GLSurfaceView view, int targetFps) {
+		this.view = view;
+		this.frameInterval = 1000L / targetFps;
+		view.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+	}
+
+	/**
+	 * Draw the view as soon as possible because something has changed
+	 */
+	public void requestFrame() {
+		view.requestRender();
+	}
+
+	/**
+	 * Start an animation. The view is drawn at the target frame rate until all the animations are stopped
+	 */
+	public synchronized void startAnimation() {
+		animations++;
+		if (animations == 1) {
+			requestFrame();
+		}
+	}
+
+	public synchronized void stopAnimation() {
+		if (animations > 0) {
+			animations--;
+		}
+	}
+
+	public synchronized boolean isAnimating() {
+		return animations > 0;
+	}
+
+	/**
+	 * To be called by the renderer at the end of every frame. If there are animations running (or the frame has to be
+	 * drawn again) the next frame is requested, waiting for the remaining time of the frame interval
+	 *
+	 * @param dirty true if the frame is already out of date (i.e. the camera moved while drawing it)
+	 * @return true if another frame will be drawn after the frame interval
+	 */
+	public boolean onFrameDrawn(boolean dirty) {
+		long now = SystemClock.uptimeMillis();
+		long delay = Math.max(0, lastFrameTime + frameInterval - now);
+		lastFrameTime = now;
+		synchronized (this) {
+			if (!dirty && animations == 0) {
+				return false;
+			}
+			if (framePosted) {
+				return true;
+			}
+			framePosted = true;
+		}
+		handler.postDelayed(frame, delay);
+		return true;
+	}
+}
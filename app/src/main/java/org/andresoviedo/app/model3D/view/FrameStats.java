@@ -0,0 +1,223 @@
+package org.andresoviedo.app.model3D.view;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Metrics of the last frames drawn by the {@link ModelRenderer}, kept in a ring buffer so recording them doesn't
+ * allocate memory. They can be read with {@link #get(int, int)}, summarized with {@link #getAverage(int)} or dumped
+ * as CSV or JSON to compare models and devices.
+ *
+ * Frames are recorded in the GL thread and can be read from any thread.
+ *
+ * @author andresoviedo
+ */
+public final class FrameStats {
+
+	/**
+	 * Wall time spent in onDrawFrame (including the waits for the GL driver), in microseconds
+	 */
+	public static final int FRAME_TIME = 0;
+	/**
+	 * Time from the start of the previous frame, in microseconds. It's 0 when the view was idle before the frame, so
+	 * the frame rate is only measured while the frames are drawn one after another
+	 */
+	public static final int INTERVAL = 1;
+	/**
+	 * Draw calls issued
+	 */
+	public static final int DRAWS = 2;
+	/**
+	 * Vertices (or indices) submitted in the draw calls
+	 */
+	public static final int VERTICES = 3;
+	/**
+	 * Programs bound
+	 */
+	public static final int PROGRAMS = 4;
+	/**
+	 * Textures bound
+	 */
+	public static final int TEXTURES = 5;
+	/**
+	 * Objects skipped because they were outside the screen
+	 */
+	public static final int CULLED_OBJECTS = 6;
+	/**
+	 * Draw ranges skipped because they were outside the screen
+	 */
+	public static final int CULLED_RANGES = 7;
+
+	private static final String[] NAMES = {"frame_us", "interval_us", "draws", "vertices", "programs", "textures",
+			"culled_objects", "culled_ranges"};
+	private static final int METRICS = NAMES.length;
+
+	private final int capacity;
+	// longest interval between frames not requested by the previous one that is not an idle gap, in microseconds
+	private final long maxInterval;
+	private final long[] values;
+	// number of frames recorded since the beginning
+	private long frames;
+	private long frameStart;
+	private long lastFrameStart;
+	// whether the previous frame requested the next one
+	private boolean nextRequested;
+
+	/**
+	 * @param capacity    number of frames stored
+	 * @param maxInterval longest interval (in microseconds) between two frames that is not an idle gap, when the
+	 *                    first frame didn't request the next one (i.e. frames drawn while touching the screen)
+	 */
+	public FrameStats(int capacity, long maxInterval) {
+		this.capacity = capacity;
+		this.maxInterval = maxInterval;
+		this.values = new long[capacity * METRICS];
+	}
+
+	/**
+	 * To be called at the start of the frame
+	 */
+	public void beginFrame() {
+		lastFrameStart = frameStart;
+		frameStart = System.nanoTime();
+	}
+
+	/**
+	 * To be called at the end of the frame with the counters of the frame
+	 *
+	 * @param nextRequested true if the frame requested the next one (i.e. something is animating), so the interval to
+	 *                      the next frame is never an idle gap
+	 */
+	public synchronized void endFrame(long draws, long vertices, long programs, long textures, int culledObjects,
+									  int culledRanges, boolean nextRequested) {
+		int offset = (int) (frames % capacity) * METRICS;
+		long interval = lastFrameStart != 0 ? (frameStart - lastFrameStart) / 1000 : 0;
+		values[offset + FRAME_TIME] = (System.nanoTime() - frameStart) / 1000;
+		values[offset + INTERVAL] = this.nextRequested || interval <= maxInterval ? interval : 0;
+		this.nextRequested = nextRequested;
+		values[offset + DRAWS] = draws;
+		values[offset + VERTICES] = vertices;
+		values[offset + PROGRAMS] = programs;
+		values[offset + TEXTURES] = textures;
+		values[offset + CULLED_OBJECTS] = culledObjects;
+		values[offset + CULLED_RANGES] = culledRanges;
+		frames++;
+	}
+
+	/**
+	 * @return number of frames stored, up to the capacity
+	 */
+	public synchronized int getSize() {
+		return (int) Math.min(frames, capacity);
+	}
+
+	/**
+	 * @return number of frames recorded since the beginning
+	 */
+	public synchronized long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * @param metric one of the metric constants (i.e. {@link #FRAME_TIME})
+	 * @param index  the frame, from 0 (oldest stored) to {@link #getSize()} - 1 (last one)
+	 */
+	public synchronized long get(int metric, int index) {
+		long first = frames - getSize();
+		return values[(int) ((first + index) % capacity) * METRICS + metric];
+	}
+
+	/**
+	 * @return the average of the metric in the frames stored, or 0 if there are no frames
+	 */
+	public synchronized float getAverage(int metric) {
+		int size = getSize();
+		if (size == 0) {
+			return 0;
+		}
+		long sum = 0;
+		for (int i = 0; i < size; i++) {
+			sum += values[i * METRICS + metric];
+		}
+		return (float) sum / size;
+	}
+
+	/**
+	 * @return the frame rate of the frames stored that were not drawn after an idle gap, or 0 if there are none
+	 */
+	public synchronized float getFps() {
+		long sum = 0;
+		int count = 0;
+		for (int i = 0, size = getSize(); i < size; i++) {
+			long interval = values[i * METRICS + INTERVAL];
+			if (interval > 0) {
+				sum += interval;
+				count++;
+			}
+		}
+		return sum > 0 ? count * 1000000f / sum : 0;
+	}
+
+	/**
+	 * @return the maximum of the metric in the frames stored
+	 */
+	public synchronized long getMax(int metric) {
+		long max = 0;
+		for (int i = 0, size = getSize(); i < size; i++) {
+			max = Math.max(max, values[i * METRICS + metric]);
+		}
+		return max;
+	}
+
+	/**
+	 * Write the frames stored as CSV, one line per frame (oldest first) with a header line
+	 */
+	public synchronized void writeCsv(Writer writer) throws IOException {
+		writer.write("frame");
+		for (String name : NAMES) {
+			writer.write(',');
+			writer.write(name);
+		}
+		writer.write('\n');
+		long first = frames - getSize();
+		for (int i = 0, size = getSize(); i < size; i++) {
+			writer.write(String.valueOf(first + i));
+			for (int metric = 0; metric < METRICS; metric++) {
+				writer.write(',');
+				writer.write(String.valueOf(get(metric, i)));
+			}
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Write the frames stored as a JSON array of objects (oldest first)
+	 */
+	public synchronized void writeJson(Writer writer) throws IOException {
+		writer.write('[');
+		long first = frames - getSize();
+		for (int i = 0, size = getSize(); i < size; i++) {
+			writer.write(i == 0 ? "\n" : ",\n");
+			writer.write("{\"frame\":" + (first + i));
+			for (int metric = 0; metric < METRICS; metric++) {
+				writer.write(",\"" + NAMES[metric] + "\":" + get(metric, i));
+			}
+			writer.write('}');
+		}
+		writer.write("\n]\n");
+		writer.flush();
+	}
+
+	/**
+	 * @return a summary of the frames stored, for the HUD or the log
+	 */
+	public String getSummary() {
+		return String.format(Locale.US, "fps %.1f  frame %.2f ms (max %.2f)%ndraws %.0f  vertices %.0f%n"
+						+ "programs %.1f  textures %.1f%nculled %.1f objects, %.1f ranges",
+				getFps(), getAverage(FRAME_TIME) / 1000, getMax(FRAME_TIME) / 1000f,
+				getAverage(DRAWS), getAverage(VERTICES), getAverage(PROGRAMS), getAverage(TEXTURES),
+				getAverage(CULLED_OBJECTS), getAverage(CULLED_RANGES));
+	}
+}
@@ -4,6 +4,7 @@ import java.io.File;
 
 
 import org.andresoviedo.app.model3D.services.SceneLoader;
+import org.andresoviedo.app.model3D.util.TextureImage;
 import org.andresoviedo.app.util.Utils;
 import org.andresoviedo.dddmodel2.R;
 
@@ -17,6 +18,7 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewGroup;
 
 /**
  * This activity represents the container for our 3D viewer.
@@ -35,6 +37,10 @@ public class ModelActivity extends Activity {
 	 * Enter into Android Immersive mode so the renderer is full screen or not
 	 */
 	private boolean immersiveMode = true;
+	/**
+	 * Show the performance metrics over the model
+	 */
+	private boolean showStats = false;
 	/**
 	 * Background GL clear color. Default is light gray
 	 */
@@ -46,6 +52,8 @@ public class ModelActivity extends Activity {
 
 	private Handler handler;
 
+	private StatsHud statsHud;
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -57,6 +65,7 @@ public class ModelActivity extends Activity {
 			this.paramAssetFilename = b.getString("assetFilename");
 			this.paramFilename = b.getString("uri");
 			this.immersiveMode = "true".equalsIgnoreCase(b.getString("immersiveMode"));
+			this.showStats = "true".equalsIgnoreCase(b.getString("showStats"));
 			try{
 				String[] backgroundColors = b.getString("backgroundColor").split(" ");
 				backgroundColor[0] = Float.parseFloat(backgroundColors[0]);
@@ -76,6 +85,16 @@ public class ModelActivity extends Activity {
 		gLView = new ModelSurfaceView(this);
 		setContentView(gLView);
 
+		// 性能指标
+		if (showStats) {
+			statsHud = new StatsHud(this, getModelRenderer().getStats());
+			addContentView(statsHud, new ViewGroup.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT,
+					ViewGroup.LayoutParams.WRAP_CONTENT));
+		}
+
+		// 压缩的纹理缓存在磁盘上，再次加载时不用重新解码（在加载模型之前设置）
+		TextureImage.setCacheDir(new File(getCacheDir(), "textures"));
+
 		// 创建3D场景
 		scene = new SceneLoader(this);
 		scene.init();
@@ -97,6 +116,22 @@ public class ModelActivity extends Activity {
 		// }
 	}
 
+	@Override
+	protected void onResume() {
+		super.onResume();
+		if (statsHud != null) {
+			statsHud.start();
+		}
+	}
+
+	@Override
+	protected void onPause() {
+		super.onPause();
+		if (statsHud != null) {
+			statsHud.stop();
+		}
+	}
+
 	@Override
 	public boolean onCreateOptionsMenu(Menu menu) {
 		// Inflate the menu; this adds items to the action bar if it is present.
@@ -232,4 +267,12 @@ public class ModelActivity extends Activity {
 		return gLView;
 	}
 
+	public ModelRenderer getModelRenderer() {
+		return ((ModelSurfaceView) gLView).getModelRenderer();
+	}
+
+	public FrameScheduler getFrameScheduler() {
+		return ((ModelSurfaceView) gLView).getFrameScheduler();
+	}
+
 }
@@ -1,7 +1,7 @@
 package org.andresoviedo.app.model3D.view;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,16 +10,26 @@ import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 import org.andresoviedo.app.model3D.entities.Camera;
+import org.andresoviedo.app.model3D.entities.Frustum;
+import org.andresoviedo.app.model3D.model.DrawMaterial;
 import org.andresoviedo.app.model3D.model.Object3D;
 import org.andresoviedo.app.model3D.model.Object3DBuilder;
 import org.andresoviedo.app.model3D.model.Object3DData;
 import org.andresoviedo.app.model3D.model.Object3DImpl;
+import org.andresoviedo.app.model3D.services.LoadReport;
 import org.andresoviedo.app.model3D.services.SceneLoader;
+import org.andresoviedo.app.model3D.util.BufferObjectManager;
+import org.andresoviedo.app.model3D.util.GLES20Facade;
+import org.andresoviedo.app.model3D.util.GLStateCache;
 import org.andresoviedo.app.model3D.util.GLUtil;
+import org.andresoviedo.app.model3D.util.TextureImage;
+import org.andresoviedo.app.model3D.util.TextureManager;
 
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
+import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -42,10 +52,25 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 	private float far = 10f;
 
 	private Object3DBuilder drawer;
+	// 模型在GPU中的缓冲区（顶点和索引）
+	private BufferObjectManager bufferObjectManager;
+	// 跳过不会改变OpenGL状态的调用
+	private GLStateCache glState;
+	// 每帧要绘制的对象
+	private final RenderQueue renderQueue = new RenderQueue();
+	// 视锥体，用于跳过屏幕外的对象
+	private final Frustum frustum = new Frustum();
+	// 最近帧的性能指标
+	// the frames drawn more than 2 intervals after the previous one (and not requested by it) were idle
+	private final FrameStats stats = new FrameStats(300, 2 * 1000000L / FrameScheduler.DEFAULT_FPS);
+	// 本帧第一次完整绘制的模型的加载报告（上传到GPU）
+	private final List<LoadReport> uploadReports = new ArrayList<LoadReport>();
 	// 线框相关的形状（它应该只由线组成）
 	private Map<Object3DData, Object3DData> wireframes = new HashMap<Object3DData, Object3DData>();
-	// 加载的纹理
-	private Map<byte[], Integer> textures = new HashMap<byte[], Integer>();
+	// 加载的纹理（按内容共享，超出预算时释放）
+	private TextureManager textureManager;
+	// 上一帧的对象，用于释放从场景中删除的对象的资源
+	private List<Object3DData> lastObjects;
 	// 相应的opengl边框
 	private Map<Object3DData, Object3DData> boundingBoxes = new HashMap<Object3DData, Object3DData>();
 	// 相应的opengl边界框
@@ -101,6 +126,29 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 
 		//该组件将使用OpenGL绘制实际模型
 		drawer = new Object3DBuilder();
+
+		// 将模型上传到GPU一次，而不是每帧都复制（偏移量需要API 9）
+		glState = new GLStateCache(new GLES20Facade());
+		bufferObjectManager = Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD
+				? new BufferObjectManager(glState) : null;
+		drawer.setGL(glState, bufferObjectManager);
+		drawer.setFrustum(frustum);
+		// 旧的纹理随上下文一起丢失，停止旧管理器的解码线程
+		if (textureManager != null) {
+			textureManager.release();
+		}
+		textureManager = new TextureManager(glState, TextureManager.DEFAULT_BUDGET);
+		drawer.setTextureManager(textureManager);
+		// 纹理在加载时按GPU支持的最大尺寸缩小
+		int[] maxTextureSize = new int[1];
+		GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, maxTextureSize, 0);
+		if (maxTextureSize[0] > 0) {
+			TextureImage.setMaxSize(maxTextureSize[0]);
+		}
+		// 不支持ETC1时纹理不压缩
+		String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+		TextureImage.setETC1(extensions != null && extensions.contains("GL_OES_compressed_ETC1_RGB8_texture"));
+		lastObjects = null;
 	}
 
 	@Override
@@ -129,6 +177,9 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 	@Override
 	public void onDrawFrame(GL10 unused) {
 
+		stats.beginFrame();
+		glState.resetCounters();
+
 		//背景颜色
 		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
@@ -143,7 +194,10 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 
 		SceneLoader scene = main.getModelActivity().getScene();
 		if (scene == null) {
-			//
+			// the scene is still being created
+			boolean next = main.getFrameScheduler().onFrameDrawn(false);
+			stats.endFrame(glState.getDrawCalls(), glState.getVertices(), glState.getProgramBinds(),
+					glState.getTextureBinds(), 0, 0, next);
 			return;
 		}
 
@@ -169,7 +223,15 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 			lightBulbDrawer.draw(scene.getLightBulb(), modelProjectionMatrix, modelViewMatrix, -1, lightPosInEyeSpace);
 		}
 
+		renderQueue.clear();
+		frustum.update(mvpMatrix);
+		long uploadStart = SystemClock.uptimeMillis();
+		long uploadBytes = bufferObjectManager != null ? bufferObjectManager.getSize() : 0;
 		List<Object3DData> objects = scene.getObjects();
+		if (objects != lastObjects) {
+			releaseRemoved(objects);
+			lastObjects = objects;
+		}
 		for (int i=0; i<objects.size(); i++) {
 			try {
 				Object3DData objData = objects.get(i);
@@ -178,12 +240,30 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 				Object3D drawerObject = drawer.getDrawer(objData, scene.isDrawTextures(), scene.isDrawLighting());
 				// Log.d("ModelRenderer","Drawing object using '"+drawerObject.getClass()+"'");
 
-				Integer textureId = textures.get(objData.getTextureData());
-				if (textureId == null && objData.getTextureData() != null) {
-					ByteArrayInputStream textureIs = new ByteArrayInputStream(objData.getTextureData());
-					textureId = GLUtil.loadTexture(textureIs);
-					textureIs.close();
-					textures.put(objData.getTextureData(), textureId);
+				// 跳过屏幕外的对象（以及它的线框、边界框和法线）
+				float[] boundingSphere = objData.getBoundingSphere();
+				if (boundingSphere != null && drawerObject instanceof Object3DImpl && !frustum.isVisible(
+						((Object3DImpl) drawerObject).getMMatrix(objData), boundingSphere, 0)) {
+					// keep its buffers in the GPU, it will probably be drawn again soon
+					if (bufferObjectManager != null) {
+						bufferObjectManager.keep(objData);
+						keepBuffers(wireframes.get(objData));
+						keepBuffers(boundingBoxes.get(objData));
+						keepBuffers(normals.get(objData));
+					}
+					continue;
+				}
+
+				// 第一次绘制完整的模型：纹理和缓冲区被上传到GPU
+				LoadReport report = objData.getLoadReport();
+				if (report != null && report.isMeasured(LoadReport.GENERATE_ARRAYS) && !report.isComplete()) {
+					uploadReports.add(report);
+				}
+
+				int textureId = textureManager.acquire(objData);
+				if (textureId == -1 && objData.getTextureData() != null && scene.isDrawTextures()) {
+					// the texture is still being uploaded
+					drawerObject = drawer.getDrawer(objData, false, scene.isDrawLighting());
 				}
 
 				if (scene.isDrawWireframe() && objData.getDrawMode() != GLES20.GL_POINTS
@@ -198,18 +278,17 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 							wireframe = Object3DBuilder.buildWireframe(objData);
 							wireframes.put(objData, wireframe);
 						}
-						drawerObject.draw(wireframe,modelProjectionMatrix,modelViewMatrix,wireframe.getDrawMode(),
-								wireframe.getDrawSize(),textureId != null? textureId:-1, lightPosInEyeSpace);
+						enqueue(drawerObject, wireframe, wireframe.getDrawMode(), wireframe.getDrawSize(),
+								textureId, lightPosInEyeSpace);
 					}catch(Error e){
 						Log.e("ModelRenderer",e.getMessage(),e);
 					}
 				} else if (scene.isDrawPoints() || (objData.getFaces() != null && !objData.getFaces().loaded())){
-					drawerObject.draw(objData, modelProjectionMatrix, modelViewMatrix
-							,GLES20.GL_POINTS, objData.getDrawSize(),
-							textureId != null ? textureId : -1, lightPosInEyeSpace);
+					enqueue(drawerObject, objData, GLES20.GL_POINTS, objData.getDrawSize(),
+							textureId, lightPosInEyeSpace);
 				} else {
-					drawerObject.draw(objData, modelProjectionMatrix, modelViewMatrix,
-							textureId != null ? textureId : -1, lightPosInEyeSpace);
+					enqueue(drawerObject, objData, objData.getDrawMode(), objData.getDrawSize(),
+							textureId, lightPosInEyeSpace);
 				}
 
 				//
@@ -220,7 +299,8 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 						boundingBoxes.put(objData, boundingBoxData);
 					}
 					Object3D boundingBoxDrawer = drawer.getBoundingBoxDrawer();
-					boundingBoxDrawer.draw(boundingBoxData, modelProjectionMatrix, modelViewMatrix, -1, null);
+					enqueue(boundingBoxDrawer, boundingBoxData, boundingBoxData.getDrawMode(),
+							boundingBoxData.getDrawSize(), -1, null);
 				}
 
 				// 绘制边界框
@@ -235,7 +315,7 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 					}
 					if (normalData != null) {
 						Object3D normalsDrawer = drawer.getFaceNormalsDrawer();
-						normalsDrawer.draw(normalData, modelProjectionMatrix, modelViewMatrix, -1, null);
+						enqueue(normalsDrawer, normalData, normalData.getDrawMode(), normalData.getDrawSize(), -1, null);
 					}
 				}
 
@@ -244,6 +324,96 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 						"There was a problem creating 3D object", Toast.LENGTH_LONG).show();
 			}
 		}
+
+		// 按程序、纹理和深度排序绘制，以尽量减少状态更改
+		renderQueue.submit(modelProjectionMatrix, modelViewMatrix);
+
+		// the upload time of the models drawn for the first time is the time of the whole frame
+		if (!uploadReports.isEmpty()) {
+			long uploadTime = SystemClock.uptimeMillis() - uploadStart;
+			if (bufferObjectManager != null) {
+				uploadBytes = bufferObjectManager.getSize() - uploadBytes;
+			} else {
+				uploadBytes = 0;
+			}
+			for (int i = 0; i < uploadReports.size(); i++) {
+				uploadReports.get(i).record(LoadReport.GPU_UPLOAD, uploadTime, uploadBytes);
+				uploadReports.get(i).complete();
+			}
+			uploadReports.clear();
+		}
+
+		// 释放被替换的缓冲区
+		if (bufferObjectManager != null) {
+			bufferObjectManager.endFrame();
+		}
+		textureManager.endFrame();
+		GLUtil.endFrame();
+
+		// draw again if the camera moved while drawing, a texture is being uploaded or something is animating
+		boolean next = main.getFrameScheduler().onFrameDrawn(camera.hasChanged() || textureManager.hasPendingUploads());
+
+		stats.endFrame(glState.getDrawCalls(), glState.getVertices(), glState.getProgramBinds(),
+				glState.getTextureBinds(), frustum.getCulledObjects(), frustum.getCulledRanges(), next);
+	}
+
+	/**
+	 * Release the textures, the buffer objects & the shapes built for the objects that are no longer in the scene
+	 */
+	private void releaseRemoved(List<Object3DData> objects) {
+		if (lastObjects == null) {
+			return;
+		}
+		for (int i = 0; i < lastObjects.size(); i++) {
+			Object3DData obj = lastObjects.get(i);
+			if (!objects.contains(obj)) {
+				textureManager.release(obj);
+				if (obj.getDrawMaterials() != null) {
+					for (DrawMaterial material : obj.getDrawMaterials()) {
+						textureManager.release(material);
+					}
+				}
+				if (bufferObjectManager != null) {
+					bufferObjectManager.release(obj);
+					releaseBuffers(wireframes.get(obj));
+					releaseBuffers(boundingBoxes.get(obj));
+					releaseBuffers(normals.get(obj));
+				}
+				wireframes.remove(obj);
+				boundingBoxes.remove(obj);
+				normals.remove(obj);
+			}
+		}
+	}
+
+	private void keepBuffers(Object3DData shape) {
+		if (shape != null) {
+			bufferObjectManager.keep(shape);
+		}
+	}
+
+	private void releaseBuffers(Object3DData shape) {
+		if (shape != null) {
+			bufferObjectManager.release(shape);
+		}
+	}
+
+	/**
+	 * Add the object to the render queue of the frame
+	 */
+	private void enqueue(Object3D drawer, Object3DData obj, int drawMode, int drawSize, int textureId,
+						 float[] lightPos) {
+		// distance to the camera in eye space
+		float[] position = obj.getPosition();
+		float depth = 0;
+		if (position != null) {
+			float z = modelViewMatrix[2] * position[0] + modelViewMatrix[6] * position[1]
+					+ modelViewMatrix[10] * position[2] + modelViewMatrix[14];
+			depth = (-z - near) / (far - near);
+		}
+		float[] color = obj.getColor();
+		boolean transparent = color != null && color.length == 4 && color[3] < 1;
+		renderQueue.add(drawer, obj, drawMode, drawSize, textureId, lightPos, depth, transparent);
 	}
 
 	public int getWidth() {
@@ -265,4 +435,32 @@ public class ModelRenderer implements GLSurfaceView.Renderer {
 	public Camera getCamera() {
 		return camera;
 	}
+
+	/**
+	 * @return the view frustum of the last frame (and the counters of objects visible & culled)
+	 */
+	public Frustum getFrustum() {
+		return frustum;
+	}
+
+	/**
+	 * @return the state of OpenGL (and the counters of calls issued & skipped)
+	 */
+	public GLStateCache getGLState() {
+		return glState;
+	}
+
+	/**
+	 * @return the textures in the GPU (and the memory budget in use)
+	 */
+	public TextureManager getTextureManager() {
+		return textureManager;
+	}
+
+	/**
+	 * @return the metrics of the last frames
+	 */
+	public FrameStats getStats() {
+		return stats;
+	}
 }
\ No newline at end of file
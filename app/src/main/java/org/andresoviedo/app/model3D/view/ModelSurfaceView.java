@@ -16,6 +16,7 @@ public class ModelSurfaceView extends GLSurfaceView {
 	private ModelActivity parent;
 	private ModelRenderer mRenderer;
 	private TouchController touchHandler;
+	private FrameScheduler frameScheduler;
 
 	public ModelSurfaceView(ModelActivity parent) {
 		super(parent);
@@ -30,9 +31,8 @@ public class ModelSurfaceView extends GLSurfaceView {
 		mRenderer = new ModelRenderer(this);
 		setRenderer(mRenderer);
 
-		// Render the view only when there is a change in the drawing data
-		// TODO: enable this again
-		// setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+		// Render the view only when there is a change in the drawing data (or while animating)
+		frameScheduler = new FrameScheduler(this, FrameScheduler.DEFAULT_FPS);
 
 		touchHandler = new TouchController(this, mRenderer);
 	}
@@ -46,4 +46,12 @@ public class ModelSurfaceView extends GLSurfaceView {
 		return parent;
 	}
 
+	public ModelRenderer getModelRenderer() {
+		return mRenderer;
+	}
+
+	public FrameScheduler getFrameScheduler() {
+		return frameScheduler;
+	}
+
 }
\ No newline at end of file
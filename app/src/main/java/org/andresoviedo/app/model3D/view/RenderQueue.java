@@ -0,0 +1,169 @@
+package org.andresoviedo.app.model3D.view;
+
+import org.andresoviedo.app.model3D.model.Object3D;
+import org.andresoviedo.app.model3D.model.Object3DData;
+import org.andresoviedo.app.model3D.model.Object3DImpl;
+
+import java.util.Arrays;
+
+/**
+ * Queue of the objects drawn in a frame. Items are sorted by a 64 bit key before they are drawn, so that objects
+ * drawn with the same program and texture are drawn together and the GL state changes as little as possible.
+ *
+ * Layout of the key (most significant bits first):
+ * <pre>
+ * opaque:      0 | program (8) | texture (16) | depth (24), front to back
+ * transparent: 1 | depth (24), back to front | program (8) | texture (16)
+ * </pre>
+ * Items are kept between frames, so adding them doesn't allocate memory.
+ *
+ * @author andresoviedo
+ */
+final class RenderQueue {
+
+	private static final int DEPTH_BITS = 24;
+	private static final int MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+	private static final int RADIX_BITS = 8;
+	private static final int RADIX = 1 << RADIX_BITS;
+
+	private Object3D[] drawers = new Object3D[64];
+	private Object3DData[] objects = new Object3DData[64];
+	private int[] drawModes = new int[64];
+	private int[] drawSizes = new int[64];
+	private int[] textureIds = new int[64];
+	private float[][] lightPositions = new float[64][];
+	private long[] keys = new long[64];
+	private int size;
+
+	// sorted order of the items
+	private int[] order = new int[64];
+	private int[] tmpOrder = new int[64];
+	private final int[] counts = new int[RADIX];
+
+	/**
+	 * Add an item to the queue
+	 *
+	 * @param drawer      the program used to draw the object
+	 * @param obj         the object
+	 * @param drawMode    the draw mode
+	 * @param drawSize    the draw size
+	 * @param textureId   the texture or -1
+	 * @param lightPos    the light position in eye space or null
+	 * @param depth       distance of the object to the camera, from 0 (near) to 1 (far)
+	 * @param transparent whether the object has to be blended with the ones behind it
+	 */
+	void add(Object3D drawer, Object3DData obj, int drawMode, int drawSize, int textureId, float[] lightPos,
+			 float depth, boolean transparent) {
+		if (size == keys.length) {
+			grow();
+		}
+		drawers[size] = drawer;
+		objects[size] = obj;
+		drawModes[size] = drawMode;
+		drawSizes[size] = drawSize;
+		textureIds[size] = textureId;
+		lightPositions[size] = lightPos;
+		keys[size] = key(drawer, textureId, depth, transparent);
+		size++;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Draw all the items sorted and empty the queue
+	 */
+	void submit(float[] pMatrix, float[] vMatrix) {
+		sort();
+		for (int i = 0; i < size; i++) {
+			int item = order[i];
+			drawers[item].draw(objects[item], pMatrix, vMatrix, drawModes[item], drawSizes[item], textureIds[item],
+					lightPositions[item]);
+		}
+		clear();
+	}
+
+	void clear() {
+		for (int i = 0; i < size; i++) {
+			drawers[i] = null;
+			objects[i] = null;
+			lightPositions[i] = null;
+		}
+		size = 0;
+	}
+
+	private static long key(Object3D drawer, int textureId, float depth, boolean transparent) {
+		long program = drawer instanceof Object3DImpl ? ((Object3DImpl) drawer).getProgram() & 0xFF : 0;
+		long texture = (textureId + 1) & 0xFFFF;
+		long z = (long) (Math.max(0, Math.min(1, depth)) * MAX_DEPTH);
+		if (transparent) {
+			return 1L << 63 | (MAX_DEPTH - z) << 24 | program << 16 | texture;
+		}
+		return program << 40 | texture << 24 | z;
+	}
+
+	/**
+	 * LSD radix sort of the keys in 8 bit digits. Digits that are the same in all the keys are skipped
+	 */
+	private void sort() {
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		for (int shift = 0; shift < 64; shift += RADIX_BITS) {
+			long first = keys[0] >>> shift & (RADIX - 1);
+			boolean same = true;
+			for (int i = 1; i < size && same; i++) {
+				same = (keys[i] >>> shift & (RADIX - 1)) == first;
+			}
+			if (same) {
+				continue;
+			}
+
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < size; i++) {
+				counts[(int) (keys[i] >>> shift & (RADIX - 1))]++;
+			}
+			for (int i = 0, sum = 0; i < RADIX; i++) {
+				int count = counts[i];
+				counts[i] = sum;
+				sum += count;
+			}
+			for (int i = 0; i < size; i++) {
+				int item = order[i];
+				tmpOrder[counts[(int) (keys[item] >>> shift & (RADIX - 1))]++] = item;
+			}
+			int[] swap = order;
+			order = tmpOrder;
+			tmpOrder = swap;
+		}
+	}
+
+	private void grow() {
+		// Arrays.copyOf requires API 9
+		int capacity = keys.length * 2;
+		Object3D[] newDrawers = new Object3D[capacity];
+		System.arraycopy(drawers, 0, newDrawers, 0, size);
+		drawers = newDrawers;
+		Object3DData[] newObjects = new Object3DData[capacity];
+		System.arraycopy(objects, 0, newObjects, 0, size);
+		objects = newObjects;
+		drawModes = grow(drawModes, capacity);
+		drawSizes = grow(drawSizes, capacity);
+		textureIds = grow(textureIds, capacity);
+		float[][] newLightPositions = new float[capacity][];
+		System.arraycopy(lightPositions, 0, newLightPositions, 0, size);
+		lightPositions = newLightPositions;
+		long[] newKeys = new long[capacity];
+		System.arraycopy(keys, 0, newKeys, 0, size);
+		keys = newKeys;
+		order = new int[capacity];
+		tmpOrder = new int[capacity];
+	}
+
+	private int[] grow(int[] array, int capacity) {
+		int[] ret = new int[capacity];
+		System.arraycopy(array, 0, ret, 0, size);
+		return ret;
+	}
+}
@@ -0,0 +1,51 @@
+package org.andresoviedo.app.model3D.view;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.widget.TextView;
+
+/**
+ * Text shown over the 3D view with the summary of the {@link FrameStats}. It's refreshed from the UI thread twice per
+ * second, so it doesn't slow down the renderer.
+ *
+ * @author andresoviedo
+ */
+public final class StatsHud extends TextView {
+
+	private static final long REFRESH_MILLIS = 500;
+
+	private final FrameStats stats;
+	private boolean running;
+
+	private final Runnable refresh = new Runnable() {
+		@Override
+		public void run() {
+			setText(stats.getSummary());
+			if (running) {
+				postDelayed(this, REFRESH_MILLIS);
+			}
+		}
+	};
+
+	public StatsHud(Context context, FrameStats stats) {
+		super(context);
+		this.stats = stats;
+		setTypeface(Typeface.MONOSPACE);
+		setTextSize(12);
+		setTextColor(Color.WHITE);
+		setBackgroundColor(Color.argb(128, 0, 0, 0));
+		setPadding(8, 8, 8, 8);
+	}
+
+	public void start() {
+		running = true;
+		removeCallbacks(refresh);
+		post(refresh);
+	}
+
+	public void stop() {
+		running = false;
+		removeCallbacks(refresh);
+	}
+}
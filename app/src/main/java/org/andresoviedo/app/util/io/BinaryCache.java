@@ -0,0 +1,318 @@
+package org.andresoviedo.app.util.io;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Disk cache of binary data. Every entry is a file with a set of named sections (i.e. the vertex buffer of a model)
+ * that is memory mapped when read, so sections can be used directly as direct buffers without copying them.
+ *
+ * Entries are mapped in {@link FileChannel.MapMode#PRIVATE} mode, so buffers can be modified in memory (i.e. to scale
+ * the model) without changing the cache. When the cache grows bigger than the configured size, the least recently
+ * used entries are deleted.
+ *
+ * Layout of an entry (all in native byte order):
+ * <pre>
+ * int magic, int sectionCount
+ * for each section: short nameLength, byte[] name, long offset, long length
+ * section data, each one aligned to 8 bytes
+ * </pre>
+ *
+ * @author andresoviedo
+ */
+public final class BinaryCache {
+
+	private static final int MAGIC = 0x4F334443;
+	private static final String EXTENSION = ".bin";
+	private static final int ALIGNMENT = 8;
+
+	private final File dir;
+	private final long maxSize;
+
+	/**
+	 * @param dir     the directory where entries are stored
+	 * @param maxSize max size in bytes of all the entries
+	 */
+	public BinaryCache(File dir, long maxSize) {
+		this.dir = dir;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Build a key from the specified values (i.e. path, size & last modification time of the source file)
+	 *
+	 * @param parts the values identifying the entry
+	 * @return the key, which is a valid file name
+	 */
+	public static String key(Object... parts) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5");
+			for (Object part : parts) {
+				md.update(String.valueOf(part).getBytes("UTF-8"));
+				md.update((byte) 0);
+			}
+			StringBuilder ret = new StringBuilder();
+			for (byte b : md.digest()) {
+				ret.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return ret.toString();
+		} catch (NoSuchAlgorithmException ex) {
+			throw new RuntimeException(ex);
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Get an entry from the cache
+	 *
+	 * @param key the key of the entry
+	 * @return the entry or null if it isn't cached (or it's corrupted)
+	 */
+	public synchronized Entry get(String key) {
+		File file = new File(dir, key + EXTENSION);
+		if (!file.isFile()) {
+			return null;
+		}
+		RandomAccessFile raf = null;
+		try {
+			// private mappings require a channel opened for writing too (though the file is never written)
+			raf = new RandomAccessFile(file, "rw");
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Entry too big");
+			}
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.PRIVATE, 0, channel.size());
+			map.order(ByteOrder.nativeOrder());
+			if (map.getInt() != MAGIC) {
+				throw new IOException("Wrong magic number");
+			}
+			int count = map.getInt();
+			Map<String, ByteBuffer> sections = new HashMap<String, ByteBuffer>();
+			for (int i = 0; i < count; i++) {
+				byte[] name = new byte[map.getShort()];
+				map.get(name);
+				long offset = map.getLong();
+				long length = map.getLong();
+				if (offset < 0 || length < 0 || offset + length > map.capacity()) {
+					throw new IOException("Wrong section '" + new String(name, "UTF-8") + "'");
+				}
+				ByteBuffer section = map.duplicate();
+				section.position((int) offset);
+				section.limit((int) (offset + length));
+				sections.put(new String(name, "UTF-8"), section.slice().order(ByteOrder.nativeOrder()));
+			}
+
+			// keep track of the last use for the eviction
+			file.setLastModified(System.currentTimeMillis());
+			return new Entry(sections);
+		} catch (Exception ex) {
+			Log.e("BinaryCache", "Problem reading cache entry '" + file + "'. Deleting it...", ex);
+			file.delete();
+			return null;
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException ex) {
+					Log.e("BinaryCache", ex.getMessage(), ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Store an entry in the cache. Sections are written from 0 to their limit. If there is any problem, the entry is
+	 * not cached.
+	 *
+	 * @param key      the key of the entry
+	 * @param sections the data (either {@link ByteBuffer}, {@link FloatBuffer} or {@link IntBuffer})
+	 * @return true if the entry was stored
+	 */
+	public synchronized boolean put(String key, Map<String, ? extends Buffer> sections) {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			Log.e("BinaryCache", "Couldn't create cache dir '" + dir + "'");
+			return false;
+		}
+
+		// header
+		Map<String, long[]> layout = new LinkedHashMap<String, long[]>();
+		long headerSize = 8;
+		for (String name : sections.keySet()) {
+			headerSize += 2 + utf8(name).length + 16;
+		}
+		long offset = align(headerSize);
+		for (Map.Entry<String, ? extends Buffer> section : sections.entrySet()) {
+			long length = (long) section.getValue().limit() * bytesPerElement(section.getValue());
+			layout.put(section.getKey(), new long[]{offset, length});
+			offset = align(offset + length);
+		}
+		if (offset > Integer.MAX_VALUE || offset > maxSize) {
+			Log.i("BinaryCache", "Entry too big for the cache: " + offset);
+			return false;
+		}
+
+		File file = new File(dir, key + EXTENSION);
+		File tmp = new File(dir, key + ".tmp");
+		RandomAccessFile raf = null;
+		boolean ok = false;
+		try {
+			raf = new RandomAccessFile(tmp, "rw");
+			raf.setLength(offset);
+			MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, offset);
+			map.order(ByteOrder.nativeOrder());
+			map.putInt(MAGIC);
+			map.putInt(sections.size());
+			for (Map.Entry<String, long[]> section : layout.entrySet()) {
+				byte[] name = utf8(section.getKey());
+				map.putShort((short) name.length);
+				map.put(name);
+				map.putLong(section.getValue()[0]);
+				map.putLong(section.getValue()[1]);
+			}
+			for (Map.Entry<String, ? extends Buffer> section : sections.entrySet()) {
+				map.position((int) layout.get(section.getKey())[0]);
+				write(map, section.getValue());
+			}
+			map.force();
+			ok = true;
+		} catch (IOException ex) {
+			Log.e("BinaryCache", "Problem writing cache entry '" + file + "'", ex);
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException ex) {
+					Log.e("BinaryCache", ex.getMessage(), ex);
+					ok = false;
+				}
+			}
+		}
+		if (!ok || !tmp.renameTo(file)) {
+			tmp.delete();
+			return false;
+		}
+		evict(dir, maxSize);
+		return true;
+	}
+
+	/**
+	 * Delete the least recently used files (by last modification time) until the dir is smaller than the max size.
+	 * It can be used for other caches too, as long as they touch their files when reading them
+	 *
+	 * @param dir     the cache dir
+	 * @param maxSize max size in bytes of all the files
+	 */
+	public static void evict(File dir, long maxSize) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		long size = 0;
+		for (File file : files) {
+			size += file.length();
+		}
+		if (size <= maxSize) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				long m1 = f1.lastModified(), m2 = f2.lastModified();
+				return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+			}
+		});
+		for (int i = 0; i < files.length && size > maxSize; i++) {
+			long length = files[i].length();
+			if (files[i].delete()) {
+				Log.i("BinaryCache", "Evicted '" + files[i].getName() + "' (" + length + " bytes)");
+				size -= length;
+			}
+		}
+	}
+
+	private static void write(ByteBuffer dst, Buffer src) {
+		if (src instanceof ByteBuffer) {
+			ByteBuffer bb = ((ByteBuffer) src).duplicate();
+			bb.rewind();
+			dst.put(bb);
+		} else if (src instanceof FloatBuffer) {
+			FloatBuffer fb = ((FloatBuffer) src).duplicate();
+			fb.rewind();
+			dst.asFloatBuffer().put(fb);
+		} else if (src instanceof IntBuffer) {
+			IntBuffer ib = ((IntBuffer) src).duplicate();
+			ib.rewind();
+			dst.asIntBuffer().put(ib);
+		} else {
+			throw new IllegalArgumentException("Unsupported buffer: " + src.getClass());
+		}
+	}
+
+	private static int bytesPerElement(Buffer buffer) {
+		return buffer instanceof ByteBuffer ? 1 : 4;
+	}
+
+	private static long align(long offset) {
+		return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	private static byte[] utf8(String value) {
+		try {
+			return value.getBytes("UTF-8");
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * A cached entry. All sections are backed by the same (private) memory mapping.
+	 */
+	public static final class Entry {
+
+		private final Map<String, ByteBuffer> sections;
+
+		private Entry(Map<String, ByteBuffer> sections) {
+			this.sections = sections;
+		}
+
+		public boolean has(String name) {
+			return sections.containsKey(name);
+		}
+
+		/**
+		 * @return the section data in native order or null if there is no such section
+		 */
+		public ByteBuffer get(String name) {
+			ByteBuffer ret = sections.get(name);
+			return ret != null ? ret.duplicate().order(ByteOrder.nativeOrder()) : null;
+		}
+
+		public FloatBuffer getFloats(String name) {
+			ByteBuffer ret = get(name);
+			return ret != null ? ret.asFloatBuffer() : null;
+		}
+
+		public IntBuffer getInts(String name) {
+			ByteBuffer ret = get(name);
+			return ret != null ? ret.asIntBuffer() : null;
+		}
+	}
+}
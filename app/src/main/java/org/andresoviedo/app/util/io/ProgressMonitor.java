@@ -0,0 +1,82 @@
+package org.andresoviedo.app.util.io;
+
+import android.os.SystemClock;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Counts the bytes read and notifies the progress (and the throughput) to a {@link Listener}. Notifications are
+ * throttled, so they can be used to update the UI. Bytes can be counted from several threads (i.e. when the chunks
+ * of a file are parsed in parallel).
+ *
+ * @author andresoviedo
+ */
+public class ProgressMonitor {
+
+	/**
+	 * Min time between progress notifications
+	 */
+	private static final long NOTIFY_INTERVAL_MILLIS = 100;
+
+	public interface Listener {
+		/**
+		 * @param read           bytes read so far
+		 * @param total          total bytes of the stream or -1 if unknown
+		 * @param bytesPerSecond average throughput since the stream was opened
+		 */
+		void onProgress(long read, long total, float bytesPerSecond);
+
+		/**
+		 * @return true to stop reading
+		 */
+		boolean isCancelled();
+	}
+
+	private final long total;
+	private final Listener listener;
+	private final long startTime;
+	private long read;
+	private long lastNotifyTime;
+
+	/**
+	 * @param total    bytes to read (i.e. the file size) or -1 if unknown
+	 * @param listener to notify the progress to
+	 */
+	public ProgressMonitor(long total, Listener listener) {
+		this.total = total;
+		this.listener = listener;
+		this.startTime = SystemClock.uptimeMillis();
+	}
+
+	public synchronized long getBytesRead() {
+		return read;
+	}
+
+	/**
+	 * @throws InterruptedIOException if the listener cancelled the reading
+	 */
+	public void checkCancelled() throws InterruptedIOException {
+		if (listener.isCancelled()) {
+			throw new InterruptedIOException("Reading cancelled after " + getBytesRead() + " bytes");
+		}
+	}
+
+	/**
+	 * Count the bytes read, notifying the progress if it wasn't notified recently
+	 */
+	public synchronized void count(long bytes) {
+		read += bytes;
+		if (SystemClock.uptimeMillis() - lastNotifyTime >= NOTIFY_INTERVAL_MILLIS) {
+			notifyProgress();
+		}
+	}
+
+	/**
+	 * Notify the progress now (i.e. at the end of the data)
+	 */
+	public synchronized void notifyProgress() {
+		lastNotifyTime = SystemClock.uptimeMillis();
+		long elapsed = lastNotifyTime - startTime;
+		listener.onProgress(read, total, elapsed > 0 ? read * 1000f / elapsed : 0);
+	}
+}
@@ -1,28 +1,74 @@
 package org.andresoviedo.app.util.io;
 
-import android.app.Activity;
-
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 
 /**
- * Dummy InputStream wrapper. No implementation yet.
+ * InputStream wrapper that counts the bytes read with a {@link ProgressMonitor}. Reading can be cancelled by the
+ * listener, in which case the next read throws an {@link InterruptedIOException}.
  *
  * @author andresoviedo
  */
 
 public class ProgressMonitorInputStream extends InputStream {
 
-	private final Activity parentActivity;
 	private final InputStream stream;
+	private final ProgressMonitor monitor;
 
-	public ProgressMonitorInputStream(Activity parentActivity, String text, InputStream stream) {
-		this.parentActivity = parentActivity;
+	/**
+	 * @param stream   the stream to monitor
+	 * @param total    length of the stream (i.e. the file size) or -1 if unknown
+	 * @param listener to notify the progress to
+	 */
+	public ProgressMonitorInputStream(InputStream stream, long total, ProgressMonitor.Listener listener) {
 		this.stream = stream;
+		this.monitor = new ProgressMonitor(total, listener);
+	}
+
+	public long getBytesRead() {
+		return monitor.getBytesRead();
 	}
 
 	@Override
 	public int read() throws IOException {
-		return stream.read();
+		monitor.checkCancelled();
+		int ret = stream.read();
+		if (ret != -1) {
+			monitor.count(1);
+		} else {
+			monitor.notifyProgress();
+		}
+		return ret;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		monitor.checkCancelled();
+		int ret = stream.read(b, off, len);
+		if (ret > 0) {
+			monitor.count(ret);
+		} else if (ret == -1) {
+			monitor.notifyProgress();
+		}
+		return ret;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		monitor.checkCancelled();
+		long ret = stream.skip(n);
+		monitor.count(ret);
+		return ret;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return stream.available();
+	}
+
+	@Override
+	public void close() throws IOException {
+		stream.close();
 	}
 }
@@ -0,0 +1,132 @@
+package org.andresoviedo.app.util.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only store of floats for when the final size is unknown (i.e. single pass model loading).
+ *
+ * Data is kept in a list of direct buffers where every new chunk doubles the capacity of the previous one, so appending
+ * never copies what was already stored. Once all data is pushed, {@link #seal()} copies everything into a single
+ * buffer of the exact size and releases the chunks.
+ *
+ * @author andresoviedo
+ */
+public final class GrowableFloatBuffer {
+
+	private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+	// stop doubling after 64M floats (256MB) so a single allocation doesn't exhaust the heap
+	private static final int MAX_CHUNK_CAPACITY = 1 << 26;
+
+	private final List<FloatBuffer> chunks = new ArrayList<FloatBuffer>();
+	// first index stored in each chunk
+	private int[] chunkStarts = new int[8];
+	private FloatBuffer current;
+	private int size;
+
+	public GrowableFloatBuffer() {
+		this(DEFAULT_INITIAL_CAPACITY);
+	}
+
+	public GrowableFloatBuffer(int initialCapacity) {
+		addChunk(Math.max(16, initialCapacity));
+	}
+
+	private void addChunk(int capacity) {
+		if (chunks.size() == chunkStarts.length) {
+			int[] newStarts = new int[chunkStarts.length * 2];
+			System.arraycopy(chunkStarts, 0, newStarts, 0, chunkStarts.length);
+			chunkStarts = newStarts;
+		}
+		chunkStarts[chunks.size()] = size;
+		current = createNativeByteBuffer(capacity * 4).asFloatBuffer();
+		chunks.add(current);
+	}
+
+	private void grow() {
+		addChunk(Math.min(current.capacity() * 2, MAX_CHUNK_CAPACITY));
+	}
+
+	public void add(float value) {
+		if (!current.hasRemaining()) {
+			grow();
+		}
+		current.put(value);
+		size++;
+	}
+
+	public void add(float x, float y, float z) {
+		if (current.remaining() < 3) {
+			add(x);
+			add(y);
+			add(z);
+			return;
+		}
+		current.put(x).put(y).put(z);
+		size += 3;
+	}
+
+	public float get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+		}
+		int chunk = findChunk(index);
+		return chunks.get(chunk).get(index - chunkStarts[chunk]);
+	}
+
+	private int findChunk(int index) {
+		int low = 0, high = chunks.size() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (chunkStarts[mid] <= index) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Copy all the stored values into the specified buffer at its current position
+	 *
+	 * @param dst the target buffer. It must have at least {@link #size()} remaining floats
+	 */
+	public void copyTo(FloatBuffer dst) {
+		for (int i = 0; i < chunks.size(); i++) {
+			FloatBuffer chunk = chunks.get(i).duplicate();
+			chunk.flip();
+			dst.put(chunk);
+		}
+	}
+
+	/**
+	 * Build the final buffer with all the values. This store is emptied and can be reused afterwards.
+	 *
+	 * @return a direct buffer in native order with capacity equal to {@link #size()}
+	 */
+	public FloatBuffer seal() {
+		FloatBuffer ret = createNativeByteBuffer(size * 4).asFloatBuffer();
+		copyTo(ret);
+		ret.position(0);
+		clear();
+		return ret;
+	}
+
+	public void clear() {
+		int initialCapacity = chunks.get(0).capacity();
+		chunks.clear();
+		size = 0;
+		addChunk(initialCapacity);
+	}
+
+	private static ByteBuffer createNativeByteBuffer(int length) {
+		return NativeMemory.allocate(length);
+	}
+}
@@ -0,0 +1,124 @@
+package org.andresoviedo.app.util.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only store of ints. Same layout as {@link GrowableFloatBuffer}: geometric chunks of direct memory that are
+ * merged into one exactly-sized buffer by {@link #seal()}.
+ *
+ * @author andresoviedo
+ */
+public final class GrowableIntBuffer {
+
+	private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+	private static final int MAX_CHUNK_CAPACITY = 1 << 26;
+
+	private final List<IntBuffer> chunks = new ArrayList<IntBuffer>();
+	private int[] chunkStarts = new int[8];
+	private IntBuffer current;
+	private int size;
+
+	public GrowableIntBuffer() {
+		this(DEFAULT_INITIAL_CAPACITY);
+	}
+
+	public GrowableIntBuffer(int initialCapacity) {
+		addChunk(Math.max(16, initialCapacity));
+	}
+
+	private void addChunk(int capacity) {
+		if (chunks.size() == chunkStarts.length) {
+			int[] newStarts = new int[chunkStarts.length * 2];
+			System.arraycopy(chunkStarts, 0, newStarts, 0, chunkStarts.length);
+			chunkStarts = newStarts;
+		}
+		chunkStarts[chunks.size()] = size;
+		current = createNativeByteBuffer(capacity * 4).asIntBuffer();
+		chunks.add(current);
+	}
+
+	private void grow() {
+		addChunk(Math.min(current.capacity() * 2, MAX_CHUNK_CAPACITY));
+	}
+
+	public void add(int value) {
+		if (!current.hasRemaining()) {
+			grow();
+		}
+		current.put(value);
+		size++;
+	}
+
+	public int get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+		}
+		int chunk = findChunk(index);
+		return chunks.get(chunk).get(index - chunkStarts[chunk]);
+	}
+
+	public void set(int index, int value) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+		}
+		int chunk = findChunk(index);
+		chunks.get(chunk).put(index - chunkStarts[chunk], value);
+	}
+
+	private int findChunk(int index) {
+		int low = 0, high = chunks.size() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (chunkStarts[mid] <= index) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Copy all the stored values into the specified buffer at its current position
+	 *
+	 * @param dst the target buffer. It must have at least {@link #size()} remaining ints
+	 */
+	public void copyTo(IntBuffer dst) {
+		for (int i = 0; i < chunks.size(); i++) {
+			IntBuffer chunk = chunks.get(i).duplicate();
+			chunk.flip();
+			dst.put(chunk);
+		}
+	}
+
+	/**
+	 * Build the final buffer with all the values. This store is emptied and can be reused afterwards.
+	 *
+	 * @return a direct buffer in native order with capacity equal to {@link #size()}
+	 */
+	public IntBuffer seal() {
+		IntBuffer ret = createNativeByteBuffer(size * 4).asIntBuffer();
+		copyTo(ret);
+		ret.position(0);
+		clear();
+		return ret;
+	}
+
+	public void clear() {
+		int initialCapacity = chunks.get(0).capacity();
+		chunks.clear();
+		size = 0;
+		addChunk(initialCapacity);
+	}
+
+	private static ByteBuffer createNativeByteBuffer(int length) {
+		return NativeMemory.allocate(length);
+	}
+}
@@ -0,0 +1,37 @@
+package org.andresoviedo.app.util.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates the direct buffers of the models, counting the bytes allocated so the loading stages can report how much
+ * native memory they need.
+ *
+ * @author andresoviedo
+ */
+public final class NativeMemory {
+
+	private static final AtomicLong allocatedBytes = new AtomicLong();
+
+	private NativeMemory() {
+	}
+
+	/**
+	 * @param length size in bytes
+	 * @return a direct buffer in the native byte order
+	 */
+	public static ByteBuffer allocate(int length) {
+		ByteBuffer bb = ByteBuffer.allocateDirect(length);
+		bb.order(ByteOrder.nativeOrder());
+		allocatedBytes.addAndGet(length);
+		return bb;
+	}
+
+	/**
+	 * @return bytes allocated since the app started (they are never subtracted, even if the buffers are released)
+	 */
+	public static long getAllocatedBytes() {
+		return allocatedBytes.get();
+	}
+}
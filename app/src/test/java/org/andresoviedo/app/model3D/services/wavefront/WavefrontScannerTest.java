@@ -0,0 +1,231 @@
+package org.andresoviedo.app.model3D.services.wavefront;
+
+import org.andresoviedo.app.util.io.ProgressMonitor;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that the scanner reads the models exactly (bit by bit) as the String based parser did, with
+ * <code>String.split</code>, {@link Float#parseFloat(String)} and {@link Integer#parseInt(String)}
+ */
+public class WavefrontScannerTest {
+
+	private static final File MODELS = new File("src/main/assets/models");
+
+	@Test
+	public void scanModelsAsStringParser() throws IOException {
+		File[] files = MODELS.listFiles();
+		assertTrue("models not found in " + MODELS.getAbsolutePath(), files != null);
+		int models = 0;
+		for (File file : files) {
+			if (!file.getName().toLowerCase().endsWith(".obj")) {
+				continue;
+			}
+			Recorder expected = parseWithStrings(file);
+			Recorder actual = new Recorder();
+			new WavefrontScanner(actual).scan(file);
+			expected.assertSame(file.getName() + " (mapped)", actual);
+
+			// streams are scanned in windows, so check them too
+			actual = new Recorder();
+			new WavefrontScanner(actual).scan(new FileInputStream(file));
+			expected.assertSame(file.getName() + " (stream)", actual);
+			models++;
+		}
+		assertTrue(models > 0);
+	}
+
+	@Test
+	public void scanNumbers() throws IOException {
+		String obj = "v 1 -2.5 3e2\nv 0.1 1.0e-10 -0.000001\nv 3.4028235e38 1e-45 123456789.123456789\n"
+				+ "vn .5 -.5 +1\nvt 0.333333333333 0.666666666667\nvt 1 2 3\n"
+				+ "f 1 2 3\nf 1/1 2/2 3/2\nf 1//1 2//1 3//1\nf -1/-1/-1 -2/-2/-1 -3/-1/-1 1/1/1\n";
+		Recorder expected = parseWithStrings(new BufferedReader(new InputStreamReader(
+				new ByteArrayInputStream(obj.getBytes("UTF-8")), "UTF-8")));
+		Recorder actual = new Recorder();
+		new WavefrontScanner(actual).scan(new ByteArrayInputStream(obj.getBytes("UTF-8")));
+		expected.assertSame("numbers", actual);
+		assertEquals(3 * 3 + 3 + 2 + 3, actual.floats.size());
+	}
+
+	@Test
+	public void mappedFilesNotifyProgress() throws IOException {
+		File file = new File(MODELS, "teapot.obj");
+		final long[] notified = {-1};
+		ProgressMonitor monitor = new ProgressMonitor(file.length(), new ProgressMonitor.Listener() {
+			@Override
+			public void onProgress(long read, long total, float bytesPerSecond) {
+				notified[0] = read;
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return false;
+			}
+		});
+		WavefrontScanner scanner = new WavefrontScanner(new Recorder());
+		scanner.setProgressMonitor(monitor);
+		scanner.scan(file);
+		assertEquals(file.length(), monitor.getBytesRead());
+		assertEquals(file.length(), notified[0]);
+	}
+
+	@Test(expected = InterruptedIOException.class)
+	public void mappedFilesCanBeCancelled() throws IOException {
+		WavefrontScanner scanner = new WavefrontScanner(new Recorder());
+		scanner.setProgressMonitor(new ProgressMonitor(-1, new ProgressMonitor.Listener() {
+			@Override
+			public void onProgress(long read, long total, float bytesPerSecond) {
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return true;
+			}
+		}));
+		scanner.scan(new File(MODELS, "teapot.obj"));
+	}
+
+	private static Recorder parseWithStrings(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			return parseWithStrings(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static Recorder parseWithStrings(BufferedReader reader) throws IOException {
+		Recorder ret = new Recorder();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			line = line.trim();
+			String[] tokens = line.split("\\s+");
+			if (line.startsWith("v ") || line.startsWith("vn ")) {
+				float[] xyz = new float[3];
+				for (int i = 0; i < 3; i++) {
+					xyz[i] = Float.parseFloat(tokens[i + 1]);
+				}
+				if (line.startsWith("v ")) {
+					ret.onVertex(xyz[0], xyz[1], xyz[2], 3);
+				} else {
+					ret.onNormal(xyz[0], xyz[1], xyz[2], 3);
+				}
+			} else if (line.startsWith("vt ")) {
+				float[] uvw = new float[3];
+				for (int i = 1; i < tokens.length && i < 4; i++) {
+					uvw[i - 1] = Float.parseFloat(tokens[i]);
+				}
+				ret.onTexCoord(uvw[0], uvw[1], uvw[2], tokens.length - 1, Math.min(3, tokens.length - 1));
+			} else if (line.startsWith("f ")) {
+				int count = tokens.length - 1;
+				int[] v = new int[count], t = new int[count], n = new int[count];
+				for (int i = 0; i < count; i++) {
+					String[] idxs = tokens[i + 1].split("/");
+					v[i] = Integer.parseInt(idxs[0]);
+					t[i] = idxs.length > 1 ? parseIndex(idxs[1]) : WavefrontScanner.ABSENT;
+					n[i] = idxs.length > 2 ? parseIndex(idxs[2]) : WavefrontScanner.ABSENT;
+				}
+				ret.onFace(v, t, n, count, true);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the index or 0 if it's empty or invalid
+	 */
+	private static int parseIndex(String token) {
+		try {
+			return Integer.parseInt(token);
+		} catch (NumberFormatException ex) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Keeps the values of the vertices, normals, tex coords and faces in the order they are read
+	 */
+	private static class Recorder implements WavefrontScanner.Listener {
+
+		private final List<Float> floats = new ArrayList<Float>();
+		private final List<Integer> ints = new ArrayList<Integer>();
+
+		@Override
+		public void onVertex(float x, float y, float z, int parsed) {
+			ints.add(-1);
+			ints.add(parsed);
+			floats.add(x);
+			floats.add(y);
+			floats.add(z);
+		}
+
+		@Override
+		public void onNormal(float x, float y, float z, int parsed) {
+			ints.add(-2);
+			ints.add(parsed);
+			floats.add(x);
+			floats.add(y);
+			floats.add(z);
+		}
+
+		@Override
+		public void onTexCoord(float u, float v, float w, int tokens, int parsed) {
+			ints.add(-3);
+			ints.add(tokens);
+			ints.add(parsed);
+			floats.add(u);
+			floats.add(v);
+			if (tokens > 2) {
+				floats.add(w);
+			}
+		}
+
+		@Override
+		public void onFace(int[] vertIdxs, int[] texIdxs, int[] normIdxs, int count, boolean ok) {
+			ints.add(-4);
+			ints.add(count);
+			for (int i = 0; i < count; i++) {
+				ints.add(vertIdxs[i]);
+				ints.add(texIdxs[i]);
+				ints.add(normIdxs[i]);
+			}
+		}
+
+		@Override
+		public void onMaterialLib(String name) {
+		}
+
+		@Override
+		public void onUseMaterial(String name) {
+		}
+
+		@Override
+		public void onIgnoredLine(int lineNumber, String line) {
+		}
+
+		void assertSame(String model, Recorder actual) {
+			assertEquals(model + ": number of floats", floats.size(), actual.floats.size());
+			for (int i = 0; i < floats.size(); i++) {
+				assertEquals(model + ": float " + i, Float.floatToIntBits(floats.get(i)),
+						Float.floatToIntBits(actual.floats.get(i)));
+			}
+			assertEquals(model + ": number of ints", ints.size(), actual.ints.size());
+			for (int i = 0; i < ints.size(); i++) {
+				assertEquals(model + ": int " + i, ints.get(i), actual.ints.get(i));
+			}
+		}
+	}
+}
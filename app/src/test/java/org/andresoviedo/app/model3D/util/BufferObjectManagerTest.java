@@ -0,0 +1,137 @@
+package org.andresoviedo.app.model3D.util;
+
+import android.opengl.GLES20;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BufferObjectManagerTest {
+
+	private static final int ARRAY = GLES20.GL_ARRAY_BUFFER;
+	private static final int ELEMENTS = GLES20.GL_ELEMENT_ARRAY_BUFFER;
+
+	private final Object owner = new Object();
+	private final FloatBuffer vertices = FloatBuffer.allocate(9);
+	private RecordingGLFacade gl;
+	private BufferObjectManager manager;
+
+	@Before
+	public void setUp() {
+		gl = new RecordingGLFacade();
+		manager = new BufferObjectManager(gl);
+	}
+
+	@Test
+	public void firstBindUploads() {
+		vertices.position(3);
+		assertEquals(1, manager.bind(owner, ARRAY, vertices, 0));
+		assertEquals(Arrays.asList("glGenBuffers(1)", "glBindBuffer(" + ARRAY + ", 1)",
+				"glBufferData(" + ARRAY + ", 36, buffer[9], " + GLES20.GL_STATIC_DRAW + ")"), gl.getCalls());
+		assertEquals(36, manager.getSize());
+		// the client buffer is not modified
+		assertEquals(3, vertices.position());
+
+		gl.clear();
+		ShortBuffer indices = ShortBuffer.allocate(6);
+		assertEquals(2, manager.bind(owner, ELEMENTS, indices, 0));
+		assertEquals("glBufferData(" + ELEMENTS + ", 12, buffer[6], " + GLES20.GL_STATIC_DRAW + ")",
+				gl.getCalls().get(2));
+		assertEquals(48, manager.getSize());
+	}
+
+	@Test
+	public void sameVersionOnlyBinds() {
+		manager.bind(owner, ARRAY, vertices, 3);
+		gl.clear();
+		manager.endFrame();
+		assertEquals(1, manager.bind(owner, ARRAY, vertices, 3));
+		assertEquals(Collections.singletonList("glBindBuffer(" + ARRAY + ", 1)"), gl.getCalls());
+	}
+
+	@Test
+	public void versionChangeUpdates() {
+		manager.bind(owner, ARRAY, vertices, 0);
+		gl.clear();
+		assertEquals(1, manager.bind(owner, ARRAY, vertices, 1));
+		assertEquals(Arrays.asList("glBindBuffer(" + ARRAY + ", 1)",
+				"glBufferSubData(" + ARRAY + ", 0, 36, buffer[9])"), gl.getCalls());
+		assertEquals(36, manager.getSize());
+
+		// the new version is not uploaded again
+		gl.clear();
+		manager.bind(owner, ARRAY, vertices, 1);
+		assertEquals(Collections.singletonList("glBindBuffer(" + ARRAY + ", 1)"), gl.getCalls());
+	}
+
+	@Test
+	public void endFrameDeletesAfterLimit() {
+		manager.bind(owner, ARRAY, vertices, 0);
+		gl.clear();
+		for (int i = 0; i < 60; i++) {
+			manager.endFrame();
+		}
+		assertEquals(Collections.<String>emptyList(), gl.getCalls());
+		manager.endFrame();
+		assertEquals(Collections.singletonList("glDeleteBuffers(1)"), gl.getCalls());
+		assertEquals(0, manager.getSize());
+
+		// it's uploaded again if it's drawn again
+		gl.clear();
+		assertEquals(2, manager.bind(owner, ARRAY, vertices, 0));
+		assertEquals("glGenBuffers(1)", gl.getCalls().get(0));
+	}
+
+	@Test
+	public void keepAvoidsDelete() {
+		manager.bind(owner, ARRAY, vertices, 0);
+		gl.clear();
+		for (int i = 0; i < 100; i++) {
+			manager.keep(owner);
+			manager.endFrame();
+		}
+		assertEquals(Collections.<String>emptyList(), gl.getCalls());
+		assertEquals(1, manager.bind(owner, ARRAY, vertices, 0));
+	}
+
+	@Test
+	public void releaseDeletesBuffersOfOwner() {
+		Object other = new Object();
+		FloatBuffer otherVertices = FloatBuffer.allocate(3);
+		manager.bind(owner, ARRAY, vertices, 0);
+		manager.bind(owner, ELEMENTS, ShortBuffer.allocate(3), 0);
+		manager.bind(other, ARRAY, otherVertices, 0);
+		gl.clear();
+		manager.release(owner);
+		assertEquals(2, gl.getCalls().size());
+		assertEquals(12, manager.getSize());
+
+		// the buffers of other objects are not affected
+		gl.clear();
+		assertEquals(3, manager.bind(other, ARRAY, otherVertices, 0));
+		assertEquals(Collections.singletonList("glBindBuffer(" + ARRAY + ", 3)"), gl.getCalls());
+	}
+
+	@Test
+	public void uploadErrorsAreReadFromTheFacade() {
+		int validation = GLUtil.getValidation();
+		GLUtil.setValidation(GLUtil.VALIDATION_FULL, 1);
+		try {
+			gl.setError(GLES20.GL_OUT_OF_MEMORY);
+			manager.bind(owner, ARRAY, vertices, 0);
+			fail("the error of glBufferData was not checked");
+		} catch (RuntimeException ex) {
+			assertTrue(ex.getMessage(), ex.getMessage().startsWith("glBufferData"));
+		} finally {
+			GLUtil.setValidation(validation, 1);
+		}
+	}
+}
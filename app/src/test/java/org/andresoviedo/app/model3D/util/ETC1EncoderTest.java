@@ -0,0 +1,175 @@
+package org.andresoviedo.app.model3D.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ETC1EncoderTest {
+
+	private static final int[][] MODIFIERS = {{2, 8}, {5, 17}, {9, 29}, {13, 42}, {18, 60}, {24, 80}, {33, 106},
+			{47, 183}};
+
+	@Test
+	public void solidBlocksRoundTrip() {
+		// the error is never bigger than the step between the modifiers of the first table
+		int step = MODIFIERS[0][1] - MODIFIERS[0][0];
+		for (int r = 0; r < 256; r += 5) {
+			for (int g = 0; g < 256; g += 15) {
+				for (int b = 0; b < 256; b += 15) {
+					int[][] decoded = decode(ETC1Encoder.encodeBlock(solid(r), solid(g), solid(b)));
+					for (int p = 0; p < 16; p++) {
+						assertTrue(r + "," + g + "," + b, Math.abs(decoded[0][p] - r) <= step);
+						assertTrue(r + "," + g + "," + b, Math.abs(decoded[1][p] - g) <= step);
+						assertTrue(r + "," + g + "," + b, Math.abs(decoded[2][p] - b) <= step);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void differentialModeForCloseColors() {
+		// both halves are close colors of 5 bits (5, 15, 24 & 6, 16, 25), far from the 4 bits ones, so the second
+		// color is encoded as a difference to the first one
+		long block = ETC1Encoder.encodeBlock(halves(41, 49, false), halves(123, 132, false), halves(198, 206, false));
+		assertEquals(1, block >>> 33 & 1);
+		assertDecoded(halves(41, 49, false), halves(123, 132, false), halves(198, 206, false), block, 2);
+	}
+
+	@Test
+	public void individualModeForDistantColors() {
+		// black & white halves can't be encoded with a difference
+		long block = ETC1Encoder.encodeBlock(halves(0, 255, false), halves(0, 255, false), halves(0, 255, false));
+		assertEquals(0, block >>> 33 & 1);
+		assertDecoded(halves(0, 255, false), halves(0, 255, false), halves(0, 255, false), block, 2);
+	}
+
+	@Test
+	public void flipFollowsTheSplitOfTheBlock() {
+		int[] zero = solid(0);
+		long block = ETC1Encoder.encodeBlock(halves(0, 255, false), zero, halves(255, 0, false));
+		assertEquals("left & right halves", 0, block >>> 32 & 1);
+		assertDecoded(halves(0, 255, false), zero, halves(255, 0, false), block, 2);
+
+		block = ETC1Encoder.encodeBlock(halves(0, 255, true), zero, halves(255, 0, true));
+		assertEquals("top & bottom halves", 1, block >>> 32 & 1);
+		assertDecoded(halves(0, 255, true), zero, halves(255, 0, true), block, 2);
+	}
+
+	@Test
+	public void edgeBlocksArePadded() {
+		// 5x3: 2 blocks, the second one with only the last column. The last row & column are repeated
+		int width = 5, height = 3;
+		ByteBuffer rgba = ByteBuffer.allocate(width * height * 4);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				rgba.put((y * width + x) * 4, (byte) (x == 4 ? 200 : 40));
+				rgba.put((y * width + x) * 4 + 2, (byte) (y == 2 ? 160 : 80));
+			}
+		}
+		assertEquals(2 * 8, ETC1Encoder.getEncodedSize(width, height));
+		ByteBuffer blocks = ETC1Encoder.encode(rgba, width, height);
+		assertEquals(2 * 8, blocks.capacity());
+		assertEquals(0, blocks.position());
+
+		// blocks are big endian
+		long block = blocks.order(ByteOrder.BIG_ENDIAN).getLong(8);
+		int[] r = new int[16], b = new int[16];
+		for (int p = 0; p < 16; p++) {
+			r[p] = 200;
+			b[p] = p >= 8 ? 160 : 80;
+		}
+		assertDecoded(r, solid(0), b, block, 6);
+		assertEquals(ETC1Encoder.encodeBlock(r, solid(0), b), block);
+	}
+
+	@Test
+	public void encodedSize() {
+		assertEquals(8, ETC1Encoder.getEncodedSize(1, 1));
+		assertEquals(8, ETC1Encoder.getEncodedSize(4, 4));
+		assertEquals(4 * 8, ETC1Encoder.getEncodedSize(5, 5));
+		assertEquals(64 * 8, ETC1Encoder.getEncodedSize(32, 32));
+	}
+
+	private static int[] solid(int value) {
+		int[] ret = new int[16];
+		for (int p = 0; p < 16; p++) {
+			ret[p] = value;
+		}
+		return ret;
+	}
+
+	/**
+	 * @param flip false to split the block in left & right halves, true for top & bottom halves
+	 */
+	private static int[] halves(int first, int second, boolean flip) {
+		int[] ret = new int[16];
+		for (int p = 0; p < 16; p++) {
+			ret[p] = (flip ? p >> 3 : (p & 3) >> 1) == 0 ? first : second;
+		}
+		return ret;
+	}
+
+	private static void assertDecoded(int[] r, int[] g, int[] b, long block, int maxError) {
+		int[][] decoded = decode(block);
+		int[][] expected = {r, g, b};
+		for (int c = 0; c < 3; c++) {
+			for (int p = 0; p < 16; p++) {
+				assertTrue("pixel " + p + " channel " + c + ": " + expected[c][p] + " vs " + decoded[c][p],
+						Math.abs(decoded[c][p] - expected[c][p]) <= maxError);
+			}
+		}
+	}
+
+	/**
+	 * Decode a block as specified by OES_compressed_ETC1_RGB8_texture
+	 *
+	 * @return the reds, greens & blues of the 16 pixels, row after row
+	 */
+	private static int[][] decode(long block) {
+		boolean diff = (block >>> 33 & 1) == 1;
+		boolean flip = (block >>> 32 & 1) == 1;
+		int[] base = new int[6];
+		for (int c = 0; c < 3; c++) {
+			if (diff) {
+				int color = (int) (block >>> (59 - c * 8)) & 31;
+				int delta = ((int) (block >>> (56 - c * 8)) & 7) << 29 >> 29;
+				base[c] = extend5(color);
+				base[c + 3] = extend5(color + delta);
+			} else {
+				base[c] = extend4((int) (block >>> (60 - c * 8)) & 15);
+				base[c + 3] = extend4((int) (block >>> (56 - c * 8)) & 15);
+			}
+		}
+		int[] tables = {(int) (block >>> 37) & 7, (int) (block >>> 34) & 7};
+		int[][] ret = new int[3][16];
+		for (int y = 0; y < 4; y++) {
+			for (int x = 0; x < 4; x++) {
+				int s = flip ? y >> 1 : x >> 1;
+				int bit = x * 4 + y;
+				int index = (int) ((block >>> (16 + bit) & 1) << 1 | (block >>> bit & 1));
+				int modifier = MODIFIERS[tables[s]][index & 1] * ((index & 2) == 0 ? 1 : -1);
+				for (int c = 0; c < 3; c++) {
+					ret[c][y * 4 + x] = clamp(base[s * 3 + c] + modifier);
+				}
+			}
+		}
+		return ret;
+	}
+
+	private static int extend4(int c) {
+		return (c << 4) | c;
+	}
+
+	private static int extend5(int c) {
+		return (c << 3) | (c >> 2);
+	}
+
+	private static int clamp(int value) {
+		return value < 0 ? 0 : (value > 255 ? 255 : value);
+	}
+}
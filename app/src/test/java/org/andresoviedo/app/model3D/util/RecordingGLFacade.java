@@ -0,0 +1,158 @@
+package org.andresoviedo.app.model3D.util;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link GLFacade} that doesn't draw anything but records the calls, so tests can check what reaches the GPU.
+ * Buffer objects get consecutive ids starting at 1.
+ */
+public class RecordingGLFacade implements GLFacade {
+
+	private final List<String> calls = new ArrayList<String>();
+	private int lastBuffer;
+	private int error = GLES20.GL_NO_ERROR;
+
+	/**
+	 * @return the calls recorded so far, as "name(arg, arg...)". Client buffers are recorded by their remaining
+	 * elements
+	 */
+	public List<String> getCalls() {
+		return calls;
+	}
+
+	public void clear() {
+		calls.clear();
+	}
+
+	/**
+	 * @param error the error returned by the next {@link #glGetError()}
+	 */
+	public void setError(int error) {
+		this.error = error;
+	}
+
+	private void record(String name, Object... args) {
+		StringBuilder call = new StringBuilder(name).append('(');
+		for (int i = 0; i < args.length; i++) {
+			if (i > 0) {
+				call.append(", ");
+			}
+			call.append(args[i] instanceof Buffer ? "buffer[" + ((Buffer) args[i]).remaining() + "]" : args[i]);
+		}
+		calls.add(call.append(')').toString());
+	}
+
+	@Override
+	public void glUseProgram(int program) {
+		record("glUseProgram", program);
+	}
+
+	@Override
+	public void glUniform1i(int location, int x) {
+		record("glUniform1i", location, x);
+	}
+
+	@Override
+	public void glUniform3f(int location, float x, float y, float z) {
+		record("glUniform3f", location, x, y, z);
+	}
+
+	@Override
+	public void glUniform4fv(int location, int count, float[] v, int offset) {
+		record("glUniform4fv", location, count);
+	}
+
+	@Override
+	public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+		record("glUniformMatrix4fv", location, count);
+	}
+
+	@Override
+	public void glActiveTexture(int texture) {
+		record("glActiveTexture", texture);
+	}
+
+	@Override
+	public void glBindTexture(int target, int texture) {
+		record("glBindTexture", target, texture);
+	}
+
+	@Override
+	public void glEnableVertexAttribArray(int index) {
+		record("glEnableVertexAttribArray", index);
+	}
+
+	@Override
+	public void glDisableVertexAttribArray(int index) {
+		record("glDisableVertexAttribArray", index);
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer ptr) {
+		record("glVertexAttribPointer", index, size, type, normalized, stride, ptr);
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+		record("glVertexAttribPointer", index, size, type, normalized, stride, offset);
+	}
+
+	@Override
+	public void glGenBuffers(int n, int[] buffers, int offset) {
+		for (int i = 0; i < n; i++) {
+			buffers[offset + i] = ++lastBuffer;
+		}
+		record("glGenBuffers", n);
+	}
+
+	@Override
+	public void glDeleteBuffers(int n, int[] buffers, int offset) {
+		for (int i = 0; i < n; i++) {
+			record("glDeleteBuffers", buffers[offset + i]);
+		}
+	}
+
+	@Override
+	public void glBindBuffer(int target, int buffer) {
+		record("glBindBuffer", target, buffer);
+	}
+
+	@Override
+	public void glBufferData(int target, int size, Buffer data, int usage) {
+		record("glBufferData", target, size, data, usage);
+	}
+
+	@Override
+	public void glBufferSubData(int target, int offset, int size, Buffer data) {
+		record("glBufferSubData", target, offset, size, data);
+	}
+
+	@Override
+	public void glDrawArrays(int mode, int first, int count) {
+		record("glDrawArrays", mode, first, count);
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, Buffer indices) {
+		record("glDrawElements", mode, count, type, indices);
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, int offset) {
+		record("glDrawElements", mode, count, type, offset);
+	}
+
+	/**
+	 * Errors are not recorded as calls, so the calls are the same with or without validation
+	 */
+	@Override
+	public int glGetError() {
+		int ret = error;
+		error = GLES20.GL_NO_ERROR;
+		return ret;
+	}
+}
@@ -0,0 +1,157 @@
+package org.andresoviedo.app.model3D.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TextureImageTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void buildMipmaps4x4() {
+		// every 2x2 quadrant has a single value per channel
+		ByteBuffer pixels = rgba(4, 4, new int[]{
+				10, 10, 20, 20,
+				10, 10, 20, 20,
+				30, 30, 40, 40,
+				30, 30, 40, 40});
+		ByteBuffer[] levels = TextureImage.buildMipmaps(pixels, 4, 4);
+		assertEquals(3, levels.length);
+		assertEquals(pixels, levels[0]);
+		assertPixels(new int[]{10, 20, 30, 40}, levels[1]);
+		assertPixels(new int[]{25}, levels[2]);
+	}
+
+	@Test
+	public void buildMipmapsLevelCount() {
+		assertEquals(1, TextureImage.buildMipmaps(rgba(1, 1, new int[1]), 1, 1).length);
+		assertEquals(3, TextureImage.buildMipmaps(rgba(4, 2, new int[8]), 4, 2).length);
+		assertEquals(4, TextureImage.buildMipmaps(rgba(1, 8, new int[8]), 1, 8).length);
+		assertEquals(9, TextureImage.buildMipmaps(rgba(256, 16, new int[256 * 16]), 256, 16).length);
+	}
+
+	@Test
+	public void buildMipmaps1PixelWide() {
+		// pixels are averaged in pairs along the height
+		ByteBuffer[] levels = TextureImage.buildMipmaps(rgba(1, 4, new int[]{0, 100, 200, 255}), 1, 4);
+		assertEquals(3, levels.length);
+		assertEquals(2 * 4, levels[1].capacity());
+		assertPixels(new int[]{50, 228}, levels[1]);
+		assertPixels(new int[]{139}, levels[2]);
+
+		// and along the width
+		levels = TextureImage.buildMipmaps(rgba(4, 1, new int[]{0, 100, 200, 255}), 4, 1);
+		assertPixels(new int[]{50, 228}, levels[1]);
+	}
+
+	@Test
+	public void downsampleRounds() {
+		ByteBuffer dst = ByteBuffer.allocate(4);
+		TextureImage.downsample(rgba(2, 2, new int[]{0, 0, 0, 1}), 2, 2, dst);
+		assertPixels(new int[]{0}, dst);
+		// halves are rounded up
+		TextureImage.downsample(rgba(2, 2, new int[]{0, 0, 1, 1}), 2, 2, dst);
+		assertPixels(new int[]{1}, dst);
+		TextureImage.downsample(rgba(2, 2, new int[]{0, 1, 1, 1}), 2, 2, dst);
+		assertPixels(new int[]{1}, dst);
+		// no overflow with bytes above 127
+		TextureImage.downsample(rgba(2, 2, new int[]{255, 255, 255, 254}), 2, 2, dst);
+		assertPixels(new int[]{255}, dst);
+	}
+
+	@Test
+	public void getSampleSize() {
+		assertEquals(1, TextureImage.getSampleSize(1024, 1024, 2048, Long.MAX_VALUE));
+		assertEquals(1, TextureImage.getSampleSize(2048, 2048, 2048, Long.MAX_VALUE));
+		assertEquals(2, TextureImage.getSampleSize(2049, 100, 2048, Long.MAX_VALUE));
+		assertEquals(4, TextureImage.getSampleSize(100, 8192, 2048, Long.MAX_VALUE));
+		// limited by the bytes of the decoded image
+		assertEquals(1, TextureImage.getSampleSize(1024, 1024, 2048, 1024 * 1024 * 4));
+		assertEquals(2, TextureImage.getSampleSize(1024, 1024, 2048, 1024 * 1024 * 4 - 1));
+		assertEquals(4, TextureImage.getSampleSize(2048, 2048, 4096, 1024 * 1024));
+	}
+
+	@Test
+	public void writePkmHeaders() throws IOException {
+		// 6x3 -> 3x1 -> 1x1: a PKM per level
+		ByteBuffer[] levels = TextureImage.buildMipmaps(rgba(6, 3, new int[6 * 3]), 6, 3);
+		TextureImage image = TextureImage.compress(6, 3, levels);
+		File file = new File(folder.getRoot(), "texture.pkm");
+		TextureImage.writePkm(image, file);
+		assertTrue(file.isFile());
+		assertFalse(new File(folder.getRoot(), "texture.pkm.tmp").exists());
+
+		int[][] sizes = {{8, 4, 6, 3}, {4, 4, 3, 1}, {4, 4, 1, 1}};
+		DataInputStream dis = new DataInputStream(new FileInputStream(file));
+		try {
+			for (int[] size : sizes) {
+				byte[] magic = new byte[6];
+				dis.readFully(magic);
+				assertEquals("PKM 10", new String(magic, "US-ASCII"));
+				// ETC1_RGB_NO_MIPMAPS
+				assertEquals(0, dis.readUnsignedShort());
+				// extended (multiple of 4) & real sizes, big endian
+				assertEquals(size[0], dis.readUnsignedShort());
+				assertEquals(size[1], dis.readUnsignedShort());
+				assertEquals(size[2], dis.readUnsignedShort());
+				assertEquals(size[3], dis.readUnsignedShort());
+				int blocks = size[0] / 4 * size[1] / 4 * ETC1Encoder.BLOCK_SIZE;
+				assertEquals(blocks, dis.skipBytes(blocks));
+			}
+			assertEquals(-1, dis.read());
+		} finally {
+			dis.close();
+		}
+
+		TextureImage read = TextureImage.readPkm(file);
+		assertEquals(6, read.getWidth());
+		assertEquals(3, read.getHeight());
+		assertEquals(3, read.getLevelCount());
+		assertTrue(read.isCompressed());
+		for (int level = 0; level < 3; level++) {
+			assertEquals(image.getPixels(level), read.getPixels(level));
+		}
+	}
+
+	@Test
+	public void readCorruptedPkm() throws IOException {
+		File file = folder.newFile("corrupted.pkm");
+		assertNull(TextureImage.readPkm(file));
+		assertFalse(file.exists());
+	}
+
+	/**
+	 * @param values the value of all the channels of every pixel
+	 */
+	private static ByteBuffer rgba(int width, int height, int[] values) {
+		assertEquals(width * height, values.length);
+		ByteBuffer ret = ByteBuffer.allocate(width * height * 4);
+		for (int i = 0; i < values.length; i++) {
+			for (int c = 0; c < 4; c++) {
+				ret.put(i * 4 + c, (byte) values[i]);
+			}
+		}
+		return ret;
+	}
+
+	private static void assertPixels(int[] expected, ByteBuffer actual) {
+		for (int i = 0; i < expected.length; i++) {
+			for (int c = 0; c < 4; c++) {
+				assertEquals("pixel " + i + " channel " + c, expected[i], actual.get(i * 4 + c) & 0xFF);
+			}
+		}
+	}
+}